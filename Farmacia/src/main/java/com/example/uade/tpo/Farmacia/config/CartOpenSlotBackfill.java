@@ -0,0 +1,41 @@
+package com.example.uade.tpo.Farmacia.config;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Completa carts.open_slot en los carritos OPEN creados antes de la columna, para que
+ * uk_carts_user_open también los cubra. Si un usuario quedó con varios carritos OPEN (la carrera
+ * que la restricción evita de ahora en más) se conserva el más viejo, que es el que usa CartSessionStore,
+ * y el resto pasa a CANCELLED. Es idempotente y corre después de que Hibernate actualiza el esquema.
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+public class CartOpenSlotBackfill {
+
+    private static final String CANCEL_DUPLICATES_SQL =
+        "UPDATE carts SET status = 'CANCELLED' " +
+        "WHERE status = 'OPEN' AND open_slot IS NULL AND id NOT IN (" +
+        "SELECT keep_id FROM (SELECT MIN(id) AS keep_id FROM carts WHERE status = 'OPEN' GROUP BY user_id) keep)";
+    private static final String FILL_SLOT_SQL =
+        "UPDATE carts SET open_slot = 1 WHERE status = 'OPEN' AND open_slot IS NULL";
+
+    private final JdbcTemplate jdbc;
+
+    public CartOpenSlotBackfill(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    @PostConstruct
+    public void backfill() {
+        int cancelled = jdbc.update(CANCEL_DUPLICATES_SQL);
+        int filled = jdbc.update(FILL_SLOT_SQL);
+        if (cancelled > 0 || filled > 0) {
+            log.info("🛒 open_slot completado en {} carritos abiertos ({} duplicados cancelados)", filled, cancelled);
+        }
+    }
+}
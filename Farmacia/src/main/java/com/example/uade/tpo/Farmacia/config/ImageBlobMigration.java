@@ -0,0 +1,73 @@
+package com.example.uade.tpo.Farmacia.config;
+
+import com.example.uade.tpo.Farmacia.service.ImageBlobStore;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Migra las imágenes guardadas en la columna LONGBLOB product_images.bytes al ImageBlobStore.
+ * - Hace la columna nullable (la entidad ya no la escribe).
+ * - Copia cada imagen con un stream JDBC, de a una fila, y deja la columna en NULL.
+ * Es idempotente: solo procesa filas con bytes, así que si se corta se retoma en el próximo arranque.
+ * Corre antes de que el servidor acepte requests, para no servir imágenes a medio migrar.
+ */
+@Slf4j
+@Component
+public class ImageBlobMigration {
+
+    private static final String LEGACY_COLUMN_SQL =
+        "SELECT COUNT(*) FROM information_schema.columns " +
+        "WHERE table_schema = DATABASE() AND table_name = 'product_images' AND column_name = 'bytes'";
+
+    private final JdbcTemplate jdbc;
+    private final ImageBlobStore blobStore;
+    private final boolean enabled;
+
+    public ImageBlobMigration(JdbcTemplate jdbc, ImageBlobStore blobStore,
+                              @Value("${farmacia.images.migrate-legacy-blobs:true}") boolean enabled) {
+        this.jdbc = jdbc;
+        this.blobStore = blobStore;
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    public void migrate() {
+        Integer legacyColumn = jdbc.queryForObject(LEGACY_COLUMN_SQL, Integer.class);
+        if (!enabled || legacyColumn == null || legacyColumn == 0) {
+            return;
+        }
+
+        jdbc.execute("ALTER TABLE product_images MODIFY bytes LONGBLOB NULL");
+
+        List<Long> pending = jdbc.queryForList(
+            "SELECT id FROM product_images WHERE bytes IS NOT NULL ORDER BY id", Long.class);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        log.info("🚚 Migrando {} imágenes de MySQL al store de imágenes", pending.size());
+        long start = System.currentTimeMillis();
+
+        for (Long id : pending) {
+            jdbc.query("SELECT sha256, bytes FROM product_images WHERE id = ?", rs -> {
+                try (InputStream content = rs.getBinaryStream("bytes")) {
+                    blobStore.put(rs.getString("sha256"), content);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("No se pudo migrar la imagen " + id, e);
+                }
+            }, id);
+            jdbc.update("UPDATE product_images SET bytes = NULL WHERE id = ?", id);
+        }
+
+        log.info("✅ {} imágenes migradas en {} ms; la columna product_images.bytes ya puede eliminarse",
+                 pending.size(), System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.uade.tpo.Farmacia.config;
+
+import com.example.uade.tpo.Farmacia.service.ImageBlobStore;
+import com.example.uade.tpo.Farmacia.service.ImageVariantService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Genera en segundo plano las variantes que les faltan a las imágenes subidas antes
+ * de que existieran los thumbnails precalculados (o de agregar un ancho nuevo a la config).
+ * Recorre solo metadatos; el original se lee del store únicamente si falta alguna variante.
+ * Mientras tanto, ImageVariantService genera a demanda las que se pidan.
+ */
+@Slf4j
+@Component
+public class ImageVariantBackfill {
+
+    private static final String DISTINCT_IMAGES_SQL =
+        "SELECT sha256, MIN(mime_type) AS mime_type, MIN(width) AS width FROM product_images GROUP BY sha256";
+
+    private final JdbcTemplate jdbc;
+    private final ImageBlobStore blobStore;
+    private final ImageVariantService variants;
+    private final boolean enabled;
+
+    public ImageVariantBackfill(JdbcTemplate jdbc, ImageBlobStore blobStore, ImageVariantService variants,
+                                @Value("${farmacia.images.backfill-variants:true}") boolean enabled) {
+        this.jdbc = jdbc;
+        this.blobStore = blobStore;
+        this.variants = variants;
+        this.enabled = enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread worker = new Thread(this::backfill, "image-variant-backfill");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    void backfill() {
+        List<Map<String, Object>> images = jdbc.queryForList(DISTINCT_IMAGES_SQL);
+        int generated = 0;
+        int failed = 0;
+
+        for (Map<String, Object> row : images) {
+            String sha256 = (String) row.get("sha256");
+            String mimeType = (String) row.get("mime_type");
+            int width = ((Number) row.get("width")).intValue();
+
+            boolean missing = variants.getWidths().stream()
+                .anyMatch(w -> w < width && !blobStore.exists(ImageVariantService.variantKey(sha256, w)));
+            if (!missing) {
+                continue;
+            }
+
+            try {
+                variants.generate(sha256, mimeType, width);
+                generated++;
+            } catch (Exception e) {
+                failed++;
+                log.warn("⚠️ No se pudieron generar las variantes de {}: {}", sha256, e.getMessage());
+            }
+        }
+
+        if (generated > 0 || failed > 0) {
+            log.info("🖼️ Backfill de variantes: {} imágenes procesadas, {} con error", generated, failed);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.http.ResponseEntity;
 
+import com.example.uade.tpo.Farmacia.controllers.dto.CartBatchRequest;
 import com.example.uade.tpo.Farmacia.controllers.dto.CartResponse;
 import com.example.uade.tpo.Farmacia.controllers.dto.UpdateQuantityRequest;
 import com.example.uade.tpo.Farmacia.service.CartService;
@@ -39,6 +40,12 @@ public class CartController {
         return service.addItemByParams(currentEmail(auth), productId, quantity);
     }
 
+    // POST /cart/items/batch - varias operaciones (ADD / UPDATE / REMOVE) en un solo request
+    @PostMapping("/items/batch")
+    public CartResponse applyBatch(@RequestBody CartBatchRequest request, Authentication auth) {
+        return service.applyBatch(currentEmail(auth), request);
+    }
+
     // PATCH /cart/items/{itemId} - with JSON body
     @PatchMapping("/items/{itemId}")
     public CartResponse updateItem(
@@ -1,13 +1,15 @@
 package com.example.uade.tpo.Farmacia.controllers;
 
-import com.example.uade.tpo.Farmacia.entity.ProductImage;
+import com.example.uade.tpo.Farmacia.repository.ProductImageRepository.ServingMetadata;
 import com.example.uade.tpo.Farmacia.service.ProductImageService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.Resource;
 import org.springframework.http.CacheControl;
-import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
@@ -25,31 +27,39 @@ public class ImageServingController {
     /**
      * Servir imagen binaria con caching y resize opcional
      * Público - sin autenticación
-     * Query param ?w=320 o ?w=800 para thumbnails automáticos
+     * Query param ?w=320 o ?w=800 (farmacia.images.variant-widths) para thumbnails precalculados
+     * El body es un Resource: Spring lo copia al socket en bloques (sin cargar la imagen
+     * completa en el heap) y responde 206 a los requests con header Range.
+     * Con If-None-Match vigente responde 304 solo con los metadatos, sin abrir el archivo.
      */
     @GetMapping("/images/{imageId}")
-    public ResponseEntity<byte[]> getImage(
+    public ResponseEntity<Resource> getImage(
         @PathVariable Long imageId,
-        @RequestParam(required = false) Integer w // width para resize
+        @RequestParam(required = false) Integer w, // width para resize
+        WebRequest webRequest
     ) throws IOException {
-        ProductImage image = productImageService.getImageById(imageId);
+        ServingMetadata image = productImageService.getServingMetadata(imageId); // sin cargar la entidad
         
-        byte[] imageBytes;
-        // Solo permitir resize a 320px o 800px (thumbnails predefinidos)
-        if (w != null && (w == 320 || w == 800)) {
-            imageBytes = productImageService.getResizedImage(imageId, w);
-        } else {
-            imageBytes = image.getBytes(); // original
-        }
+        // Solo se sirven los anchos de variante configurados; cualquier otro valor devuelve el original
+        Integer width = productImageService.isVariantWidth(w) ? w : null;
         
         // ETag único para cada combinación imagen+tamaño (para caching)
-        String etag = w != null ? image.getSha256() + "-" + w : image.getSha256();
+        String etag = width != null ? image.getSha256() + "-" + width : image.getSha256();
+        CacheControl cacheControl = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic(); // cachear 1 año
+        
+        if (webRequest.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .cacheControl(cacheControl)
+                .eTag(etag)
+                .build();
+        }
+        
+        Resource body = productImageService.getImageContent(image, width); // directo desde el store
         
         return ResponseEntity.ok()
             .contentType(MediaType.parseMediaType(image.getMimeType()))
-            .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic()) // cachear 1 año
+            .cacheControl(cacheControl)
             .eTag(etag) // para validación de cache
-            .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(imageBytes.length))
-            .body(imageBytes);
+            .body(body); // Content-Length y Accept-Ranges los completa Spring a partir del Resource
     }
 }
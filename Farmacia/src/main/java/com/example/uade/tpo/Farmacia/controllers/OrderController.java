@@ -1,22 +1,35 @@
 package com.example.uade.tpo.Farmacia.controllers;
 
+import com.example.uade.tpo.Farmacia.controllers.dto.BulkStatusUpdateRequest;
+import com.example.uade.tpo.Farmacia.controllers.dto.BulkStatusUpdateResponse;
 import com.example.uade.tpo.Farmacia.controllers.dto.CreateOrderRequest;
 import com.example.uade.tpo.Farmacia.controllers.dto.CreateOrderResponse;
 import com.example.uade.tpo.Farmacia.controllers.dto.OrderDTO;
+import com.example.uade.tpo.Farmacia.controllers.dto.OrderPageDTO;
 import com.example.uade.tpo.Farmacia.controllers.dto.OrderSummaryDTO;
 import com.example.uade.tpo.Farmacia.controllers.dto.UpdateOrderStatusRequest;
 import com.example.uade.tpo.Farmacia.entity.Order;
+import com.example.uade.tpo.Farmacia.security.JwtPrincipal;
+import com.example.uade.tpo.Farmacia.service.OrderEventBus;
+import com.example.uade.tpo.Farmacia.service.OrderFilter;
 import com.example.uade.tpo.Farmacia.service.OrderService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.net.URI;
+import java.time.Instant;
 import java.util.List;
 
 @Slf4j
@@ -25,7 +38,12 @@ import java.util.List;
 @RequiredArgsConstructor
 @PreAuthorize("hasRole('USER') or hasRole('PHARMACIST') or hasRole('ADMIN')")
 public class OrderController {
+  // Órdenes por consulta al escribir /all completo (el máximo de la consola paginada)
+  private static final int ALL_ORDERS_PAGE_SIZE = 100;
+
   private final OrderService service;
+  private final OrderEventBus events;
+  private final ObjectMapper objectMapper;
 
   /**
    * POST /api/v1/orders - Crear nueva orden
@@ -92,6 +110,27 @@ public class OrderController {
     return ResponseEntity.ok(orders);
   }
 
+  /**
+   * GET /api/v1/orders/events - Stream de eventos de órdenes (Server-Sent Events)
+   * Farmacéutico/Admin reciben todas las órdenes; un USER solo las propias.
+   * Para reanudar se envía el header Last-Event-ID (o ?lastEventId=, para clientes que no pueden
+   * mandar headers): se reenvían los eventos perdidos, o un evento "reset" si ya no están en memoria.
+   */
+  @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter events(
+      @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventIdHeader,
+      @RequestParam(value = "lastEventId", required = false) Long lastEventIdParam,
+      Authentication auth) {
+    boolean staff = auth.getAuthorities().stream()
+        .anyMatch(a -> a.getAuthority().equals("ROLE_PHARMACIST") || a.getAuthority().equals("ROLE_ADMIN"));
+    Long userId = auth.getPrincipal() instanceof JwtPrincipal principal ? principal.userId() : null;
+    Long lastEventId = lastEventIdHeader != null ? lastEventIdHeader : lastEventIdParam;
+    
+    log.info("📡 GET /api/v1/orders/events - Usuario: {}, staff: {}, lastEventId: {}", 
+             auth.getName(), staff, lastEventId);
+    return events.subscribe(userId, staff, lastEventId);
+  }
+
   @GetMapping("/{id}")
   public ResponseEntity<OrderDTO> get(@PathVariable Long id, Authentication auth) {
     String userEmail = auth.getName();
@@ -119,23 +158,76 @@ public class OrderController {
    * GET /api/v1/orders/all - Obtener todas las órdenes (Admin/Farmacéutico)
    * Este endpoint retorna TODAS las órdenes del sistema, sin filtrar por usuario.
    * Solo accesible para usuarios con rol PHARMACIST o ADMIN.
+   * Acepta los mismos filtros que el listado paginado (ver pageAllOrders).
+   * La respuesta es el mismo array JSON de siempre, pero se escribe de a una página keyset por vez
+   * (cada una en su propia consulta): nunca está la tabla entera en memoria.
    */
   @GetMapping("/all")
   @PreAuthorize("hasRole('PHARMACIST') or hasRole('ADMIN')")
-  public ResponseEntity<List<OrderDTO>> getAllOrders(Authentication auth) {
+  public ResponseEntity<StreamingResponseBody> getAllOrders(
+      @RequestParam(required = false) Order.Status status,
+      @RequestParam(required = false) Order.PaymentStatus paymentStatus,
+      @RequestParam(required = false) String deliveryMethod,
+      @RequestParam(required = false) Long userId,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+      Authentication auth) {
     String userEmail = auth.getName();
-    log.info("🔐 GET /api/v1/orders/all - Admin/Farmacéutico: {}", userEmail);
+    OrderFilter filter = new OrderFilter(status, paymentStatus, deliveryMethod, userId, from, to);
+    log.info("🔐 GET /api/v1/orders/all - Admin/Farmacéutico: {}, Filtros: {}", userEmail, filter);
     
-    try {
-      List<OrderDTO> allOrders = service.getAllOrdersDTO();
-      log.info("✅ Todas las órdenes recuperadas - Admin: {}, Total Orders: {}", 
-               userEmail, allOrders.size());
-      return ResponseEntity.ok(allOrders);
-    } catch (Exception e) {
-      log.error("❌ Error al recuperar todas las órdenes - Admin: {}, Error: {}", 
-                userEmail, e.getMessage(), e);
-      throw e;
-    }
+    // La primera página se pide antes de empezar a escribir: un filtro inválido todavía responde 400
+    OrderPageDTO first = service.pageAllOrdersDTO(filter, null, ALL_ORDERS_PAGE_SIZE, false);
+    
+    StreamingResponseBody body = out -> {
+      int total = 0;
+      try (JsonGenerator json = objectMapper.createGenerator(out)) {
+        json.writeStartArray();
+        OrderPageDTO page = first;
+        while (true) {
+          for (OrderDTO order : page.items()) {
+            json.writeObject(order);
+          }
+          json.flush();
+          total += page.items().size();
+          if (page.nextCursor() == null) {
+            break;
+          }
+          page = service.pageAllOrdersDTO(filter, page.nextCursor(), ALL_ORDERS_PAGE_SIZE, false);
+        }
+        json.writeEndArray();
+      }
+      log.info("✅ Todas las órdenes enviadas - Admin: {}, Total Orders: {}", userEmail, total);
+    };
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+  }
+
+  /**
+   * GET /api/v1/orders/all?limit=50&cursor=... - Consola de órdenes paginada (keyset, más recientes primero)
+   * Se activa al enviar "limit"; sin ese parámetro se devuelve el listado completo (en streaming).
+   * Filtros opcionales: status, paymentStatus, deliveryMethod, userId y rango [from, to) en ISO-8601.
+   * withTotal=true agrega el total filtrado.
+   */
+  @GetMapping(value = "/all", params = "limit")
+  @PreAuthorize("hasRole('PHARMACIST') or hasRole('ADMIN')")
+  public ResponseEntity<OrderPageDTO> pageAllOrders(
+      @RequestParam(required = false) Order.Status status,
+      @RequestParam(required = false) Order.PaymentStatus paymentStatus,
+      @RequestParam(required = false) String deliveryMethod,
+      @RequestParam(required = false) Long userId,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+      @RequestParam(required = false) String cursor,
+      @RequestParam int limit,
+      @RequestParam(required = false, defaultValue = "false") boolean withTotal,
+      Authentication auth) {
+    OrderFilter filter = new OrderFilter(status, paymentStatus, deliveryMethod, userId, from, to);
+    log.info("🔐 GET /api/v1/orders/all (page) - Admin/Farmacéutico: {}, Filtros: {}, limit: {}", 
+             auth.getName(), filter, limit);
+    
+    OrderPageDTO page = service.pageAllOrdersDTO(filter, cursor, limit, withTotal);
+    log.info("✅ Página de órdenes - Items: {}, hasNext: {}", page.items().size(), page.nextCursor() != null);
+    return ResponseEntity.ok(page);
   }
 
   /**
@@ -178,6 +270,28 @@ public class OrderController {
     }
   }
 
+  /**
+   * POST /api/v1/orders/status/bulk - Cambiar el estado de varias órdenes en una llamada (Farmacéutico/Admin)
+   * Body: { "orderIds": [1, 2, 3], "status": "PROCESSING" } (hasta 500 órdenes)
+   * Retorna 200 con el resultado de cada orden: APPLIED, NOT_FOUND, INVALID_TRANSITION o CONFLICT.
+   * Las órdenes válidas se aplican aunque otras fallen; las canceladas devuelven su stock.
+   */
+  @PostMapping("/status/bulk")
+  @PreAuthorize("hasRole('PHARMACIST') or hasRole('ADMIN')")
+  public ResponseEntity<BulkStatusUpdateResponse> bulkUpdateStatus(
+      @RequestBody BulkStatusUpdateRequest request,
+      Authentication auth) {
+    
+    int requested = request.getOrderIds() != null ? request.getOrderIds().size() : 0;
+    log.info("🔄 POST /api/v1/orders/status/bulk - Usuario: {}, Órdenes: {}, Nuevo estado: {}", 
+             auth.getName(), requested, request.getStatus());
+    
+    BulkStatusUpdateResponse response = service.bulkUpdateStatus(request.getOrderIds(), request.getStatus());
+    
+    log.info("✅ Cambio masivo terminado - Aplicadas: {}/{}", response.applied(), response.requested());
+    return ResponseEntity.ok(response);
+  }
+
   /**
    * PATCH /api/v1/orders/{id}/status - Actualizar estado de orden (Farmacéutico/Admin)
    * Endpoint alternativo con PATCH (mantiene compatibilidad)
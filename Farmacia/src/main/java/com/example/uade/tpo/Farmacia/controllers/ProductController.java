@@ -2,6 +2,7 @@ package com.example.uade.tpo.Farmacia.controllers;
 
 import com.example.uade.tpo.Farmacia.controllers.dto.CreateProductRequest;
 import com.example.uade.tpo.Farmacia.controllers.dto.ProductDTO;
+import com.example.uade.tpo.Farmacia.controllers.dto.ProductPageDTO;
 import com.example.uade.tpo.Farmacia.entity.Product;
 import com.example.uade.tpo.Farmacia.service.ProductService;
 import lombok.RequiredArgsConstructor;
@@ -12,7 +13,6 @@ import org.springframework.web.bind.annotation.*;
 
 import java.net.URI;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/v1/products")
@@ -28,12 +28,8 @@ public class ProductController {
                                                 @RequestParam(required = false) Boolean rx) {
     try {
       log.info("GET /products - categoryId: {}, q: '{}', inStock: {}, rx: {}", categoryId, q, inStock, rx);
-      List<Product> products = service.list(categoryId, q, inStock, rx);
-      
-      // Mapear a DTOs
-      List<ProductDTO> productDTOs = products.stream()
-          .map(this::toProductDTO)
-          .collect(Collectors.toList());
+      // DTOs precalculados en el índice de catálogo
+      List<ProductDTO> productDTOs = service.listDTO(categoryId, q, inStock, rx);
       
       log.info("Found {} products", productDTOs.size());
       return ResponseEntity.ok(productDTOs);
@@ -43,12 +39,49 @@ public class ProductController {
     }
   }
 
+  /**
+   * GET /api/v1/products?limit=20&sort=price&cursor=... - Listado paginado (keyset)
+   * Se activa al enviar "limit"; sin ese parámetro se mantiene el listado completo.
+   * sort: id (default), price o name. withTotal=true agrega el total filtrado.
+   */
+  @GetMapping(params = "limit")
+  public ResponseEntity<ProductPageDTO> page(@RequestParam(required = false) Long categoryId,
+                                             @RequestParam(required = false) Boolean inStock,
+                                             @RequestParam(required = false) Boolean rx,
+                                             @RequestParam(required = false, defaultValue = "id") String sort,
+                                             @RequestParam(required = false) String cursor,
+                                             @RequestParam int limit,
+                                             @RequestParam(required = false, defaultValue = "false") boolean withTotal) {
+    log.info("GET /products (page) - categoryId: {}, inStock: {}, rx: {}, sort: {}, limit: {}", 
+             categoryId, inStock, rx, sort, limit);
+    ProductPageDTO page = service.page(categoryId, inStock, rx, sort, cursor, limit, withTotal);
+    log.info("Returning page of {} products - hasNext: {}", page.items().size(), page.nextCursor() != null);
+    return ResponseEntity.ok(page);
+  }
+
+  /**
+   * GET /api/v1/products/search?q=ibuprofeno&categoryId=1&inStock=true&rx=false&limit=20
+   * Búsqueda por texto (sin acentos, por prefijo) en nombre y descripción, ordenada por relevancia.
+   */
+  @GetMapping("/search")
+  public ResponseEntity<List<ProductDTO>> search(@RequestParam String q,
+                                                 @RequestParam(required = false) Long categoryId,
+                                                 @RequestParam(required = false) Boolean inStock,
+                                                 @RequestParam(required = false) Boolean rx,
+                                                 @RequestParam(required = false, defaultValue = "20") int limit) {
+    log.info("GET /products/search - q: '{}', categoryId: {}, inStock: {}, rx: {}, limit: {}",
+             q, categoryId, inStock, rx, limit);
+    List<ProductDTO> results = service.search(q, categoryId, inStock, rx, limit);
+    log.info("Search returned {} products", results.size());
+    return ResponseEntity.ok(results);
+  }
+
   @GetMapping("/{id}")
   public ResponseEntity<ProductDTO> get(@PathVariable Long id) {
     try {
       log.info("GET /products/{}", id);
       Product product = service.get(id);
-      ProductDTO dto = toProductDTO(product);
+      ProductDTO dto = ProductDTO.from(product);
       log.info("Returning product DTO - name: {}, price: {}, stock: {}", 
                dto.name(), dto.price(), dto.stock());
       return ResponseEntity.ok(dto);
@@ -68,7 +101,7 @@ public class ProductController {
                 request.getCategory() != null ? request.getCategory().getId() : null);
       
       Product saved = service.createFromRequest(request);
-      ProductDTO dto = toProductDTO(saved);
+      ProductDTO dto = ProductDTO.from(saved);
       
       log.info("✅ Product created with ID: {}", saved.getId());
       
@@ -88,7 +121,7 @@ public class ProductController {
     try {
       log.info("PUT /products/{} - Updating product", id);
       Product updated = service.update(id, p);
-      ProductDTO dto = toProductDTO(updated);
+      ProductDTO dto = ProductDTO.from(updated);
       
       // Retornar 200 OK con ProductDTO actualizado
       return ResponseEntity.ok(dto);
@@ -112,20 +145,4 @@ public class ProductController {
       throw ex; // GlobalExceptionHandler manejará ConflictException como 409
     }
   }
-  
-  // ================= Helper Methods =================
-  
-  private ProductDTO toProductDTO(Product product) {
-    return new ProductDTO(
-        product.getId(),
-        product.getNombre(), // name
-        product.getDescripcion(), // description
-        product.getPrecio() != null ? product.getPrecio().doubleValue() : 0.0, // price
-        product.getStock(), // stock
-        product.getDescuento() != null ? product.getDescuento().doubleValue() : 0.0, // discount
-        product.getRequiresPrescription() != null ? product.getRequiresPrescription() : false, // requiresPrescription
-        product.getCategory() != null ? product.getCategory().getId() : null, // categoryId
-        product.getCategory() != null ? product.getCategory().getName() : null // categoryName
-    );
-  }
 }
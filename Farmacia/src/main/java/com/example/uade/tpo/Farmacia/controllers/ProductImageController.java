@@ -1,5 +1,6 @@
 package com.example.uade.tpo.Farmacia.controllers;
 
+import com.example.uade.tpo.Farmacia.controllers.dto.ImageUploadJobDTO;
 import com.example.uade.tpo.Farmacia.controllers.dto.ProductImageMetadataDTO;
 import com.example.uade.tpo.Farmacia.service.ProductImageService;
 import lombok.RequiredArgsConstructor;
@@ -34,6 +35,35 @@ public class ProductImageController {
         return ResponseEntity.status(HttpStatus.CREATED).body(results); // 201 Created
     }
 
+    /**
+     * Subir imágenes en segundo plano
+     * Responde enseguida con el ID del trabajo; el procesamiento (hash, dimensiones,
+     * thumbnails y alta en la DB) sigue en el pool de ingesta
+     * Solo PHARMACIST o ADMIN
+     */
+    @PostMapping("/products/{productId}/images/async")
+    @PreAuthorize("hasAnyRole('PHARMACIST', 'ADMIN')")
+    public ResponseEntity<ImageUploadJobDTO> uploadImagesAsync(
+        @PathVariable Long productId,
+        @RequestParam("files") MultipartFile[] files
+    ) throws IOException {
+        ImageUploadJobDTO job = productImageService.uploadImagesAsync(productId, files);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job); // 202 Accepted
+    }
+
+    /**
+     * Consultar el estado de una subida en segundo plano
+     * Solo PHARMACIST o ADMIN
+     */
+    @GetMapping("/products/{productId}/images/jobs/{jobId}")
+    @PreAuthorize("hasAnyRole('PHARMACIST', 'ADMIN')")
+    public ResponseEntity<ImageUploadJobDTO> getUploadJob(
+        @PathVariable Long productId,
+        @PathVariable String jobId
+    ) {
+        return ResponseEntity.ok(productImageService.getUploadJob(productId, jobId));
+    }
+
     /**
      * Obtener metadatos de todas las imágenes de un producto
      * Público (para catálogo)
@@ -10,6 +10,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import com.example.uade.tpo.Farmacia.service.AuthenticationService;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 
@@ -27,8 +28,10 @@ public class AuthenticationController {
 
     @PostMapping("/authenticate")
     public ResponseEntity<AuthenticationResponse> authenticate(
-            @Valid @RequestBody AuthenticationRequest request) {
-        return ResponseEntity.ok(service.authenticate(request));
+            @Valid @RequestBody AuthenticationRequest request,
+            HttpServletRequest httpRequest) {
+        // Con server.forward-headers-strategy=native es la IP del cliente, no la del proxy
+        return ResponseEntity.ok(service.authenticate(request, httpRequest.getRemoteAddr()));
     }
 
     @GetMapping("/me")
@@ -0,0 +1,12 @@
+package com.example.uade.tpo.Farmacia.controllers.dto;
+
+import com.example.uade.tpo.Farmacia.entity.Order;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BulkStatusUpdateRequest {
+    private List<Long> orderIds;
+    private Order.Status status;
+}
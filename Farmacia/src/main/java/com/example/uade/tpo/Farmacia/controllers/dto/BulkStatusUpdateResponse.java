@@ -0,0 +1,20 @@
+package com.example.uade.tpo.Farmacia.controllers.dto;
+
+import java.util.List;
+
+// Resultado de un cambio de estado masivo: una entrada por orden pedida, en el mismo orden
+public record BulkStatusUpdateResponse(
+    String status,
+    int requested,
+    int applied,
+    List<Result> results
+) {
+    public enum Outcome { APPLIED, NOT_FOUND, INVALID_TRANSITION, CONFLICT }
+
+    public record Result(
+        Long orderId,
+        Outcome outcome,
+        String previousStatus,
+        String message
+    ) {}
+}
@@ -0,0 +1,26 @@
+package com.example.uade.tpo.Farmacia.controllers.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+// Varias altas, cambios y bajas sobre el carrito abierto en un solo request (se aplican todas o ninguna)
+@Data
+public class CartBatchRequest {
+
+    public enum Type { ADD, UPDATE, REMOVE }
+
+    private List<Operation> operations;
+
+    /**
+     * ADD suma "quantity" al producto; UPDATE fija la cantidad y REMOVE quita la línea.
+     * UPDATE y REMOVE aceptan el itemId o el productId de la línea.
+     */
+    @Data
+    public static class Operation {
+        private Type type;
+        private Long productId;
+        private Long itemId;
+        private Integer quantity;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.uade.tpo.Farmacia.controllers.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+// Estado de una subida de imágenes procesada en segundo plano
+public record ImageUploadJobDTO(
+    String jobId,
+    Long productId,
+    String status,        // PENDING, PROCESSING, COMPLETED, FAILED
+    int totalFiles,
+    List<ProductImageMetadataDTO> images,
+    List<String> errors,
+    Instant createdAt,
+    Instant finishedAt
+) {}
@@ -0,0 +1,17 @@
+package com.example.uade.tpo.Farmacia.controllers.dto;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+// Evento del stream de órdenes (SSE); id es creciente y se usa como Last-Event-ID para reanudar
+public record OrderEventDTO(
+    long id,
+    String type,
+    Long orderId,
+    Long userId,
+    String status,
+    String paymentStatus,
+    String deliveryMethod,
+    BigDecimal total,
+    Instant at
+) {}
@@ -0,0 +1,11 @@
+package com.example.uade.tpo.Farmacia.controllers.dto;
+
+import java.util.List;
+
+// Página de órdenes con cursor keyset (más recientes primero): nextCursor es null en la última página
+// y total solo viene cuando se pidió withTotal=true
+public record OrderPageDTO(
+    List<OrderDTO> items,
+    String nextCursor,
+    Long total
+) {}
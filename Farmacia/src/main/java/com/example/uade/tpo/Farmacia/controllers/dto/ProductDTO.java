@@ -1,13 +1,43 @@
 package com.example.uade.tpo.Farmacia.controllers.dto;
 
+import com.example.uade.tpo.Farmacia.entity.Product;
+
+import java.math.BigDecimal;
+
+// price y discount en BigDecimal, igual que en Product: el carrito toma de acá el precio de cada línea
 public record ProductDTO(
     Long id,
     String name,
     String description,
-    Double price,
+    BigDecimal price,
     Integer stock,
-    Double discount,
+    BigDecimal discount,
     Boolean requiresPrescription,
     Long categoryId,
     String categoryName
-) {}
+) {
+
+    public static ProductDTO from(Product product) {
+        return new ProductDTO(
+            product.getId(),
+            product.getNombre(), // name
+            product.getDescripcion(), // description
+            product.getPrecio() != null ? product.getPrecio() : BigDecimal.ZERO, // price
+            product.getStock(), // stock
+            product.getDescuento() != null ? product.getDescuento() : BigDecimal.ZERO, // discount
+            product.getRequiresPrescription() != null ? product.getRequiresPrescription() : false, // requiresPrescription
+            product.getCategory() != null ? product.getCategory().getId() : null, // categoryId
+            product.getCategory() != null ? product.getCategory().getName() : null // categoryName
+        );
+    }
+
+    public ProductDTO withStock(Integer newStock) {
+        return new ProductDTO(id, name, description, price, newStock, discount,
+                requiresPrescription, categoryId, categoryName);
+    }
+
+    public ProductDTO withCategoryName(String newCategoryName) {
+        return new ProductDTO(id, name, description, price, stock, discount,
+                requiresPrescription, categoryId, newCategoryName);
+    }
+}
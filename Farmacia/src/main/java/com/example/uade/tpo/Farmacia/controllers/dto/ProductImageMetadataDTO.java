@@ -1,5 +1,6 @@
 package com.example.uade.tpo.Farmacia.controllers.dto;
 
+import com.example.uade.tpo.Farmacia.entity.ProductImage;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -13,4 +14,14 @@ public class ProductImageMetadataDTO {
     private Integer width;
     private Integer height;
     private Long sizeBytes;
+
+    public static ProductImageMetadataDTO from(ProductImage image) {
+        return new ProductImageMetadataDTO(
+            image.getId(),
+            image.getIsPrimary(),
+            image.getWidth(),
+            image.getHeight(),
+            image.getSizeBytes()
+        );
+    }
 }
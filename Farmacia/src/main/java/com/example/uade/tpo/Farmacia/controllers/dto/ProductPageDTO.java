@@ -0,0 +1,11 @@
+package com.example.uade.tpo.Farmacia.controllers.dto;
+
+import java.util.List;
+
+// Página de productos con cursor keyset: nextCursor es null en la última página
+// y total solo viene cuando se pidió withTotal=true
+public record ProductPageDTO(
+    List<ProductDTO> items,
+    String nextCursor,
+    Long total
+) {}
@@ -12,11 +12,18 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.NamedAttributeNode;
+import jakarta.persistence.NamedEntityGraph;
+import jakarta.persistence.NamedSubgraph;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.PrePersist;
 import jakarta.persistence.PreUpdate;
 import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import jakarta.persistence.Version;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -24,9 +31,23 @@ import lombok.Setter;
 @Getter @Setter
 @NoArgsConstructor
 @Entity
-@Table(name = "carts")
+// Checkout: el carrito con sus ítems y el producto (con categoría) de cada uno en un solo SELECT
+@NamedEntityGraph(name = Cart.WITH_ITEMS, attributeNodes = {
+    @NamedAttributeNode(value = "items", subgraph = "items")
+}, subgraphs = {
+    @NamedSubgraph(name = "items", attributeNodes = @NamedAttributeNode(value = "product", subgraph = "product")),
+    @NamedSubgraph(name = "product", attributeNodes = @NamedAttributeNode("category"))
+})
+@Table(name = "carts", indexes = {
+    @Index(name = "idx_carts_status_update", columnList = "status, update_at") // CartReaper
+}, uniqueConstraints = {
+    // Un solo carrito OPEN por usuario: open_slot vale 1 solo mientras está abierto (los NULL no chocan)
+    @UniqueConstraint(name = "uk_carts_user_open", columnNames = {"user_id", "open_slot"})
+})
 public class Cart {
 
+    public static final String WITH_ITEMS = "Cart.withItems";
+
     public enum Status {OPEN, CHECKED_OUT, CANCELLED }
 
     @Id @GeneratedValue(strategy= GenerationType.IDENTITY)
@@ -48,7 +69,20 @@ public class Cart {
 
     private Instant updateAt;
 
+    @Column(name = "open_slot")
+    private Boolean openSlot = Boolean.TRUE;
+
+    // Sube con cada escritura, también las de CartSessionStore por JDBC: una sesión de otro nodo
+    // con una versión vieja no pisa el carrito, y el checkout falla si el carrito cambió mientras tanto
+    @Version
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    private Long version;
+
+    @PrePersist
     @PreUpdate
-    public void PreUpdate(){ this.updateAt = Instant.now();}
+    public void PreUpdate(){
+        this.updateAt = Instant.now();
+        this.openSlot = status == Status.OPEN ? Boolean.TRUE : null;
+    }
 
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package com.example.uade.tpo.Farmacia.entity;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// Respuesta guardada por Idempotency-Key, compartida entre nodos; IdempotencyStore la lee y escribe con JDBC
+@Getter @Setter
+@NoArgsConstructor
+@Entity
+@Table(name = "idempotency_keys", indexes = {
+    @Index(name = "idx_idempotency_expires", columnList = "expires_at") // purga de vencidas
+})
+public class IdempotencyRecord {
+
+    public enum Status { IN_PROGRESS, COMPLETED }
+
+    // sha256 de usuario + método + path + Idempotency-Key
+    @Id
+    @Column(name = "key_hash", length = 64)
+    private String keyHash;
+
+    // sha256 del body: la misma key con otro payload se rechaza
+    @Column(name = "request_hash", nullable = false, length = 64)
+    private String requestHash;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status;
+
+    // Identifica la reserva IN_PROGRESS vigente: solo quien la tiene puede completarla o liberarla
+    @Column(name = "claim_token", length = 36)
+    private String claimToken;
+
+    @Column(name = "response_status")
+    private Integer responseStatus;
+
+    @Column(name = "content_type", length = 100)
+    private String contentType;
+
+    // Headers de la respuesta que se repiten en el replay (p. ej. Location de un 201), uno por línea "Nombre: valor"
+    @Column(name = "response_headers", length = 2000)
+    private String responseHeaders;
+
+    @Lob
+    @Column(name = "response_body", columnDefinition = "MEDIUMBLOB")
+    private byte[] responseBody;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    // IN_PROGRESS: hasta cuándo vale el lock del nodo que ejecuta (lo renueva mientras corre); COMPLETED: fin del TTL
+    @Column(name = "expires_at", nullable = false)
+    private Instant expiresAt;
+}
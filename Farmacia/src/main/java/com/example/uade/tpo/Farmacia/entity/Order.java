@@ -10,7 +10,16 @@ import java.util.*;
 @Getter @Setter
 @NoArgsConstructor
 @Entity
-@Table(name = "orders")
+@Table(name = "orders", indexes = {
+    // Consola de órdenes: cada filtro + keyset por (created_at, id) descendente
+    @Index(name = "idx_orders_created_id", columnList = "created_at, id"),
+    @Index(name = "idx_orders_status_created_id", columnList = "status, created_at, id"),
+    @Index(name = "idx_orders_payment_created_id", columnList = "payment_status, created_at, id"),
+    @Index(name = "idx_orders_delivery_created_id", columnList = "delivery_method, created_at, id"),
+    @Index(name = "idx_orders_user_created_id", columnList = "user_id, created_at, id"),
+    // OrderExpiryWorker: PENDING + pago PENDING más viejas que el TTL
+    @Index(name = "idx_orders_expiry", columnList = "status, payment_status, created_at")
+})
 public class Order {
 
   public enum Status { PENDING, PROCESSING, COMPLETED, CANCELLED, CONFIRMED }
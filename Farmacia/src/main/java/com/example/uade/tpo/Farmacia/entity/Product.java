@@ -8,9 +8,16 @@ import lombok.*;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "products")
+// Producto + categoría en un solo SELECT (ProductDTO siempre lee la categoría)
+@NamedEntityGraph(name = Product.WITH_CATEGORY, attributeNodes = @NamedAttributeNode("category"))
+@Table(name = "products", indexes = {
+    @Index(name = "idx_products_precio_id", columnList = "precio, id"), // keyset por precio
+    @Index(name = "idx_products_nombre_id", columnList = "nombre, id") // keyset por nombre
+})
 public class Product {
 
+  public static final String WITH_CATEGORY = "Product.withCategory";
+
   @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
   private Long id;
 
@@ -7,7 +7,7 @@ import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
 
-// Entidad que almacena las imágenes de productos en la DB
+// Metadatos de las imágenes de productos; el binario vive en ImageBlobStore (clave: sha256)
 @Entity
 @Table(name = "product_images", indexes = {
     @Index(name = "idx_product_id", columnList = "product_id"), // índice para búsquedas por producto
@@ -28,10 +28,6 @@ public class ProductImage {
     @Column(name = "mime_type", nullable = false, length = 50)
     private String mimeType; // image/jpeg, image/png, image/webp
     
-    @Lob
-    @Column(name = "bytes", nullable = false, columnDefinition = "LONGBLOB")
-    private byte[] bytes; // contenido binario de la imagen
-    
     @Column(name = "width", nullable = false)
     private Integer width; // ancho en pixels
     
@@ -42,7 +38,7 @@ public class ProductImage {
     private Long sizeBytes; // tamaño del archivo
     
     @Column(name = "sha256", nullable = false, length = 64)
-    private String sha256; // hash para evitar duplicados
+    private String sha256; // hash para evitar duplicados y clave del blob en ImageBlobStore
     
     @Column(name = "is_primary", nullable = false)
     private Boolean isPrimary = false; // imagen principal del producto
@@ -5,6 +5,7 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
+import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
 
@@ -29,6 +30,10 @@ public class User implements UserDetails {
     @JoinColumn(name = "role_id", nullable = false)
     private Role role;
 
+    // Los JWT emitidos hasta este momento no se aceptan por sus claims (cambio de rol o baja)
+    @Column(name = "tokens_valid_after")
+    private Instant tokensValidAfter;
+
     public User(){}
 
     public User(String name, String password, String email, Role role){
@@ -78,6 +83,14 @@ public class User implements UserDetails {
         this.role = role;
     }
 
+    public Instant getTokensValidAfter() {
+        return tokensValidAfter;
+    }
+
+    public void setTokensValidAfter(Instant tokensValidAfter) {
+        this.tokensValidAfter = tokensValidAfter;
+    }
+
     // UserDetails interface methods
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
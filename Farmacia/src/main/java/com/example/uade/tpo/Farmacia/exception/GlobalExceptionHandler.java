@@ -162,6 +162,26 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
     }
 
+    /**
+     * Maneja TooManyRequestsException
+     * Retorna 429 Too Many Requests
+     */
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<Map<String, Object>> handleTooManyRequests(
+            TooManyRequestsException ex,
+            HttpServletRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("timestamp", Instant.now().toString());
+        response.put("status", HttpStatus.TOO_MANY_REQUESTS.value());
+        response.put("error", HttpStatus.TOO_MANY_REQUESTS.getReasonPhrase());
+        response.put("message", ex.getMessage());
+        response.put("path", request.getRequestURI());
+        
+        log.warn("Too Many Requests: {} - Path: {}", ex.getMessage(), request.getRequestURI());
+        
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(response);
+    }
+
     /**
      * Maneja AccessDeniedException (403 Forbidden)
      */
@@ -181,6 +201,27 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
     }
 
+    /**
+     * Maneja reservas de stock fallidas
+     * Retorna 400 Bad Request con el faltante de cada línea
+     */
+    @ExceptionHandler(InsufficientStockException.class)
+    public ResponseEntity<Map<String, Object>> handleInsufficientStock(
+            InsufficientStockException ex,
+            HttpServletRequest request) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("timestamp", Instant.now().toString());
+        response.put("status", HttpStatus.BAD_REQUEST.value());
+        response.put("error", HttpStatus.BAD_REQUEST.getReasonPhrase());
+        response.put("message", ex.getMessage());
+        response.put("shortfalls", ex.getShortfalls());
+        response.put("path", request.getRequestURI());
+        
+        log.warn("Insufficient stock: {} - Path: {}", ex.getMessage(), request.getRequestURI());
+        
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+    }
+
     /**
      * Maneja IllegalStateException como 400 Bad Request
      */
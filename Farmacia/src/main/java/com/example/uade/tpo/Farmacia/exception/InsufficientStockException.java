@@ -0,0 +1,29 @@
+package com.example.uade.tpo.Farmacia.exception;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+// Excepción para reservas de stock que no pudieron cubrirse (400 Bad Request)
+public class InsufficientStockException extends IllegalStateException {
+
+    // Faltante de una línea: producto, cantidad pedida y stock disponible al momento de reservar
+    public record Shortfall(Long productId, String productName, int requested, int available) {}
+
+    private final List<Shortfall> shortfalls;
+
+    public InsufficientStockException(List<Shortfall> shortfalls) {
+        super(buildMessage(shortfalls));
+        this.shortfalls = List.copyOf(shortfalls);
+    }
+
+    public List<Shortfall> getShortfalls() {
+        return shortfalls;
+    }
+
+    private static String buildMessage(List<Shortfall> shortfalls) {
+        return shortfalls.stream()
+            .map(s -> "Stock insuficiente para el producto: " + s.productName() +
+                      " (disponible: " + s.available() + ", solicitado: " + s.requested() + ")")
+            .collect(Collectors.joining("; "));
+    }
+}
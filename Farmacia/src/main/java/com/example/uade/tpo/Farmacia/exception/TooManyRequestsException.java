@@ -0,0 +1,8 @@
+package com.example.uade.tpo.Farmacia.exception;
+
+// Excepción para errores 429 Too Many Requests (capacidad de procesamiento agotada)
+public class TooManyRequestsException extends RuntimeException {
+    public TooManyRequestsException(String message) {
+        super(message);
+    }
+}
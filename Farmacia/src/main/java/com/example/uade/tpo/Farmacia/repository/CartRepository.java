@@ -5,10 +5,15 @@ import java.util.Optional;
 import com.example.uade.tpo.Farmacia.entity.Cart;
 import com.example.uade.tpo.Farmacia.entity.User;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface CartRepository extends JpaRepository<Cart, Long> {
     public Optional<Cart> findByUserAndStatus(User user, Cart.Status status);
-}
\ No newline at end of file
+
+    // Checkout: ítems, productos y categorías en el mismo SELECT (ver Cart.WITH_ITEMS)
+    @EntityGraph(Cart.WITH_ITEMS)
+    public Optional<Cart> findWithItemsByUserAndStatus(User user, Cart.Status status);
+}
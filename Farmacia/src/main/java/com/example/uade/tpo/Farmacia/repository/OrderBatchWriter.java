@@ -0,0 +1,73 @@
+package com.example.uade.tpo.Farmacia.repository;
+
+import com.example.uade.tpo.Farmacia.entity.Order;
+import com.example.uade.tpo.Farmacia.entity.OrderItem;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Persiste una orden completa con la menor cantidad de sentencias posible.
+ * Order y OrderItem usan IDENTITY, lo que desactiva el batching de Hibernate,
+ * así que los items se insertan con un batch JDBC (multi-row INSERT con
+ * rewriteBatchedStatements) en lugar de un orderItems.save(...) por línea.
+ */
+@Slf4j
+@Repository
+public class OrderBatchWriter {
+
+  private static final String INSERT_ITEM_SQL =
+      "INSERT INTO order_items (order_id, product_id, quantity, unit_price, unit_discount, line_total) " +
+      "VALUES (?, ?, ?, ?, ?, ?)";
+
+  private final JdbcTemplate jdbc;
+  private final int batchSize;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  public OrderBatchWriter(JdbcTemplate jdbc, @Value("${farmacia.orders.batch-size:50}") int batchSize) {
+    this.jdbc = jdbc;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Inserta la orden (1 sentencia, necesitamos el ID generado) y todos sus items
+   * en batches de "farmacia.orders.batch-size".
+   * La orden devuelta queda desasociada del contexto de persistencia y con sus
+   * items cargados en memoria, lista para mapear a DTO sin volver a consultar.
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public Order write(Order order, List<OrderItem> items) {
+    entityManager.persist(order);
+    entityManager.flush();
+
+    jdbc.batchUpdate(INSERT_ITEM_SQL, items, batchSize, (ps, item) -> {
+      ps.setLong(1, order.getId());
+      ps.setLong(2, item.getProduct().getId());
+      ps.setInt(3, item.getQuantity());
+      ps.setBigDecimal(4, item.getUnitPrice());
+      ps.setBigDecimal(5, item.getUnitDiscount() != null ? item.getUnitDiscount() : BigDecimal.ZERO);
+      ps.setBigDecimal(6, item.getLineTotal());
+    });
+
+    // Los items ya están en la DB: desasociamos la orden para que Hibernate
+    // no intente insertarlos de nuevo por el cascade de Order.items
+    entityManager.detach(order);
+    items.forEach(item -> item.setOrder(order));
+    order.getItems().clear();
+    order.getItems().addAll(items);
+
+    log.debug("📦 Orden {} persistida con {} items (batch size {})", order.getId(), items.size(), batchSize);
+    return order;
+  }
+}
@@ -0,0 +1,90 @@
+package com.example.uade.tpo.Farmacia.repository;
+
+import com.example.uade.tpo.Farmacia.service.OrderFilter;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Consultas de la consola de órdenes (admin/farmacéutico) con el WHERE armado según los filtros presentes.
+ * Un "(:x IS NULL OR o.x = :x)" fijo no deja que MySQL use el índice compuesto del filtro
+ * (idx_orders_*_created_id, ver Order): el plan sirve para cualquier valor y termina recorriendo
+ * (created_at, id) y filtrando fila por fila. Con solo las condiciones presentes cada filtro de igualdad
+ * usa su índice y el keyset por (created_at, id) descendente sale de ese mismo índice, sin ordenar.
+ */
+@Repository
+public class OrderConsoleQuery {
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  /**
+   * Ids de una página, más recientes primero, continuando después de (afterCreatedAt, afterId) si vienen.
+   */
+  public List<Long> pageIds(OrderFilter filter, Instant afterCreatedAt, Long afterId, int limit) {
+    StringBuilder jpql = new StringBuilder("SELECT o.id FROM Order o");
+    Map<String, Object> params = where(jpql, filter);
+    if (afterId != null) {
+      jpql.append(params.isEmpty() ? " WHERE " : " AND ")
+          .append("(o.createdAt < :afterCreatedAt OR (o.createdAt = :afterCreatedAt AND o.id < :afterId))");
+      params.put("afterCreatedAt", afterCreatedAt);
+      params.put("afterId", afterId);
+    }
+    jpql.append(" ORDER BY o.createdAt DESC, o.id DESC");
+
+    TypedQuery<Long> query = entityManager.createQuery(jpql.toString(), Long.class);
+    params.forEach(query::setParameter);
+    return query.setMaxResults(limit).getResultList();
+  }
+
+  // Total con los mismos filtros; solo se calcula si el cliente lo pide
+  public long count(OrderFilter filter) {
+    StringBuilder jpql = new StringBuilder("SELECT COUNT(o) FROM Order o");
+    Map<String, Object> params = where(jpql, filter);
+
+    TypedQuery<Long> query = entityManager.createQuery(jpql.toString(), Long.class);
+    params.forEach(query::setParameter);
+    return query.getSingleResult();
+  }
+
+  // Agrega al JPQL solo las condiciones de los filtros no nulos y devuelve sus parámetros
+  private static Map<String, Object> where(StringBuilder jpql, OrderFilter filter) {
+    Map<String, Object> params = new LinkedHashMap<>();
+    if (filter.status() != null) {
+      params.put("status", filter.status());
+    }
+    if (filter.paymentStatus() != null) {
+      params.put("paymentStatus", filter.paymentStatus());
+    }
+    if (filter.deliveryMethod() != null) {
+      params.put("deliveryMethod", filter.deliveryMethod());
+    }
+    if (filter.userId() != null) {
+      params.put("userId", filter.userId());
+    }
+
+    String separator = " WHERE ";
+    for (String name : params.keySet()) {
+      String path = name.equals("userId") ? "o.user.id" : "o." + name;
+      jpql.append(separator).append(path).append(" = :").append(name);
+      separator = " AND ";
+    }
+    if (filter.from() != null) {
+      jpql.append(separator).append("o.createdAt >= :from");
+      params.put("from", filter.from());
+      separator = " AND ";
+    }
+    if (filter.to() != null) {
+      jpql.append(separator).append("o.createdAt < :to");
+      params.put("to", filter.to());
+    }
+    return params;
+  }
+}
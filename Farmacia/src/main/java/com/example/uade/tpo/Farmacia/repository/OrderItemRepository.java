@@ -2,10 +2,19 @@ package com.example.uade.tpo.Farmacia.repository;
 
 import com.example.uade.tpo.Farmacia.entity.OrderItem;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface OrderItemRepository extends JpaRepository<OrderItem, Long> {
     // Verificar si existe un producto en algún order_item
     boolean existsByProductId(Long productId);
+
+    // Cantidades por producto de un conjunto de órdenes (para devolver stock al cancelarlas): [productId, cantidad]
+    @Query("SELECT i.product.id, SUM(i.quantity) FROM OrderItem i WHERE i.order.id IN :orderIds GROUP BY i.product.id")
+    List<Object[]> sumQuantitiesByProduct(@Param("orderIds") Collection<Long> orderIds);
 }
@@ -0,0 +1,35 @@
+package com.example.uade.tpo.Farmacia.repository;
+
+import com.example.uade.tpo.Farmacia.entity.Order;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Fila plana orden + item para las lecturas de órdenes (constructor expression en JPQL);
+ * alcanza para armar tanto OrderDTO como OrderSummaryDTO.
+ * No es una entidad: no entra al persistence context ni se revisa en el flush.
+ * Una orden sin items llega como una sola fila con los campos del item en null.
+ */
+public record OrderLineRow(
+    Long orderId,
+    Order.Status status,
+    BigDecimal total,
+    Instant createdAt,
+    String fullName,
+    String deliveryStreet,
+    String deliveryCity,
+    String deliveryZip,
+    String deliveryEmail,
+    String deliveryPhone,
+    String deliveryMethod,
+    String paymentMethod,
+    Order.PaymentStatus paymentStatus,
+    Long userId,
+    Long productId,
+    String productName,
+    BigDecimal unitPrice,
+    Integer quantity,
+    BigDecimal lineTotal,
+    Boolean requiresPrescription
+) {}
@@ -1,33 +1,97 @@
 package com.example.uade.tpo.Farmacia.repository;
 
 import com.example.uade.tpo.Farmacia.entity.Order;
+import org.springframework.data.domain.Limit;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface OrderRepository extends JpaRepository<Order, Long> {
-  List<Order> findByUserEmail(String email);
-  List<Order> findByUserId(Long userId);
-  
-  @Query("SELECT DISTINCT o FROM Order o " +
-         "LEFT JOIN FETCH o.items i " +
-         "LEFT JOIN FETCH i.product p " +
-         "WHERE o.user.id = :userId ORDER BY o.createdAt DESC")
-  List<Order> findAllByUserIdWithItems(@Param("userId") Long userId);
-  
-  @Query("SELECT o FROM Order o " +
-         "LEFT JOIN FETCH o.items i " +
-         "LEFT JOIN FETCH i.product p " +
-         "WHERE o.id = :id AND o.user.id = :userId")
-  Optional<Order> findByIdAndUserIdWithItems(@Param("id") Long id, @Param("userId") Long userId);
-  
-  @Query("SELECT DISTINCT o FROM Order o " +
-         "LEFT JOIN FETCH o.items i " +
-         "LEFT JOIN FETCH i.product p " +
-         "ORDER BY o.createdAt DESC")
-  List<Order> findAllWithItems();
-}
\ No newline at end of file
+  // ================= Lecturas como filas planas =================
+  // Una fila por item con solo las columnas que usan OrderDTO y OrderSummaryDTO; el servicio las agrupa por orden
+  // en una pasada. Sin entidades gestionadas no hay Products completos ni dirty checking.
+
+  String LINE_ROW_SELECT =
+      "SELECT new com.example.uade.tpo.Farmacia.repository.OrderLineRow(" +
+      "o.id, o.status, o.total, o.createdAt, o.fullName, o.deliveryStreet, o.deliveryCity, " +
+      "o.deliveryZip, o.deliveryEmail, o.deliveryPhone, o.deliveryMethod, o.paymentMethod, " +
+      "o.paymentStatus, o.user.id, p.id, p.nombre, i.unitPrice, i.quantity, i.lineTotal, p.requiresPrescription) " +
+      "FROM Order o LEFT JOIN o.items i LEFT JOIN i.product p ";
+
+  @Query(LINE_ROW_SELECT + "WHERE o.user.id = :userId ORDER BY o.createdAt DESC, o.id DESC, i.id")
+  List<OrderLineRow> findLineRowsByUserId(@Param("userId") Long userId);
+
+  @Query(LINE_ROW_SELECT + "WHERE o.user.email = :email ORDER BY o.createdAt DESC, o.id DESC, i.id")
+  List<OrderLineRow> findLineRowsByUserEmail(@Param("email") String email);
+
+  @Query(LINE_ROW_SELECT + "WHERE o.id = :id AND o.user.email = :email ORDER BY i.id")
+  List<OrderLineRow> findLineRowsByIdAndUserEmail(@Param("id") Long id, @Param("email") String email);
+
+  @Query(LINE_ROW_SELECT + "WHERE o.id IN :ids ORDER BY o.createdAt DESC, o.id DESC, i.id")
+  List<OrderLineRow> findLineRowsByIdIn(@Param("ids") Collection<Long> ids);
+
+  // ================= Transiciones de estado =================
+  // UPDATE condicional: solo cambia las filas que siguen en un estado de origen válido
+  // (ver OrderStateMachine). Devuelve cuántas filas cambió.
+
+  @Query("SELECT new com.example.uade.tpo.Farmacia.repository.OrderStateRow(" +
+         "o.id, o.user.id, o.status, o.paymentStatus, o.deliveryMethod, o.total) " +
+         "FROM Order o WHERE o.id IN :ids")
+  List<OrderStateRow> findStateRows(@Param("ids") Collection<Long> ids);
+
+  // Igual que findStateRows pero con SELECT ... FOR UPDATE (en orden de id para no cruzar bloqueos):
+  // el estado leído es el vigente y nadie lo cambia hasta el commit, sea cual sea el nivel de aislamiento
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("SELECT new com.example.uade.tpo.Farmacia.repository.OrderStateRow(" +
+         "o.id, o.user.id, o.status, o.paymentStatus, o.deliveryMethod, o.total) " +
+         "FROM Order o WHERE o.id IN :ids ORDER BY o.id")
+  List<OrderStateRow> lockStateRows(@Param("ids") Collection<Long> ids);
+
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("UPDATE Order o SET o.status = :to WHERE o.id IN :ids AND o.status IN :from")
+  int transitionStatus(@Param("ids") Collection<Long> ids,
+                       @Param("from") Collection<Order.Status> from,
+                       @Param("to") Order.Status to);
+
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("UPDATE Order o SET o.paymentStatus = :to WHERE o.id = :id AND o.paymentStatus IN :from")
+  int transitionPaymentStatus(@Param("id") Long id,
+                              @Param("from") Collection<Order.PaymentStatus> from,
+                              @Param("to") Order.PaymentStatus to);
+
+  // Bloquea la fila para que un pago y el vencimiento de la orden no se pisen
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("SELECT o FROM Order o WHERE o.id = :id")
+  Optional<Order> findByIdForUpdate(@Param("id") Long id);
+
+  // ================= Vencimiento de órdenes impagas =================
+  // Órdenes PENDING sin pago creadas antes del corte (índice idx_orders_expiry), de a un lote.
+
+  @Query("SELECT o.id FROM Order o " +
+         "WHERE o.status = com.example.uade.tpo.Farmacia.entity.Order.Status.PENDING " +
+         "AND o.paymentStatus = com.example.uade.tpo.Farmacia.entity.Order.PaymentStatus.PENDING " +
+         "AND o.createdAt < :createdBefore AND o.paymentMethod IN :paymentMethods " +
+         "ORDER BY o.createdAt, o.id")
+  List<Long> findExpiredIds(@Param("createdBefore") Instant createdBefore,
+                            @Param("paymentMethods") Collection<String> paymentMethods,
+                            Limit limit);
+
+  // Repite las condiciones: si el pago se confirmó entre la búsqueda y el UPDATE, la orden no se toca
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("UPDATE Order o SET o.status = com.example.uade.tpo.Farmacia.entity.Order.Status.CANCELLED " +
+         "WHERE o.id IN :ids " +
+         "AND o.status = com.example.uade.tpo.Farmacia.entity.Order.Status.PENDING " +
+         "AND o.paymentStatus = com.example.uade.tpo.Farmacia.entity.Order.PaymentStatus.PENDING")
+  int expire(@Param("ids") Collection<Long> ids);
+
+  // La consola de órdenes (admin/farmacéutico) arma el WHERE según los filtros presentes: ver OrderConsoleQuery
+}
@@ -0,0 +1,15 @@
+package com.example.uade.tpo.Farmacia.repository;
+
+import com.example.uade.tpo.Farmacia.entity.Order;
+
+import java.math.BigDecimal;
+
+// Estado actual de una orden, lo justo para validar una transición y publicar el evento
+public record OrderStateRow(
+    Long id,
+    Long userId,
+    Order.Status status,
+    Order.PaymentStatus paymentStatus,
+    String deliveryMethod,
+    BigDecimal total
+) {}
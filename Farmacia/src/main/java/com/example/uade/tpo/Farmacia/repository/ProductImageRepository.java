@@ -6,12 +6,23 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface ProductImageRepository extends JpaRepository<ProductImage, Long> {
     
+    // Solo lo necesario para servir una imagen (ETag, Content-Type y variantes)
+    interface ServingMetadata {
+        String getSha256();
+        String getMimeType();
+        Integer getWidth();
+    }
+    
+    @Query("SELECT pi.sha256 AS sha256, pi.mimeType AS mimeType, pi.width AS width FROM ProductImage pi WHERE pi.id = ?1")
+    Optional<ServingMetadata> findServingMetadataById(Long id);
+    
     // Obtener imágenes ordenadas (primary primero, luego por fecha)
     List<ProductImage> findByProductIdOrderByIsPrimaryDescCreatedAtAsc(Long productId);
     
@@ -21,6 +32,13 @@ public interface ProductImageRepository extends JpaRepository<ProductImage, Long
     // Obtener la imagen principal de un producto
     Optional<ProductImage> findByProductIdAndIsPrimaryTrue(Long productId);
     
+    // Cuántas imágenes (de cualquier producto) usan este blob
+    long countBySha256(String sha256);
+    
+    // De un lote de claves del store, las que alguna imagen sigue usando (ImageBlobCollector)
+    @Query("SELECT DISTINCT pi.sha256 FROM ProductImage pi WHERE pi.sha256 IN ?1")
+    List<String> findReferencedSha256(Collection<String> sha256s);
+    
     // Contar imágenes de un producto (límite de 10)
     long countByProductId(Long productId);
     
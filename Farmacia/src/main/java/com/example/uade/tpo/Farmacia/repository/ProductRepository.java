@@ -1,15 +1,85 @@
 package com.example.uade.tpo.Farmacia.repository;
 
 import com.example.uade.tpo.Farmacia.entity.Product;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ProductRepository extends JpaRepository<Product, Long> {
+
+  // ================= Fetch plans =================
+  // La categoría es EAGER: sin el grafo Hibernate la trae con un SELECT aparte por cada categoría distinta.
+  // Todas las lecturas de entidades completas la traen en el mismo JOIN (ver Product.WITH_CATEGORY).
+
+  @Override
+  @EntityGraph(Product.WITH_CATEGORY)
+  Optional<Product> findById(Long id);
+
+  @Override
+  @EntityGraph(Product.WITH_CATEGORY)
+  List<Product> findAllById(Iterable<Long> ids);
+
+  @Override
+  @EntityGraph(Product.WITH_CATEGORY)
+  List<Product> findAll();
+
+  @EntityGraph(Product.WITH_CATEGORY)
   List<Product> findByCategoryId(Long categoryId);
-  List<Product> findByNombreContainingIgnoreCase(String q);
   
   // Verificar si existe algún producto en una categoría
   boolean existsByCategoryId(Long categoryId);
+
+  // ================= Paginación keyset (seek) =================
+  // Cada consulta continúa después de la última fila de la página anterior
+  // (afterX, afterId) en lugar de usar OFFSET, así el costo no crece con la página.
+  // Los filtros en null no se aplican.
+
+  String PAGE_FILTERS =
+      "(:categoryId IS NULL OR p.category.id = :categoryId) " +
+      "AND (:inStockOnly = false OR p.stock > 0) " +
+      "AND (:rx IS NULL OR p.requiresPrescription = :rx) ";
+
+  @Query("SELECT p FROM Product p JOIN FETCH p.category WHERE " + PAGE_FILTERS +
+         "AND (:afterId IS NULL OR p.id > :afterId) " +
+         "ORDER BY p.id")
+  List<Product> pageById(@Param("categoryId") Long categoryId,
+                         @Param("inStockOnly") boolean inStockOnly,
+                         @Param("rx") Boolean rx,
+                         @Param("afterId") Long afterId,
+                         Limit limit);
+
+  @Query("SELECT p FROM Product p JOIN FETCH p.category WHERE " + PAGE_FILTERS +
+         "AND (:afterId IS NULL OR p.precio > :afterPrice " +
+         "     OR (p.precio = :afterPrice AND p.id > :afterId)) " +
+         "ORDER BY p.precio, p.id")
+  List<Product> pageByPrice(@Param("categoryId") Long categoryId,
+                            @Param("inStockOnly") boolean inStockOnly,
+                            @Param("rx") Boolean rx,
+                            @Param("afterPrice") BigDecimal afterPrice,
+                            @Param("afterId") Long afterId,
+                            Limit limit);
+
+  @Query("SELECT p FROM Product p JOIN FETCH p.category WHERE " + PAGE_FILTERS +
+         "AND (:afterId IS NULL OR p.nombre > :afterName " +
+         "     OR (p.nombre = :afterName AND p.id > :afterId)) " +
+         "ORDER BY p.nombre, p.id")
+  List<Product> pageByName(@Param("categoryId") Long categoryId,
+                           @Param("inStockOnly") boolean inStockOnly,
+                           @Param("rx") Boolean rx,
+                           @Param("afterName") String afterName,
+                           @Param("afterId") Long afterId,
+                           Limit limit);
+
+  // Total con los mismos filtros; solo se calcula si el cliente lo pide
+  @Query("SELECT COUNT(p) FROM Product p WHERE " + PAGE_FILTERS)
+  long countFiltered(@Param("categoryId") Long categoryId,
+                     @Param("inStockOnly") boolean inStockOnly,
+                     @Param("rx") Boolean rx);
 }
@@ -2,10 +2,29 @@ package com.example.uade.tpo.Farmacia.repository;
 
 import com.example.uade.tpo.Farmacia.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.Instant;
 import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
+
+    // Rehash transparente al loguearse (cambio de costo de BCrypt)
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.password = ?2 WHERE u.email = ?1")
+    int updatePassword(String email, String encodedPassword);
+
+    // Revocación de tokens (ver JwtPrincipalResolver): vacío si el usuario no existe, "never" si nunca se revocó
+    @Query("SELECT COALESCE(u.tokensValidAfter, ?2) FROM User u WHERE u.id = ?1")
+    Optional<Instant> findTokensValidAfter(Long userId, Instant never);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.tokensValidAfter = ?2 WHERE u.id = ?1")
+    int revokeTokens(Long userId, Instant validAfter);
 }
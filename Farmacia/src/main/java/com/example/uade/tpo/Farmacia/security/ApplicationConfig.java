@@ -1,21 +1,38 @@
 package com.example.uade.tpo.Farmacia.security;
+import com.example.uade.tpo.Farmacia.entity.User;
 import com.example.uade.tpo.Farmacia.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+@Slf4j
 @Configuration
+@EnableConfigurationProperties(JwtKeyProperties.class)
 @RequiredArgsConstructor
 public class ApplicationConfig {
    private final UserRepository repository;
+   private final MeterRegistry meterRegistry;
+
+   @Value("${application.security.password.bcrypt-strength:10}")
+   private int bcryptStrength;
+
+   @Value("${application.security.password.hash-threads:0}")
+   private int hashThreads;
+
+   @Value("${application.security.password.hash-queue-capacity:64}")
+   private int hashQueueCapacity;
 
    @Bean
    public UserDetailsService userDetailsService() {
@@ -28,6 +45,7 @@ public class ApplicationConfig {
       DaoAuthenticationProvider authenticationProvider = new DaoAuthenticationProvider();
       authenticationProvider.setUserDetailsService(userDetailsService());
       authenticationProvider.setPasswordEncoder(passwordEncoder());
+      authenticationProvider.setUserDetailsPasswordService(userDetailsPasswordService());
       return authenticationProvider;
    }
 
@@ -36,8 +54,23 @@ public class ApplicationConfig {
       return config.getAuthenticationManager();
    }
 
+   // Se llama después de un login exitoso cuyo hash tiene un costo menor al configurado
+   @Bean
+   public UserDetailsPasswordService userDetailsPasswordService() {
+      return (user, newPassword) -> {
+         repository.updatePassword(user.getUsername(), newPassword);
+         if (user instanceof User entity) {
+            entity.setPassword(newPassword);
+         }
+         log.info("🔐 Contraseña de {} re-hasheada con el costo actual", user.getUsername());
+         return user;
+      };
+   }
+
    @Bean
    public PasswordEncoder passwordEncoder() {
-      return new BCryptPasswordEncoder();
+      // 0 = la mitad de los cores, así el hashing nunca se queda con toda la CPU
+      int threads = hashThreads > 0 ? hashThreads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+      return new BoundedPasswordEncoder(bcryptStrength, threads, hashQueueCapacity, meterRegistry);
    }
 }
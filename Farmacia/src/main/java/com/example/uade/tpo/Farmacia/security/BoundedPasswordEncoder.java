@@ -0,0 +1,108 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import com.example.uade.tpo.Farmacia.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * BCrypt ejecutado en un pool propio y acotado, fuera de los threads de Tomcat.
+ * Una ráfaga de logins no puede ocupar más que "hash-threads" CPUs ni encolar más de
+ * "hash-queue-capacity" hashes: lo que no entra se rechaza enseguida con 429
+ * (TooManyRequestsException) en lugar de dejar sin threads al resto de la API.
+ * Lo que entra se espera hasta el final, sin timeout: BCrypt no atiende interrupciones, así que
+ * cancelarlo no liberaría el thread del pool (el hash seguiría corriendo sin nadie que lo use).
+ * La cola acotada es lo que limita la espera: a lo sumo cola / threads hashes por delante.
+ * upgradeEncoding() avisa si un hash quedó con un costo menor al configurado,
+ * para que DaoAuthenticationProvider lo regenere en el próximo login exitoso.
+ * Métricas: farmacia.auth.hash (timer, tag op), farmacia.auth.hash.queue / .active y farmacia.auth.hash.rejected.
+ */
+@Slf4j
+public class BoundedPasswordEncoder implements PasswordEncoder {
+
+   private final BCryptPasswordEncoder delegate;
+   private final ThreadPoolExecutor executor;
+
+   private final Timer encodeTimer;
+   private final Timer matchesTimer;
+   private final Counter rejected;
+
+   public BoundedPasswordEncoder(int strength, int threads, int queueCapacity, MeterRegistry registry) {
+      this.delegate = new BCryptPasswordEncoder(strength);
+
+      AtomicInteger counter = new AtomicInteger();
+      this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+         new ArrayBlockingQueue<>(queueCapacity),
+         runnable -> {
+            Thread thread = new Thread(runnable, "password-hash-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         },
+         new ThreadPoolExecutor.AbortPolicy());
+
+      this.encodeTimer = Timer.builder("farmacia.auth.hash").tag("op", "encode").register(registry);
+      this.matchesTimer = Timer.builder("farmacia.auth.hash").tag("op", "matches").register(registry);
+      this.rejected = registry.counter("farmacia.auth.hash.rejected");
+      Gauge.builder("farmacia.auth.hash.queue", executor, e -> e.getQueue().size()).register(registry);
+      Gauge.builder("farmacia.auth.hash.active", executor, ThreadPoolExecutor::getActiveCount).register(registry);
+
+      log.info("🔐 BCrypt con costo {} en {} threads (cola máxima {})", strength, threads, queueCapacity);
+   }
+
+   @Override
+   public String encode(CharSequence rawPassword) {
+      return run(() -> encodeTimer.recordCallable(() -> delegate.encode(rawPassword)));
+   }
+
+   @Override
+   public boolean matches(CharSequence rawPassword, String encodedPassword) {
+      return run(() -> matchesTimer.recordCallable(() -> delegate.matches(rawPassword, encodedPassword)));
+   }
+
+   @Override
+   public boolean upgradeEncoding(String encodedPassword) {
+      return delegate.upgradeEncoding(encodedPassword);
+   }
+
+   private <T> T run(Callable<T> task) {
+      Future<T> future;
+      try {
+         future = executor.submit(task);
+      } catch (RejectedExecutionException e) {
+         rejected.increment();
+         throw new TooManyRequestsException("Demasiados inicios de sesión simultáneos, intente nuevamente en unos segundos");
+      }
+
+      try {
+         return future.get();
+      } catch (InterruptedException e) {
+         // Si ya empezó, el hash termina igual en el pool; solo se evita que arranque si seguía en la cola
+         Thread.currentThread().interrupt();
+         future.cancel(false);
+         throw new IllegalStateException("Interrumpido mientras se verificaba la contraseña", e);
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof RuntimeException runtime) {
+            throw runtime;
+         }
+         throw new IllegalStateException("Error al procesar la contraseña", e.getCause());
+      }
+   }
+
+   @PreDestroy
+   public void shutdown() {
+      executor.shutdownNow();
+   }
+}
@@ -0,0 +1,319 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import com.example.uade.tpo.Farmacia.security.IdempotencyStore.Claim;
+import com.example.uade.tpo.Farmacia.security.IdempotencyStore.StoredResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+/**
+ * Idempotency-Key para los POST que los clientes móviles reintentan (crear orden, confirmar pago).
+ * Corre después de JwtAuthenticationFilter: la key se asocia al usuario, al método y al path, y el body
+ * se guarda como hash para rechazar (422) la misma key con otro payload.
+ * - Repetición de un request terminado: se reenvía la respuesta guardada (header Idempotent-Replayed).
+ * - Duplicado concurrente en el mismo nodo: espera a la primera ejecución y recibe su misma respuesta.
+ * - Duplicado concurrente en otro nodo: espera a que la fila de IdempotencyStore pase a COMPLETED
+ *   (hasta "wait-timeout-ms"; después 409 para que el cliente reintente).
+ * Las respuestas 5xx, 408, 409 y 429 no se guardan: son transitorias y el reintento debe ejecutarse.
+ * Además del status, content type y body se guardan los headers de "replay-headers" (p. ej. el Location
+ * del 201 de POST /api/v1/orders), así el replay es igual a la respuesta original.
+ */
+@Slf4j
+@Component
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+   public static final String HEADER = "Idempotency-Key";
+   public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+   private static final int MAX_KEY_LENGTH = 255;
+   private static final Set<Integer> TRANSIENT_STATUSES = Set.of(408, 409, 429);
+
+   private final IdempotencyStore store;
+   private final ObjectMapper objectMapper;
+   private final MeterRegistry registry;
+   private final List<String> paths;
+   private final List<String> replayHeaders;
+   private final int maxBodyBytes;
+   private final long waitTimeoutMillis;
+
+   private final AntPathMatcher pathMatcher = new AntPathMatcher();
+   private final Map<String, CompletableFuture<StoredResponse>> inFlight = new ConcurrentHashMap<>();
+
+   public IdempotencyFilter(IdempotencyStore store, ObjectMapper objectMapper, MeterRegistry registry,
+                            @Value("${farmacia.idempotency.paths:/api/v1/orders,/api/v1/payments/orders/*/pay}") List<String> paths,
+                            @Value("${farmacia.idempotency.replay-headers:Location,ETag,Content-Language}") List<String> replayHeaders,
+                            @Value("${farmacia.idempotency.max-body-bytes:65536}") int maxBodyBytes,
+                            @Value("${farmacia.idempotency.wait-timeout-ms:10000}") long waitTimeoutMillis) {
+      this.store = store;
+      this.objectMapper = objectMapper;
+      this.registry = registry;
+      this.paths = List.copyOf(paths);
+      this.replayHeaders = List.copyOf(replayHeaders);
+      this.maxBodyBytes = maxBodyBytes;
+      this.waitTimeoutMillis = waitTimeoutMillis;
+   }
+
+   @Override
+   protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+      if (!"POST".equals(request.getMethod()) || request.getHeader(HEADER) == null) {
+         return true;
+      }
+      String path = request.getRequestURI().substring(request.getContextPath().length());
+      return paths.stream().noneMatch(pattern -> pathMatcher.match(pattern, path));
+   }
+
+   @Override
+   protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull FilterChain filterChain) throws ServletException, IOException {
+      Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+      if (auth == null || !auth.isAuthenticated() || auth instanceof AnonymousAuthenticationToken) {
+         filterChain.doFilter(request, response); // sin usuario no hay key que asociar; seguridad responde 401
+         return;
+      }
+
+      String key = request.getHeader(HEADER).trim();
+      if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+         writeError(response, HttpStatus.BAD_REQUEST, "Idempotency-Key debe tener entre 1 y " + MAX_KEY_LENGTH + " caracteres");
+         return;
+      }
+
+      byte[] body = request.getInputStream().readNBytes(maxBodyBytes + 1);
+      if (body.length > maxBodyBytes) {
+         writeError(response, HttpStatus.PAYLOAD_TOO_LARGE, "Body demasiado grande para un request con Idempotency-Key");
+         return;
+      }
+
+      String path = request.getRequestURI().substring(request.getContextPath().length());
+      String keyHash = sha256((auth.getName() + "\n" + request.getMethod() + " " + path + "\n" + key).getBytes(StandardCharsets.UTF_8));
+      String requestHash = sha256(body);
+
+      // Un solo request por key y nodo llega a la DB; los duplicados concurrentes esperan su resultado
+      CompletableFuture<StoredResponse> mine = new CompletableFuture<>();
+      CompletableFuture<StoredResponse> running = inFlight.putIfAbsent(keyHash, mine);
+      if (running != null) {
+         awaitInFlight(running, requestHash, response);
+         return;
+      }
+
+      try {
+         mine.complete(execute(keyHash, requestHash, new CachedBodyRequest(request, body), response, filterChain));
+      } catch (IOException | ServletException | RuntimeException e) {
+         mine.completeExceptionally(e);
+         throw e;
+      } finally {
+         inFlight.remove(keyHash, mine);
+      }
+   }
+
+   private StoredResponse execute(String keyHash, String requestHash, HttpServletRequest request,
+                                  HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+      Claim claim = store.claim(keyHash, requestHash);
+      switch (claim.outcome()) {
+         case COMPLETED -> {
+            replay(claim.response(), requestHash, response, "replayed");
+            return claim.response();
+         }
+         case IN_PROGRESS -> {
+            StoredResponse stored;
+            try {
+               stored = store.awaitCompletion(keyHash, waitTimeoutMillis);
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               stored = null;
+            }
+            if (stored == null) {
+               count("conflict");
+               writeError(response, HttpStatus.CONFLICT, "Hay un request con la misma Idempotency-Key en curso, reintente en unos segundos");
+               return null;
+            }
+            replay(stored, requestHash, response, "replayed");
+            return stored;
+         }
+         default -> {
+            return executeClaimed(keyHash, claim.token(), requestHash, request, response, filterChain);
+         }
+      }
+   }
+
+   private StoredResponse executeClaimed(String keyHash, String token, String requestHash, HttpServletRequest request,
+                                         HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+      ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+      try {
+         filterChain.doFilter(request, wrapper);
+      } catch (IOException | ServletException | RuntimeException e) {
+         store.release(keyHash, token);
+         throw e;
+      }
+
+      StoredResponse result = new StoredResponse(requestHash, wrapper.getStatus(), wrapper.getContentType(),
+         replayableHeaders(wrapper), wrapper.getContentAsByteArray());
+      if (result.status() < 500 && !TRANSIENT_STATUSES.contains(result.status()) && result.body().length <= maxBodyBytes) {
+         // Si la reserva se perdió el cliente igual recibe su respuesta; store.complete ya lo registró como error
+         store.complete(keyHash, token, result);
+      } else {
+         store.release(keyHash, token);
+      }
+      count("executed");
+      wrapper.copyBodyToResponse();
+      return result;
+   }
+
+   private Map<String, List<String>> replayableHeaders(HttpServletResponse response) {
+      Map<String, List<String>> headers = new LinkedHashMap<>();
+      for (String name : replayHeaders) {
+         Collection<String> values = response.getHeaders(name);
+         if (!values.isEmpty()) {
+            headers.put(name, List.copyOf(values));
+         }
+      }
+      return headers;
+   }
+
+   private void awaitInFlight(CompletableFuture<StoredResponse> running, String requestHash,
+                              HttpServletResponse response) throws IOException {
+      StoredResponse stored = null;
+      try {
+         stored = running.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException | TimeoutException e) {
+         log.debug("Request original con la misma Idempotency-Key sin respuesta: {}", e.toString());
+      }
+      if (stored == null) {
+         count("conflict");
+         writeError(response, HttpStatus.CONFLICT, "Hay un request con la misma Idempotency-Key en curso, reintente en unos segundos");
+         return;
+      }
+      replay(stored, requestHash, response, "coalesced");
+   }
+
+   private void replay(StoredResponse stored, String requestHash, HttpServletResponse response, String result) throws IOException {
+      if (!stored.requestHash().equals(requestHash)) {
+         count("mismatch");
+         writeError(response, HttpStatus.UNPROCESSABLE_ENTITY, "La Idempotency-Key ya se usó con un body distinto");
+         return;
+      }
+      count(result);
+      response.setStatus(stored.status());
+      if (stored.contentType() != null) {
+         response.setContentType(stored.contentType());
+      }
+      stored.headers().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+      response.setHeader(REPLAYED_HEADER, "true");
+      response.setContentLength(stored.body().length);
+      response.getOutputStream().write(stored.body());
+   }
+
+   private void writeError(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+      response.setStatus(status.value());
+      response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+      response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+      objectMapper.writeValue(response.getOutputStream(), Map.of("status", status.value(), "message", message));
+   }
+
+   private void count(String result) {
+      registry.counter("farmacia.idempotency.requests", "result", result).increment();
+   }
+
+   private static String sha256(byte[] bytes) {
+      try {
+         return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   // El body ya se leyó para calcular el hash: se vuelve a servir desde memoria al controller
+   private static class CachedBodyRequest extends HttpServletRequestWrapper {
+
+      private final byte[] body;
+
+      CachedBodyRequest(HttpServletRequest request, byte[] body) {
+         super(request);
+         this.body = body;
+      }
+
+      @Override
+      public ServletInputStream getInputStream() {
+         ByteArrayInputStream in = new ByteArrayInputStream(body);
+         return new ServletInputStream() {
+            @Override
+            public int read() {
+               return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+               return in.read(b, off, len);
+            }
+
+            @Override
+            public boolean isFinished() {
+               return in.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+               return true;
+            }
+
+            // Todo el body ya está en memoria: los datos están disponibles de inmediato
+            @Override
+            public void setReadListener(ReadListener listener) {
+               try {
+                  if (!isFinished()) {
+                     listener.onDataAvailable();
+                  }
+                  if (isFinished()) {
+                     listener.onAllDataRead();
+                  }
+               } catch (IOException e) {
+                  listener.onError(e);
+               }
+            }
+         };
+      }
+
+      @Override
+      public BufferedReader getReader() {
+         String encoding = getCharacterEncoding() != null ? getCharacterEncoding() : StandardCharsets.UTF_8.name();
+         return new BufferedReader(new InputStreamReader(getInputStream(), Charset.forName(encoding)));
+      }
+   }
+}
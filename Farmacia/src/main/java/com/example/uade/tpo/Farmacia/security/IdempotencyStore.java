@@ -0,0 +1,273 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Respuestas guardadas por Idempotency-Key (ver IdempotencyFilter).
+ * La tabla idempotency_keys es la fuente de verdad entre nodos: el primero que inserta la fila
+ * IN_PROGRESS ejecuta el request y los demás esperan a que pase a COMPLETED.
+ * - Cada reserva lleva un claim_token. Mientras el request corre, el nodo renueva expires_at cada
+ *   "heartbeat-ms"; un nodo caído deja de renovarla y a los "lock-seconds" otro request puede tomarla.
+ * - complete() y release() solo tocan la fila si el token sigue siendo el suyo: un nodo que perdió la
+ *   reserva (pausa más larga que lock-seconds) no pisa la respuesta de quien la tomó después y lo registra
+ *   como error (farmacia.idempotency.claims.lost).
+ * Las respuestas completas se copian además a un LRU local ("max-local-entries"), así los
+ * reintentos que llegan al mismo nodo se resuelven sin ir a la DB.
+ */
+@Slf4j
+@Component
+public class IdempotencyStore {
+
+   // headers: solo los que el filtro decide repetir (farmacia.idempotency.replay-headers)
+   public record StoredResponse(String requestHash, int status, String contentType,
+                                Map<String, List<String>> headers, byte[] body) {}
+
+   public enum Outcome { CLAIMED, COMPLETED, IN_PROGRESS }
+
+   // token: solo en CLAIMED, lo que identifica esta reserva en complete() y release()
+   public record Claim(Outcome outcome, StoredResponse response, String token) {
+      static final Claim IN_PROGRESS = new Claim(Outcome.IN_PROGRESS, null, null);
+   }
+
+   private record Cached(StoredResponse response, long expiresAt) {}
+
+   private record Row(String requestHash, String status, Integer responseStatus, String contentType,
+                      String headers, byte[] body, Instant expiresAt) {}
+
+   private static final String INSERT_SQL =
+      "INSERT INTO idempotency_keys (key_hash, request_hash, status, claim_token, created_at, expires_at) " +
+      "VALUES (?, ?, 'IN_PROGRESS', ?, ?, ?)";
+   private static final String FIND_SQL =
+      "SELECT request_hash, status, response_status, content_type, response_headers, response_body, expires_at " +
+      "FROM idempotency_keys WHERE key_hash = ?";
+   private static final String COMPLETE_SQL =
+      "UPDATE idempotency_keys SET status = 'COMPLETED', response_status = ?, content_type = ?, response_headers = ?, " +
+      "response_body = ?, expires_at = ? " +
+      "WHERE key_hash = ? AND status = 'IN_PROGRESS' AND claim_token = ?";
+   private static final String RELEASE_SQL =
+      "DELETE FROM idempotency_keys WHERE key_hash = ? AND status = 'IN_PROGRESS' AND claim_token = ?";
+   private static final String RENEW_SQL =
+      "UPDATE idempotency_keys SET expires_at = ? WHERE key_hash = ? AND status = 'IN_PROGRESS' AND claim_token = ?";
+   private static final String DELETE_EXPIRED_SQL =
+      "DELETE FROM idempotency_keys WHERE key_hash = ? AND expires_at < ?";
+   private static final String PURGE_SQL =
+      "DELETE FROM idempotency_keys WHERE expires_at < ? LIMIT ?";
+
+   private static final long POLL_INTERVAL_MS = 100;
+   private static final int PURGE_CHUNK = 1000;
+
+   private final JdbcTemplate jdbc;
+   private final Duration ttl;
+   private final Duration lockDuration;
+   private final Counter claimsLost;
+
+   // Guardado por sí mismo; orden de acceso: al llenarse sale la respuesta menos usada
+   private final LinkedHashMap<String, Cached> local;
+   // Reservas de este nodo con el request todavía corriendo: keyHash -> claim_token
+   private final Map<String, String> held = new ConcurrentHashMap<>();
+
+   public IdempotencyStore(JdbcTemplate jdbc, MeterRegistry registry,
+                           @Value("${farmacia.idempotency.ttl-hours:24}") long ttlHours,
+                           @Value("${farmacia.idempotency.lock-seconds:60}") long lockSeconds,
+                           @Value("${farmacia.idempotency.max-local-entries:10000}") int maxLocalEntries) {
+      this.jdbc = jdbc;
+      this.ttl = Duration.ofHours(ttlHours);
+      this.lockDuration = Duration.ofSeconds(lockSeconds);
+      this.claimsLost = registry.counter("farmacia.idempotency.claims.lost");
+      this.local = new LinkedHashMap<>(64, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > maxLocalEntries;
+         }
+      };
+   }
+
+   /**
+    * Intenta reservar la key para ejecutar el request. Si ya hay una respuesta guardada la devuelve;
+    * si otro nodo la está ejecutando retorna IN_PROGRESS.
+    */
+   public Claim claim(String keyHash, String requestHash) {
+      StoredResponse cached = cached(keyHash);
+      if (cached != null) {
+         return new Claim(Outcome.COMPLETED, cached, null);
+      }
+
+      // Dos intentos: el segundo después de borrar una fila vencida (TTL cumplido o lock de un nodo caído)
+      for (int attempt = 0; attempt < 2; attempt++) {
+         Instant now = Instant.now();
+         String token = UUID.randomUUID().toString();
+         try {
+            jdbc.update(INSERT_SQL, keyHash, requestHash, token, Timestamp.from(now), Timestamp.from(now.plus(lockDuration)));
+            held.put(keyHash, token);
+            return new Claim(Outcome.CLAIMED, null, token);
+         } catch (DuplicateKeyException e) {
+            Row row = find(keyHash);
+            if (row == null) {
+               continue; // se liberó entre el INSERT y la lectura
+            }
+            if (row.expiresAt().isBefore(now)) {
+               jdbc.update(DELETE_EXPIRED_SQL, keyHash, Timestamp.from(now));
+               continue;
+            }
+            if ("COMPLETED".equals(row.status())) {
+               StoredResponse response = toResponse(row);
+               remember(keyHash, response, row.expiresAt());
+               return new Claim(Outcome.COMPLETED, response, null);
+            }
+            return Claim.IN_PROGRESS;
+         }
+      }
+      return Claim.IN_PROGRESS;
+   }
+
+   // Espera (consultando la DB) a que otro nodo termine; null si no termina a tiempo o si liberó la key
+   public StoredResponse awaitCompletion(String keyHash, long timeoutMillis) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      while (System.currentTimeMillis() < deadline) {
+         Thread.sleep(POLL_INTERVAL_MS);
+         Row row = find(keyHash);
+         if (row == null) {
+            return null;
+         }
+         if ("COMPLETED".equals(row.status())) {
+            StoredResponse response = toResponse(row);
+            remember(keyHash, response, row.expiresAt());
+            return response;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Guarda la respuesta si la reserva sigue siendo de este request. false: la reserva venció y otro
+    * request la tomó, así que el efecto pudo ejecutarse dos veces; no se pisa lo que guardó el otro.
+    */
+   public boolean complete(String keyHash, String token, StoredResponse response) {
+      held.remove(keyHash, token);
+      Instant expiresAt = Instant.now().plus(ttl);
+      int updated = jdbc.update(COMPLETE_SQL, response.status(), response.contentType(), encodeHeaders(response.headers()),
+         response.body(), Timestamp.from(expiresAt), keyHash, token);
+      if (updated == 0) {
+         claimsLost.increment();
+         log.error("❌ Reserva de Idempotency-Key perdida antes de terminar el request (key {}): la respuesta no se guarda", keyHash);
+         return false;
+      }
+      remember(keyHash, response, expiresAt);
+      return true;
+   }
+
+   // El request falló (5xx, excepción o respuesta transitoria): un reintento con la misma key vuelve a ejecutarse
+   public void release(String keyHash, String token) {
+      held.remove(keyHash, token);
+      jdbc.update(RELEASE_SQL, keyHash, token);
+   }
+
+   // Renueva las reservas de los requests que siguen corriendo en este nodo (un request largo no pierde la suya)
+   @Scheduled(fixedDelayString = "${farmacia.idempotency.heartbeat-ms:20000}")
+   public void renewClaims() {
+      if (held.isEmpty()) {
+         return;
+      }
+      Timestamp expiresAt = Timestamp.from(Instant.now().plus(lockDuration));
+      List<Object[]> args = held.entrySet().stream()
+         .map(claim -> new Object[] {expiresAt, claim.getKey(), claim.getValue()})
+         .toList();
+      jdbc.batchUpdate(RENEW_SQL, args);
+   }
+
+   @Scheduled(fixedDelayString = "${farmacia.idempotency.purge-interval-ms:600000}")
+   public void purgeExpired() {
+      long now = System.currentTimeMillis();
+      synchronized (local) {
+         local.values().removeIf(c -> c.expiresAt() <= now);
+      }
+
+      // De a lotes para no mantener un DELETE largo sobre la tabla
+      Timestamp cutoff = new Timestamp(now);
+      int total = 0;
+      int deleted;
+      do {
+         deleted = jdbc.update(PURGE_SQL, cutoff, PURGE_CHUNK);
+         total += deleted;
+      } while (deleted == PURGE_CHUNK);
+      if (total > 0) {
+         log.info("🧹 {} idempotency keys vencidas eliminadas", total);
+      }
+   }
+
+   private StoredResponse cached(String keyHash) {
+      synchronized (local) {
+         Cached cached = local.get(keyHash);
+         if (cached == null) {
+            return null;
+         }
+         if (cached.expiresAt() <= System.currentTimeMillis()) {
+            local.remove(keyHash);
+            return null;
+         }
+         return cached.response();
+      }
+   }
+
+   private void remember(String keyHash, StoredResponse response, Instant expiresAt) {
+      synchronized (local) {
+         local.put(keyHash, new Cached(response, expiresAt.toEpochMilli()));
+      }
+   }
+
+   private Row find(String keyHash) {
+      List<Row> rows = jdbc.query(FIND_SQL, (rs, i) -> new Row(
+         rs.getString("request_hash"),
+         rs.getString("status"),
+         rs.getObject("response_status", Integer.class),
+         rs.getString("content_type"),
+         rs.getString("response_headers"),
+         rs.getBytes("response_body"),
+         rs.getTimestamp("expires_at").toInstant()), keyHash);
+      return rows.isEmpty() ? null : rows.get(0);
+   }
+
+   private static StoredResponse toResponse(Row row) {
+      return new StoredResponse(row.requestHash(), row.responseStatus(), row.contentType(),
+         decodeHeaders(row.headers()), row.body() != null ? row.body() : new byte[0]);
+   }
+
+   // Un header por línea ("Nombre: valor"); los valores HTTP no pueden contener saltos de línea
+   private static String encodeHeaders(Map<String, List<String>> headers) {
+      if (headers.isEmpty()) {
+         return null;
+      }
+      StringBuilder out = new StringBuilder();
+      headers.forEach((name, values) -> values.forEach(value -> out.append(name).append(": ").append(value).append('\n')));
+      return out.toString();
+   }
+
+   private static Map<String, List<String>> decodeHeaders(String encoded) {
+      Map<String, List<String>> headers = new LinkedHashMap<>();
+      if (encoded != null) {
+         for (String line : encoded.split("\n")) {
+            int colon = line.indexOf(": ");
+            if (colon > 0) {
+               headers.computeIfAbsent(line.substring(0, colon), k -> new ArrayList<>()).add(line.substring(colon + 2));
+            }
+         }
+      }
+      return headers;
+   }
+}
@@ -0,0 +1,15 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import java.util.Map;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Claves HMAC para firmar y verificar JWTs, compartidas por todas las instancias.
+ * - keys: kid -> clave en Base64 (mínimo 256 bits), o "file:/ruta" a un archivo que la contiene.
+ * - activeKeyId: kid con el que se firman los tokens nuevos; el resto solo verifica.
+ * Rotación sin cortes: agregar la clave nueva en todos los nodos, después cambiar activeKeyId
+ * y, cuando venzan los tokens viejos, quitar la anterior.
+ */
+@ConfigurationProperties(prefix = "application.security.jwt.signing")
+public record JwtKeyProperties(String activeKeyId, Map<String, String> keys) {
+}
@@ -0,0 +1,82 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Collectors;
+import javax.crypto.SecretKey;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Conjunto de claves de firma JWT identificadas por kid (ver JwtKeyProperties).
+ * Si no hay claves configuradas se genera una efímera: sirve para desarrollo,
+ * pero los tokens no sobreviven a un reinicio ni valen en otro nodo.
+ */
+@Slf4j
+@Component
+public class JwtKeyRing {
+
+   private static final String EPHEMERAL_KEY_ID = "local";
+
+   private final Map<String, SecretKey> keys;
+   private final String activeKeyId;
+
+   public JwtKeyRing(JwtKeyProperties properties) {
+      Map<String, String> configured = properties.keys() != null ? properties.keys() : Map.of();
+
+      if (configured.isEmpty()) {
+         log.warn("⚠️ Sin claves JWT configuradas (application.security.jwt.signing.keys): se usa una clave efímera");
+         this.keys = Map.of(EPHEMERAL_KEY_ID, Keys.secretKeyFor(SignatureAlgorithm.HS256));
+         this.activeKeyId = EPHEMERAL_KEY_ID;
+         return;
+      }
+
+      this.keys = configured.entrySet().stream()
+         .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, e -> decode(e.getKey(), e.getValue())));
+      this.activeKeyId = properties.activeKeyId();
+      if (activeKeyId == null || !keys.containsKey(activeKeyId)) {
+         throw new IllegalStateException("application.security.jwt.signing.active-key-id debe ser uno de " + keys.keySet());
+      }
+      log.info("🔑 Claves JWT cargadas: {} (firma con '{}')", keys.keySet(), activeKeyId);
+   }
+
+   public String activeKeyId() {
+      return activeKeyId;
+   }
+
+   public SecretKey signingKey() {
+      return keys.get(activeKeyId);
+   }
+
+   // Clave para verificar un token según su header "kid"; los tokens sin kid se verifican con la activa
+   public SecretKey verificationKey(String keyId) {
+      if (keyId == null) {
+         return signingKey();
+      }
+      SecretKey key = keys.get(keyId);
+      if (key == null) {
+         throw new SignatureException("Clave de firma desconocida: " + keyId);
+      }
+      return key;
+   }
+
+   private static SecretKey decode(String keyId, String value) {
+      String encoded = value.trim();
+      if (encoded.startsWith("file:")) {
+         try {
+            encoded = Files.readString(Path.of(encoded.substring("file:".length()))).trim();
+         } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer la clave JWT '" + keyId + "'", e);
+         }
+      }
+      // hmacShaKeyFor rechaza claves de menos de 256 bits
+      return Keys.hmacShaKeyFor(Decoders.BASE64.decode(encoded));
+   }
+}
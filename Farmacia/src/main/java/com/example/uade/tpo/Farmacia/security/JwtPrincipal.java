@@ -0,0 +1,19 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import java.util.List;
+import org.springframework.security.core.AuthenticatedPrincipal;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+// Usuario autenticado armado a partir de los claims del JWT (sin pasar por la DB).
+// getName() devuelve el email, igual que el User que se usaba antes como principal.
+public record JwtPrincipal(Long userId, String email, List<String> roles) implements AuthenticatedPrincipal {
+
+   @Override
+   public String getName() {
+      return email;
+   }
+
+   public List<SimpleGrantedAuthority> authorities() {
+      return roles.stream().map(SimpleGrantedAuthority::new).toList();
+   }
+}
@@ -0,0 +1,115 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import com.example.uade.tpo.Farmacia.entity.User;
+import com.example.uade.tpo.Farmacia.repository.UserRepository;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Arma el JwtPrincipal de cada request.
+ * - Tokens con claims "uid" y "roles" emitidos después de users.tokens_valid_after: se usan tal cual.
+ * - Tokens viejos (sin esos claims) o emitidos antes de una revocación: se carga el usuario de la DB.
+ * - Tokens de un usuario borrado: se rechazan.
+ * La revocación vive en la DB, así que vale en todos los nodos y sobrevive reinicios. Las dos lecturas
+ * (tokens_valid_after por userId y el usuario completo por email) se cachean por
+ * "application.security.jwt.principal-cache-ttl-seconds": otro nodo ve una revocación a lo sumo ese tiempo después.
+ */
+@Slf4j
+@Component
+public class JwtPrincipalResolver {
+
+   private interface Expiring {
+      long expiresAt();
+   }
+
+   private record CachedPrincipal(JwtPrincipal principal, long expiresAt) implements Expiring {}
+   // validAfter null: el usuario ya no existe
+   private record CachedValidity(Instant validAfter, long expiresAt) implements Expiring {}
+
+   private static final int MAX_CACHED = 10_000;
+
+   private final UserRepository userRepository;
+   private final long cacheTtlMillis;
+
+   private final Map<String, CachedPrincipal> cache = new ConcurrentHashMap<>();
+   private final Map<Long, CachedValidity> validity = new ConcurrentHashMap<>();
+
+   public JwtPrincipalResolver(UserRepository userRepository,
+                               @Value("${application.security.jwt.principal-cache-ttl-seconds:30}") long cacheTtlSeconds) {
+      this.userRepository = userRepository;
+      this.cacheTtlMillis = cacheTtlSeconds * 1000;
+   }
+
+   public JwtPrincipal resolve(VerifiedToken token) {
+      if (token.hasIdentityClaims()) {
+         Instant validAfter = tokensValidAfter(token.userId());
+         if (validAfter == null) {
+            throw new UsernameNotFoundException("Usuario no encontrado");
+         }
+         // iat tiene resolución de segundos: un token del mismo segundo que la revocación se revisa en la DB
+         if (token.issuedAt() != null && token.issuedAt().isAfter(validAfter)) {
+            return new JwtPrincipal(token.userId(), token.subject(), token.roles());
+         }
+      }
+      return loadFromDatabase(token.subject());
+   }
+
+   // Cambios de rol y bajas: los tokens emitidos hasta ahora dejan de valer por sus claims en todos los nodos
+   public void revoke(Long userId, String email) {
+      userRepository.revokeTokens(userId, Instant.now());
+      validity.remove(userId);
+      cache.remove(email);
+      log.info("🔒 Tokens del usuario {} revocados", email);
+   }
+
+   private Instant tokensValidAfter(Long userId) {
+      long now = System.currentTimeMillis();
+      CachedValidity cached = validity.get(userId);
+      if (cached != null && cached.expiresAt() > now) {
+         return cached.validAfter();
+      }
+
+      Optional<Instant> validAfter = userRepository.findTokensValidAfter(userId, Instant.EPOCH);
+      if (validity.size() > MAX_CACHED) {
+         purgeExpired(validity);
+      }
+      validity.put(userId, new CachedValidity(validAfter.orElse(null), now + cacheTtlMillis));
+      return validAfter.orElse(null);
+   }
+
+   private JwtPrincipal loadFromDatabase(String email) {
+      long now = System.currentTimeMillis();
+      CachedPrincipal cached = cache.get(email);
+      if (cached != null && cached.expiresAt() > now) {
+         return cached.principal();
+      }
+
+      User user = userRepository.findByEmail(email)
+         .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado"));
+      JwtPrincipal principal = new JwtPrincipal(user.getId(), user.getEmail(),
+         user.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList());
+
+      if (cache.size() > MAX_CACHED) {
+         purgeExpired(cache);
+      }
+      cache.put(email, new CachedPrincipal(principal, now + cacheTtlMillis));
+      return principal;
+   }
+
+   // Si después de sacar lo vencido sigue más de medio lleno se vacía (es solo un cache):
+   // así el recorrido completo ocurre a lo sumo una vez cada MAX_CACHED / 2 altas
+   private void purgeExpired(Map<?, ? extends Expiring> entries) {
+      long now = System.currentTimeMillis();
+      entries.values().removeIf(entry -> entry.expiresAt() <= now);
+      if (entries.size() > MAX_CACHED / 2) {
+         entries.clear();
+      }
+   }
+}
@@ -1,61 +1,79 @@
 package com.example.uade.tpo.Farmacia.security;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
-import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import com.example.uade.tpo.Farmacia.entity.User;
+import java.security.Key;
 import java.util.Date;
-import java.util.function.Function;
-import javax.crypto.SecretKey;
+import java.util.List;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
 @Service
 public class JwtService {
    
+   // Claims propios: con ellos el filtro arma el usuario autenticado sin ir a la DB
+   public static final String USER_ID_CLAIM = "uid";
+   public static final String ROLES_CLAIM = "roles";
+   
    @Value("${application.security.jwt.expiration:86400000}")
    private long jwtExpiration;
 
-   // Generar una clave segura automáticamente
-   private final SecretKey secretKey = Keys.secretKeyFor(SignatureAlgorithm.HS256);
+   private final JwtKeyRing keyRing;
+
+   // El parser es inmutable y thread-safe: se arma una sola vez y se reutiliza en cada request.
+   // La clave de verificación se elige según el header "kid" de cada token.
+   private final JwtParser parser;
+
+   public JwtService(JwtKeyRing keyRing) {
+      this.keyRing = keyRing;
+      this.parser = Jwts.parserBuilder()
+            .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+               @Override
+               public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                  return keyRing.verificationKey(header.getKeyId());
+               }
+            })
+            .build();
+   }
 
    public String generateToken(UserDetails userDetails) {
       return buildToken(userDetails, jwtExpiration);
    }
 
    private String buildToken(UserDetails userDetails, long expiration) {
-      return Jwts.builder()
+      var builder = Jwts.builder()
+            .claim(ROLES_CLAIM, userDetails.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList());
+      if (userDetails instanceof User user) {
+         builder.claim(USER_ID_CLAIM, user.getId());
+      }
+      return builder
+            .setHeaderParam(JwsHeader.KEY_ID, keyRing.activeKeyId())
             .setSubject(userDetails.getUsername())
             .setIssuedAt(new Date(System.currentTimeMillis()))
             .setExpiration(new Date(System.currentTimeMillis() + expiration))
-            .signWith(secretKey, SignatureAlgorithm.HS256)
+            .signWith(keyRing.signingKey(), SignatureAlgorithm.HS256)
             .compact();
    }
 
-   public boolean isTokenValid(String token, UserDetails userDetails) {
-      String username = extractClaim(token, Claims::getSubject);
-      return username.equals(userDetails.getUsername()) && !isTokenExpired(token);
-   }
-
-   private boolean isTokenExpired(String token) {
-      return extractClaim(token, Claims::getExpiration).before(new Date());
-   }
-
-   public String extractUsername(String token) {
-      return extractClaim(token, Claims::getSubject);
-   }
-
-   public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
-      Claims claims = extractAllClaims(token);
-      return claimsResolver.apply(claims);
-   }
-
-   private Claims extractAllClaims(String token) {
-      return Jwts.parserBuilder()
-            .setSigningKey(secretKey)
-            .build()
-            .parseClaimsJws(token)
-            .getBody();
+   /**
+    * Parsea y verifica el token una sola vez (firma y vencimiento) y devuelve sus datos.
+    * Lanza JwtException si el token es inválido o está vencido.
+    */
+   public VerifiedToken verify(String token) {
+      Claims claims = parser.parseClaimsJws(token).getBody();
+      List<?> roles = claims.get(ROLES_CLAIM, List.class);
+      return new VerifiedToken(
+            claims.getSubject(),
+            claims.get(USER_ID_CLAIM, Long.class),
+            roles != null ? roles.stream().map(String::valueOf).toList() : null,
+            claims.getIssuedAt() != null ? claims.getIssuedAt().toInstant() : null,
+            claims.getExpiration() != null ? claims.getExpiration().toInstant() : null);
    }
 }
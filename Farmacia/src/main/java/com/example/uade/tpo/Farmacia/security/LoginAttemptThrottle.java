@@ -0,0 +1,108 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import com.example.uade.tpo.Farmacia.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limita los intentos de login fallidos por cuenta desde cada IP, y por IP, dentro de una ventana de tiempo.
+ * Se consulta antes de calcular BCrypt, así un ataque de fuerza bruta se corta sin gastar CPU
+ * en el pool de hashing. El límite por cuenta va junto con la IP: quien manda contraseñas incorrectas
+ * para una cuenta ajena solo se bloquea a sí mismo, no al dueño que entra desde otra dirección.
+ * Un login exitoso limpia el contador de esa cuenta en esa IP (no el de la IP,
+ * para que una IP no pueda "resetearse" acertando la contraseña de su propia cuenta).
+ * La IP es la del cliente: detrás del proxy la toma Tomcat de X-Forwarded-For (server.forward-headers-strategy)
+ * solo si el request viene de un proxy de confianza. Las direcciones de "ip-exempt" (p. ej. el NAT de una
+ * sucursal, donde todos los mostradores comparten IP) no tienen límite por IP, solo por cuenta + IP.
+ */
+@Slf4j
+@Component
+public class LoginAttemptThrottle {
+
+   private record Attempts(int failures, long windowStart) {}
+
+   private final int maxFailuresPerAccount;
+   private final int maxFailuresPerIp;
+   private final long windowMillis;
+   private final Set<String> ipExempt;
+   private final Counter throttled;
+
+   // "email ip" -> intentos
+   private final Map<String, Attempts> byAccountAndIp = new ConcurrentHashMap<>();
+   private final Map<String, Attempts> byIp = new ConcurrentHashMap<>();
+
+   public LoginAttemptThrottle(MeterRegistry registry,
+                               @Value("${application.security.login.max-failures-per-account:5}") int maxFailuresPerAccount,
+                               @Value("${application.security.login.max-failures-per-ip:20}") int maxFailuresPerIp,
+                               @Value("${application.security.login.window-seconds:300}") long windowSeconds,
+                               @Value("${application.security.login.ip-exempt:}") List<String> ipExempt) {
+      this.maxFailuresPerAccount = maxFailuresPerAccount;
+      this.maxFailuresPerIp = maxFailuresPerIp;
+      this.windowMillis = windowSeconds * 1000;
+      this.ipExempt = Set.copyOf(ipExempt.stream().map(String::trim).filter(ip -> !ip.isEmpty()).toList());
+      this.throttled = registry.counter("farmacia.auth.login.throttled");
+   }
+
+   public void checkAllowed(String email, String clientIp) {
+      String ip = ipKey(clientIp);
+      long now = System.currentTimeMillis();
+      if (exceeded(byAccountAndIp, accountKey(email, clientIp), maxFailuresPerAccount, now)
+            || exceeded(byIp, ip, maxFailuresPerIp, now)) {
+         throttled.increment();
+         log.warn("🚫 Login bloqueado temporalmente para {} desde {}", email, clientIp);
+         throw new TooManyRequestsException("Demasiados intentos fallidos, intente nuevamente en unos minutos");
+      }
+   }
+
+   public void recordFailure(String email, String clientIp) {
+      long now = System.currentTimeMillis();
+      increment(byAccountAndIp, accountKey(email, clientIp), now);
+      increment(byIp, ipKey(clientIp), now);
+      if (byAccountAndIp.size() + byIp.size() > 10_000) {
+         purgeExpired(now);
+      }
+   }
+
+   public void recordSuccess(String email, String clientIp) {
+      byAccountAndIp.remove(accountKey(email, clientIp));
+   }
+
+   private static String accountKey(String email, String clientIp) {
+      return email + " " + clientIp;
+   }
+
+   // null = sin límite por IP para esta dirección
+   private String ipKey(String ip) {
+      return ip == null || ipExempt.contains(ip) ? null : ip;
+   }
+
+   private boolean exceeded(Map<String, Attempts> attempts, String key, int max, long now) {
+      if (key == null) {
+         return false;
+      }
+      Attempts current = attempts.get(key);
+      return current != null && now - current.windowStart() < windowMillis && current.failures() >= max;
+   }
+
+   private void increment(Map<String, Attempts> attempts, String key, long now) {
+      if (key == null) {
+         return;
+      }
+      attempts.compute(key, (k, current) ->
+         current == null || now - current.windowStart() >= windowMillis
+            ? new Attempts(1, now)
+            : new Attempts(current.failures() + 1, current.windowStart()));
+   }
+
+   private void purgeExpired(long now) {
+      byAccountAndIp.values().removeIf(a -> now - a.windowStart() >= windowMillis);
+      byIp.values().removeIf(a -> now - a.windowStart() >= windowMillis);
+   }
+}
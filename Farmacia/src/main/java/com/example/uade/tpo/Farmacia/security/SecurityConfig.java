@@ -1,5 +1,6 @@
 package com.example.uade.tpo.Farmacia.security;
 
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -25,6 +26,7 @@ import java.util.List;
 public class SecurityConfig {
     
     private final JwtAuthenticationFilter jwtAuthFilter;
+    private final IdempotencyFilter idempotencyFilter;
     private final AuthenticationProvider authenticationProvider;
 
     @Bean
@@ -37,6 +39,9 @@ public class SecurityConfig {
                     // Permitir OPTIONS para CORS preflight
                     .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll()
                     
+                    // Dispatch asíncrono al cerrar un stream SSE: el request original ya fue autorizado
+                    .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+                    
                     // Público: registro y login sin autenticación
                     .requestMatchers("/api/v1/auth/**").permitAll()
                     .requestMatchers("/v1/auth/**").permitAll()
@@ -67,6 +72,8 @@ public class SecurityConfig {
                     .requestMatchers(HttpMethod.PUT, "/v1/orders/*/status").hasAnyRole("ADMIN", "PHARMACIST")
                     .requestMatchers(HttpMethod.PATCH, "/api/v1/orders/*/status").hasAnyRole("ADMIN", "PHARMACIST")
                     .requestMatchers(HttpMethod.PATCH, "/v1/orders/*/status").hasAnyRole("ADMIN", "PHARMACIST")
+                    .requestMatchers(HttpMethod.POST, "/api/v1/orders/status/bulk").hasAnyRole("ADMIN", "PHARMACIST")
+                    .requestMatchers(HttpMethod.POST, "/v1/orders/status/bulk").hasAnyRole("ADMIN", "PHARMACIST")
                     .requestMatchers(HttpMethod.POST, "/api/v1/products/**").hasAnyRole("ADMIN", "PHARMACIST")
                     .requestMatchers(HttpMethod.POST, "/v1/products/**").hasAnyRole("ADMIN", "PHARMACIST")
                     .requestMatchers(HttpMethod.PUT, "/api/v1/products/**").hasAnyRole("ADMIN", "PHARMACIST")
@@ -95,7 +102,9 @@ public class SecurityConfig {
             )
             .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authenticationProvider(authenticationProvider)
-            .addFilterBefore(jwtAuthFilter, UsernamePasswordAuthenticationFilter.class);
+            .addFilterBefore(jwtAuthFilter, UsernamePasswordAuthenticationFilter.class)
+            // Idempotency-Key necesita al usuario ya autenticado por el JWT
+            .addFilterAfter(idempotencyFilter, JwtAuthenticationFilter.class);
 
         return http.build();
     }
@@ -118,11 +127,11 @@ public class SecurityConfig {
         
         // Headers permitidos
         configuration.setAllowedHeaders(List.of(
-            "Authorization", "Content-Type", "Accept"
+            "Authorization", "Content-Type", "Accept", IdempotencyFilter.HEADER
         ));
         
         // Headers expuestos en la respuesta
-        configuration.setExposedHeaders(List.of("Authorization"));
+        configuration.setExposedHeaders(List.of("Authorization", IdempotencyFilter.REPLAYED_HEADER));
         
         // Permitir credenciales (cookies, auth headers)
         configuration.setAllowCredentials(true);
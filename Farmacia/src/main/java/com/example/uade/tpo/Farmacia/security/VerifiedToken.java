@@ -0,0 +1,17 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import java.time.Instant;
+import java.util.List;
+
+// Resultado de verificar un JWT una sola vez (firma + vencimiento).
+// userId y roles son null en tokens emitidos antes de agregar esos claims.
+public record VerifiedToken(String subject, Long userId, List<String> roles, Instant issuedAt, Instant expiresAt) {
+
+   public VerifiedToken {
+      roles = roles != null ? List.copyOf(roles) : null;
+   }
+
+   public boolean hasIdentityClaims() {
+      return userId != null && roles != null;
+   }
+}
@@ -14,6 +14,7 @@ import com.example.uade.tpo.Farmacia.entity.Role;
 import com.example.uade.tpo.Farmacia.entity.User;
 import com.example.uade.tpo.Farmacia.repository.RoleRepository;
 import com.example.uade.tpo.Farmacia.repository.UserRepository;
+import com.example.uade.tpo.Farmacia.security.JwtPrincipalResolver;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -26,6 +27,7 @@ public class AdminUserService {
     private final UserRepository userRepository;
     private final RoleRepository roleRepository;
     private final PasswordEncoder passwordEncoder;
+    private final JwtPrincipalResolver principalResolver;
 
     /**
      * Listar todos los usuarios del sistema
@@ -89,6 +91,7 @@ public class AdminUserService {
         
         user.setRole(newRole);
         User updatedUser = userRepository.save(user);
+        principalResolver.revoke(updatedUser.getId(), updatedUser.getEmail()); // los tokens emitidos tenían el rol anterior
         
         log.info("✅ Rol actualizado: usuario {} ahora es {}", updatedUser.getEmail(), newRole.getName());
         
@@ -105,6 +108,7 @@ public class AdminUserService {
                 .orElseThrow(() -> new IllegalArgumentException("Usuario no encontrado: " + userId));
         
         userRepository.delete(user);
+        principalResolver.revoke(user.getId(), user.getEmail());
         log.info("✅ Usuario eliminado: {}", user.getEmail());
     }
     
@@ -17,7 +17,9 @@ import com.example.uade.tpo.Farmacia.entity.RoleType;
 import com.example.uade.tpo.Farmacia.entity.Role;
 import com.example.uade.tpo.Farmacia.repository.UserRepository;
 import com.example.uade.tpo.Farmacia.repository.RoleRepository;
+import com.example.uade.tpo.Farmacia.exception.TooManyRequestsException;
 import com.example.uade.tpo.Farmacia.security.JwtService;
+import com.example.uade.tpo.Farmacia.security.LoginAttemptThrottle;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -32,6 +34,7 @@ public class AuthenticationService {
     private final PasswordEncoder passwordEncoder;
     private final JwtService jwtService;
     private final AuthenticationManager authenticationManager;
+    private final LoginAttemptThrottle loginThrottle;
 
     @Transactional
     public AuthenticationResponse register(RegisterRequest request) {
@@ -106,8 +109,8 @@ public class AuthenticationService {
                     .name(savedUser.getName())
                     .build();
                     
-        } catch (IllegalArgumentException e) {
-            // Re-lanzar excepciones de validación (400)
+        } catch (IllegalArgumentException | TooManyRequestsException e) {
+            // Re-lanzar excepciones de validación (400) y de capacidad de hashing (429)
             throw e;
         } catch (Exception e) {
             log.error("Error inesperado durante el registro: {}", e.getMessage(), e);
@@ -115,8 +118,8 @@ public class AuthenticationService {
         }
     }
 
-    @Transactional(readOnly = true)
-    public AuthenticationResponse authenticate(AuthenticationRequest request) {
+    // Sin @Transactional: no se retiene una conexión de MySQL mientras se espera el hash de BCrypt
+    public AuthenticationResponse authenticate(AuthenticationRequest request, String clientIp) {
         
         // Validación: campos no nulos ni vacíos
         if (request.getEmail() == null || request.getEmail().trim().isEmpty()) {
@@ -126,18 +129,21 @@ public class AuthenticationService {
             throw new IllegalArgumentException("La contraseña no puede estar vacía");
         }
         
+        String email = request.getEmail().trim().toLowerCase();
+        
+        // Cortar la fuerza bruta antes de gastar CPU en BCrypt
+        loginThrottle.checkAllowed(email, clientIp);
+        
         try {
-            // Intentar autenticar con Spring Security
-            authenticationManager.authenticate(
-                    new UsernamePasswordAuthenticationToken(
-                            request.getEmail().trim().toLowerCase(),
-                            request.getPassword()
-                    )
+            // Intentar autenticar con Spring Security (el hash corre en el pool acotado de BoundedPasswordEncoder)
+            Authentication authentication = authenticationManager.authenticate(
+                    new UsernamePasswordAuthenticationToken(email, request.getPassword())
             );
             
-            // Si llegamos aquí, la autenticación fue exitosa
-            User user = repository.findByEmail(request.getEmail().trim().toLowerCase())
-                    .orElseThrow(() -> new BadCredentialsException("Usuario no encontrado"));
+            // Si llegamos aquí, la autenticación fue exitosa: el principal ya es el usuario cargado
+            if (!(authentication.getPrincipal() instanceof User user)) {
+                throw new BadCredentialsException("Usuario no encontrado");
+            }
             
             // Validar que el usuario tenga todos los campos necesarios
             if (user.getEmail() == null || user.getPassword() == null || user.getRole() == null) {
@@ -145,6 +151,7 @@ public class AuthenticationService {
                 throw new RuntimeException("Error: datos de usuario incompletos");
             }
             
+            loginThrottle.recordSuccess(email, clientIp);
             log.info("Usuario autenticado exitosamente: {}", user.getEmail());
             
             // Generar token JWT
@@ -163,8 +170,12 @@ public class AuthenticationService {
                     .build();
                     
         } catch (BadCredentialsException e) {
+            loginThrottle.recordFailure(email, clientIp);
             log.warn("Intento de autenticación fallido para: {}", request.getEmail());
             throw new BadCredentialsException("Email o contraseña incorrectos");
+        } catch (TooManyRequestsException e) {
+            // Pool de hashing saturado: 429 sin contar como intento fallido
+            throw e;
         } catch (Exception e) {
             log.error("Error inesperado durante la autenticación: {}", e.getMessage(), e);
             throw new RuntimeException("Error al autenticar el usuario: " + e.getMessage());
@@ -0,0 +1,72 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.exception.ConflictException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Locks por usuario para CartService, repartidos en un número fijo de franjas ("stripes"):
+ * todas las operaciones del carrito de un mismo usuario (incluidos la carga, la creación del carrito
+ * y el checkout completo hasta el commit) se ejecutan de a una, sin un lock por usuario que haya que
+ * crear y limpiar. Usuarios distintos solo se esperan si caen en la misma franja.
+ * La clave es el email de la cuenta (lo que recibe CartService), 1 a 1 con el ID del usuario.
+ * Entre nodos la garantía la da la DB: uk_carts_user_open admite un solo carrito OPEN por usuario.
+ */
+@Component
+public class CartLockStripes {
+
+    private final ReentrantLock[] stripes;
+    private final long timeoutMillis;
+    private final Timer waitTimer;
+    private final Counter timeouts;
+
+    public CartLockStripes(MeterRegistry registry,
+                           @Value("${farmacia.cart.lock-stripes:256}") int stripes,
+                           @Value("${farmacia.cart.lock-timeout-ms:5000}") long timeoutMillis) {
+        // Potencia de 2 para elegir la franja con una máscara
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.waitTimer = registry.timer("farmacia.cart.lock.wait");
+        this.timeouts = registry.counter("farmacia.cart.lock.timeouts");
+    }
+
+    public <T> T withLock(String email, Supplier<T> action) {
+        ReentrantLock lock = stripeFor(email);
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrumpido esperando el carrito", e);
+        }
+        waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!acquired) {
+            timeouts.increment();
+            throw new ConflictException("El carrito está siendo modificado por otro request, intente nuevamente");
+        }
+
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock stripeFor(String email) {
+        int h = email.hashCode();
+        h ^= (h >>> 16); // mezcla los bits altos, como HashMap
+        return stripes[h & (stripes.length - 1)];
+    }
+}
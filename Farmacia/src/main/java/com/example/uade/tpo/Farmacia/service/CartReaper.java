@@ -0,0 +1,167 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Borra los carritos sin actividad: OPEN sin cambios hace "open-max-age-days" (abandonados) y
+ * CHECKED_OUT / CANCELLED hace "closed-max-age-days" (la orden ya tiene su propia copia de los ítems).
+ * Los candidatos salen del índice idx_carts_status_update de a "chunk-size"; cada lote se borra en su
+ * propia transacción (primero cart_items, después carts) y entre lotes se espera "pause-ms" para no
+ * retener locks ni saturar el binlog. Cada lote vuelve a verificar la antigüedad con SELECT ... FOR UPDATE,
+ * así un carrito que se usó mientras tanto no se borra, y se saltean los que tienen sesión en CartSessionStore.
+ * Una sesión que se carga después de esa lista no queda desprotegida: CartSessionStore toca update_at al cargar.
+ * Métricas: farmacia.cart.reaper.carts, farmacia.cart.reaper.items y farmacia.cart.reaper.run (timer).
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+public class CartReaper {
+
+    private static final String FILL_UPDATE_AT_SQL =
+        "UPDATE carts SET update_at = created_at WHERE update_at IS NULL";
+    private static final String CANDIDATES_SQL =
+        "SELECT id FROM carts WHERE status IN (:statuses) AND update_at < :cutoff ORDER BY update_at LIMIT :limit";
+    private static final String LOCK_SQL =
+        "SELECT id FROM carts WHERE id IN (:ids) AND status IN (:statuses) AND update_at < :cutoff FOR UPDATE";
+    private static final String DELETE_ITEMS_SQL =
+        "DELETE FROM cart_items WHERE cart_id IN (:ids)";
+    private static final String DELETE_CARTS_SQL =
+        "DELETE FROM carts WHERE id IN (:ids)";
+
+    private static final List<String> OPEN = List.of("OPEN");
+    private static final List<String> CLOSED = List.of("CHECKED_OUT", "CANCELLED");
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate namedJdbc;
+    private final CartSessionStore sessions;
+    private final TransactionTemplate tx;
+
+    private final boolean enabled;
+    private final Duration openMaxAge;
+    private final Duration closedMaxAge;
+    private final int chunkSize;
+    private final long pauseMillis;
+
+    private final Counter cartsDeleted;
+    private final Counter itemsDeleted;
+    private final Timer runTimer;
+
+    public CartReaper(JdbcTemplate jdbc, NamedParameterJdbcTemplate namedJdbc, CartSessionStore sessions,
+                      PlatformTransactionManager transactionManager, MeterRegistry registry,
+                      @Value("${farmacia.cart.reaper.enabled:true}") boolean enabled,
+                      @Value("${farmacia.cart.reaper.open-max-age-days:30}") long openMaxAgeDays,
+                      @Value("${farmacia.cart.reaper.closed-max-age-days:7}") long closedMaxAgeDays,
+                      @Value("${farmacia.cart.reaper.chunk-size:500}") int chunkSize,
+                      @Value("${farmacia.cart.reaper.pause-ms:200}") long pauseMillis) {
+        this.jdbc = jdbc;
+        this.namedJdbc = namedJdbc;
+        this.sessions = sessions;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.openMaxAge = Duration.ofDays(openMaxAgeDays);
+        this.closedMaxAge = Duration.ofDays(closedMaxAgeDays);
+        this.chunkSize = chunkSize;
+        this.pauseMillis = pauseMillis;
+        this.cartsDeleted = registry.counter("farmacia.cart.reaper.carts");
+        this.itemsDeleted = registry.counter("farmacia.cart.reaper.items");
+        this.runTimer = registry.timer("farmacia.cart.reaper.run");
+    }
+
+    // Carritos anteriores a update_at (o nunca modificados): usan created_at para que el índice los cubra
+    @PostConstruct
+    public void fillUpdateAt() {
+        int filled = jdbc.update(FILL_UPDATE_AT_SQL);
+        if (filled > 0) {
+            log.info("🛒 update_at completado en {} carritos", filled);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${farmacia.cart.reaper.interval-ms:3600000}",
+               initialDelayString = "${farmacia.cart.reaper.interval-ms:3600000}")
+    public void run() {
+        if (!enabled) {
+            return;
+        }
+        runTimer.record(() -> {
+            Instant now = Instant.now();
+            int open = reap(OPEN, now.minus(openMaxAge));
+            int closed = reap(CLOSED, now.minus(closedMaxAge));
+            if (open > 0 || closed > 0) {
+                log.info("🧹 Carritos borrados: {} abandonados, {} cerrados", open, closed);
+            }
+        });
+    }
+
+    int reap(List<String> statuses, Instant cutoff) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+            .addValue("statuses", statuses)
+            .addValue("cutoff", Timestamp.from(cutoff))
+            .addValue("limit", chunkSize);
+        int total = 0;
+
+        while (true) {
+            List<Long> candidates = namedJdbc.queryForList(CANDIDATES_SQL, params, Long.class);
+            Set<Long> active = sessions.activeCartIds();
+            List<Long> ids = candidates.stream().filter(id -> !active.contains(id)).toList();
+            if (ids.isEmpty()) {
+                break; // (si todo el lote está en uso se reintenta en la próxima corrida)
+            }
+
+            Integer deleted = tx.execute(status -> deleteChunk(ids, params));
+            total += deleted != null ? deleted : 0;
+            if (candidates.size() < chunkSize) {
+                break;
+            }
+            if (!pause()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    private int deleteChunk(List<Long> ids, MapSqlParameterSource params) {
+        MapSqlParameterSource lockParams = new MapSqlParameterSource(params.getValues()).addValue("ids", ids);
+        List<Long> locked = namedJdbc.queryForList(LOCK_SQL, lockParams, Long.class);
+        if (locked.isEmpty()) {
+            return 0;
+        }
+
+        MapSqlParameterSource deleteParams = new MapSqlParameterSource("ids", locked);
+        int items = namedJdbc.update(DELETE_ITEMS_SQL, deleteParams);
+        int carts = namedJdbc.update(DELETE_CARTS_SQL, deleteParams);
+        sessions.evictCarts(locked);
+
+        itemsDeleted.increment(items);
+        cartsDeleted.increment(carts);
+        return carts;
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(pauseMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -1,214 +1,246 @@
 package com.example.uade.tpo.Farmacia.service;
 
 import com.example.uade.tpo.Farmacia.controllers.dto.CartAddItemRequest;
+import com.example.uade.tpo.Farmacia.controllers.dto.CartBatchRequest;
 import com.example.uade.tpo.Farmacia.controllers.dto.CartUpdateItemRequest;
 import com.example.uade.tpo.Farmacia.controllers.dto.CartResponse;
+import com.example.uade.tpo.Farmacia.controllers.dto.ProductDTO;
 import com.example.uade.tpo.Farmacia.entity.*;
 import com.example.uade.tpo.Farmacia.repository.*;
+import com.example.uade.tpo.Farmacia.exception.ConflictException;
 import com.example.uade.tpo.Farmacia.exceptions.NotFoundException;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 @RequiredArgsConstructor
 @Service
 public class CartService {
 
     private final CartRepository carts;
-    private final CartItemRepository items;
     private final UserRepository users;
     private final ProductRepository products;
-    private final OrderRepository orders;
-    private final OrderItemRepository orderItems;
+    private final OrderBatchWriter orderWriter;
+    private final StockReservationService stockReservations;
+    private final CartSessionStore sessions;
+    private final ProductCatalogIndex catalogIndex;
+    private final CartLockStripes locks;
+    private final TransactionTemplate tx;
+
+    private static final int MAX_BATCH_OPERATIONS = 100;
 
     //api
+    // Las operaciones del carrito abierto trabajan sobre la sesión en memoria (CartSessionStore),
+    // de a una por usuario (CartLockStripes)
     public CartResponse getCart(String email) {
-        User u = users.findByEmail(email).orElseThrow();
-        Cart c = carts.findByUserAndStatus(u, Cart.Status.OPEN)
-                      .orElseGet(() -> carts.save(newCart(u)));
-        return toResponse(c);
+        return inCart(email, this::toResponse);
     }
 
-    @Transactional
     public CartResponse addItem(String email, CartAddItemRequest req) {
-        if (req.getQuantity() == null || req.getQuantity() < 1)
-            throw new IllegalArgumentException("Cantidad inválida");
-
-        User u = users.findByEmail(email).orElseThrow();
-        Product p = products.findById(req.getProductId()).orElseThrow();
-
-        if (p.getStock() == null || p.getStock() <= 0)
-            throw new IllegalStateException("Producto sin stock");
-        if (req.getQuantity() > p.getStock())
-            throw new IllegalStateException("Cantidad supera stock disponible");
-
-        Cart c = carts.findByUserAndStatus(u, Cart.Status.OPEN)
-                      .orElseGet(() -> carts.save(newCart(u)));
-
-        CartItem existing = c.getItems().stream()
-                .filter(ci -> ci.getProduct().getId().equals(p.getId()))
-                .findFirst().orElse(null);
-
-        if (existing != null) {
-            existing.setQuantity(existing.getQuantity() + req.getQuantity());
-            existing.setUnitPrice(p.getPrecio());
-            existing.setUnitDiscount(p.getDescuento());
-            existing.recomputeLineTotal();
-            items.save(existing);
-            return toResponse(carts.save(c));
-        }
-
-        CartItem ci = new CartItem();
-        ci.setCart(c);
-        ci.setProduct(p);
-        ci.setQuantity(req.getQuantity());
-        ci.setUnitPrice(p.getPrecio());
-        ci.setUnitDiscount(p.getDescuento());
-        ci.recomputeLineTotal();
-
-        c.getItems().add(ci);
-        carts.save(c); // cascade crea el item
-        return toResponse(c);
+        return addItemByParams(email, req.getProductId(), req.getQuantity());
     }
 
-    @Transactional
     public CartResponse updateItem(String email, Long itemId, CartUpdateItemRequest req) {
-        if (req.getQuantity() == null || req.getQuantity() < 1)
-            throw new IllegalArgumentException("Cantidad inválida");
-
-        User u = users.findByEmail(email).orElseThrow();
-        Cart c = carts.findByUserAndStatus(u, Cart.Status.OPEN)
-                      .orElseThrow(() -> new IllegalStateException("No hay carrito abierto"));
-
-        CartItem ci = items.findById(itemId).orElseThrow();
-        if (!ci.getCart().getId().equals(c.getId()))
-            throw new IllegalStateException("El ítem no pertenece al carrito del usuario");
-
-        if (req.getQuantity() > ci.getProduct().getStock())
-            throw new IllegalStateException("Cantidad supera stock");
-
-        ci.setQuantity(req.getQuantity());
-        // mantenemos snapshots previos
-        ci.recomputeLineTotal();
-        items.save(ci);
-        return toResponse(carts.save(c));
+        return updateItemQuantity(email, itemId, req.getQuantity());
     }
 
-    @Transactional
     public CartResponse addItemByParams(String email, Long productId, Integer quantity) {
         if (quantity == null || quantity < 1)
             throw new IllegalArgumentException("Cantidad debe ser mayor a 0");
 
-        User u = users.findByEmail(email).orElseThrow(() -> 
-            new IllegalArgumentException("Usuario no encontrado"));
-        Product p = products.findById(productId).orElseThrow(() -> 
-            new IllegalArgumentException("Producto no encontrado"));
-
-        if (p.getStock() == null || p.getStock() <= 0)
+        ProductDTO p = product(productId);
+        int stock = p.stock() != null ? p.stock() : 0;
+        if (stock <= 0)
             throw new IllegalStateException("Producto sin stock");
-        if (quantity > p.getStock())
-            throw new IllegalStateException("Cantidad supera stock disponible: " + p.getStock());
-
-        Cart c = carts.findByUserAndStatus(u, Cart.Status.OPEN)
-                      .orElseGet(() -> carts.save(newCart(u)));
-
-        // Buscar item existente
-        CartItem existing = c.getItems().stream()
-                .filter(ci -> ci.getProduct().getId().equals(p.getId()))
-                .findFirst().orElse(null);
-
-        if (existing != null) {
-            // Sumar cantidades (idempotencia)
-            int newQuantity = existing.getQuantity() + quantity;
-            if (newQuantity > p.getStock()) {
-                throw new IllegalStateException("Total excede stock disponible: " + p.getStock());
+        if (quantity > stock)
+            throw new IllegalStateException("Cantidad supera stock disponible: " + stock);
+
+        BigDecimal unitPrice = money(p.price());
+        BigDecimal unitDiscount = money(p.discount());
+
+        return inCart(email, c -> {
+            // Buscar item existente
+            CartSessionStore.Line existing = c.lineForProduct(productId);
+            if (existing != null) {
+                // Sumar cantidades (idempotencia)
+                int newQuantity = existing.getQuantity() + quantity;
+                if (newQuantity > stock) {
+                    throw new IllegalStateException("Total excede stock disponible: " + stock);
+                }
+                c.update(existing, newQuantity, unitPrice, unitDiscount);
+            } else {
+                sessions.addLine(c, productId, p.name(), quantity, unitPrice, unitDiscount);
             }
-            existing.setQuantity(newQuantity);
-            existing.setUnitPrice(p.getPrecio());
-            existing.setUnitDiscount(p.getDescuento());
-            existing.recomputeLineTotal();
-            items.save(existing);
-            return toResponse(carts.save(c));
-        }
-
-        // Crear nuevo item
-        CartItem ci = new CartItem();
-        ci.setCart(c);
-        ci.setProduct(p);
-        ci.setQuantity(quantity);
-        ci.setUnitPrice(p.getPrecio());
-        ci.setUnitDiscount(p.getDescuento());
-        ci.recomputeLineTotal();
-
-        c.getItems().add(ci);
-        carts.save(c); // cascade crea el item
-        return toResponse(c);
+            return toResponse(c);
+        });
     }
 
-    @Transactional
     public CartResponse updateItemQuantity(String email, Long itemId, Integer quantity) {
         if (quantity == null || quantity < 1)
             throw new IllegalArgumentException("Cantidad inválida");
 
-        User u = users.findByEmail(email).orElseThrow();
-        Cart c = carts.findByUserAndStatus(u, Cart.Status.OPEN)
-                      .orElseThrow(() -> new IllegalStateException("No hay carrito abierto"));
-
-        CartItem ci = items.findById(itemId).orElseThrow();
-        if (!ci.getCart().getId().equals(c.getId()))
-            throw new IllegalStateException("El ítem no pertenece al carrito del usuario");
+        return inCart(email, c -> {
+            CartSessionStore.Line ci = c.line(itemId);
+            if (ci == null)
+                throw new IllegalStateException("El ítem no pertenece al carrito del usuario");
 
-        if (quantity > ci.getProduct().getStock())
-            throw new IllegalStateException("Cantidad supera stock");
+            ProductDTO p = product(ci.getProductId());
+            if (p.stock() == null || quantity > p.stock())
+                throw new IllegalStateException("Cantidad supera stock");
 
-        ci.setQuantity(quantity);
-        ci.recomputeLineTotal();
-        items.save(ci);
-        return toResponse(carts.save(c));
+            // mantenemos snapshots previos
+            c.update(ci, quantity, ci.getUnitPrice(), ci.getUnitDiscount());
+            return toResponse(c);
+        });
     }
 
-    @Transactional
     public void removeItem(String email, Long itemId) {
-        User u = users.findByEmail(email).orElseThrow();
-        Cart c = carts.findByUserAndStatus(u, Cart.Status.OPEN)
-                      .orElseThrow(() -> new IllegalStateException("No hay carrito abierto"));
+        inCart(email, c -> {
+            if (c.line(itemId) == null)
+                throw new IllegalStateException("El ítem no pertenece al carrito del usuario");
+            c.remove(itemId);
+            return null;
+        });
+    }
+
+    /**
+     * Aplica una lista de altas, cambios y bajas sobre el carrito abierto en un solo paso.
+     * Primero se simulan todas las operaciones en orden (cantidad final por producto) y se validan
+     * contra el stock; si alguna falla no se aplica ninguna. Los productos que no están en el índice
+     * del catálogo se cargan con una sola consulta IN. Altas, cambios y bajas se escriben juntos en una
+     * sola transacción antes de responder (CartSessionStore.applyBatch), aun con WRITE_BEHIND.
+     */
+    public CartResponse applyBatch(String email, CartBatchRequest req) {
+        List<CartBatchRequest.Operation> ops = req.getOperations();
+        if (ops == null || ops.isEmpty())
+            throw new IllegalArgumentException("La lista de operaciones no puede estar vacía");
+        if (ops.size() > MAX_BATCH_OPERATIONS)
+            throw new IllegalArgumentException("Máximo " + MAX_BATCH_OPERATIONS + " operaciones por request");
+
+        return inCart(email, c -> {
+            // 1) cantidad final por producto (0 = se quita) simulando las operaciones en orden
+            Map<Long, Integer> target = new LinkedHashMap<>();
+            Set<Long> repriced = new HashSet<>();
+            for (int i = 0; i < ops.size(); i++) {
+                CartBatchRequest.Operation op = ops.get(i);
+                String prefix = "Operación " + (i + 1) + ": ";
+                if (op == null || op.getType() == null)
+                    throw new IllegalArgumentException(prefix + "falta el tipo (ADD, UPDATE o REMOVE)");
+
+                Long productId = batchProductId(c, op, prefix);
+                CartSessionStore.Line line = c.lineForProduct(productId);
+                int current = target.getOrDefault(productId, line != null ? line.getQuantity() : 0);
+
+                switch (op.getType()) {
+                    case ADD -> {
+                        requirePositive(op.getQuantity(), prefix);
+                        target.put(productId, current + op.getQuantity());
+                        repriced.add(productId);
+                    }
+                    case UPDATE -> {
+                        requirePositive(op.getQuantity(), prefix);
+                        if (current == 0)
+                            throw new IllegalStateException(prefix + "el producto " + productId + " no está en el carrito");
+                        target.put(productId, op.getQuantity());
+                    }
+                    case REMOVE -> {
+                        if (current == 0)
+                            throw new IllegalStateException(prefix + "el producto " + productId + " no está en el carrito");
+                        target.put(productId, 0);
+                    }
+                }
+            }
 
-        CartItem ci = items.findById(itemId).orElseThrow();
-        if (!ci.getCart().getId().equals(c.getId()))
-            throw new IllegalStateException("El ítem no pertenece al carrito del usuario");
+            // 2) productos y stock
+            Map<Long, ProductDTO> productsById = products(target.entrySet().stream()
+                .filter(e -> e.getValue() > 0).map(Map.Entry::getKey).toList());
+            List<CartSessionStore.NewLine> newLines = new ArrayList<>();
+            for (Map.Entry<Long, Integer> e : target.entrySet()) {
+                if (e.getValue() == 0) {
+                    continue;
+                }
+                ProductDTO p = productsById.get(e.getKey());
+                if (p == null)
+                    throw new IllegalArgumentException("Producto no encontrado: " + e.getKey());
+                if (p.stock() == null || e.getValue() > p.stock())
+                    throw new IllegalStateException("Cantidad supera stock disponible de " + p.name() + ": " + p.stock());
+                if (c.lineForProduct(e.getKey()) == null) {
+                    newLines.add(new CartSessionStore.NewLine(p.id(), p.name(), e.getValue(), money(p.price()), money(p.discount())));
+                }
+            }
 
-        c.getItems().remove(ci);
-        items.delete(ci);
-        carts.save(c);
+            // 3) aplicar y escribir: INSERT de las líneas nuevas, cambios y bajas en una transacción
+            //    (si falla, la sesión queda como estaba)
+            sessions.applyBatch(c, newLines, session -> {
+                for (Map.Entry<Long, Integer> e : target.entrySet()) {
+                    CartSessionStore.Line line = session.lineForProduct(e.getKey());
+                    if (line == null) {
+                        continue;
+                    }
+                    if (e.getValue() == 0) {
+                        session.remove(line.getItemId());
+                    } else if (line.getQuantity() != e.getValue() || repriced.contains(e.getKey())) {
+                        ProductDTO p = productsById.get(e.getKey());
+                        boolean reprice = repriced.contains(e.getKey());
+                        session.update(line, e.getValue(),
+                            reprice ? money(p.price()) : line.getUnitPrice(),
+                            reprice ? money(p.discount()) : line.getUnitDiscount());
+                    }
+                }
+            });
+            return toResponse(c);
+        });
     }
 
-    @Transactional
+    // El lock cubre flush, transacción y desalojo: ninguna operación cae entre el commit y el descarte de la sesión
     public Long checkout(String email) {
+        return locks.withLock(email, () -> {
+            // Lo pendiente en memoria se escribe antes de leer el carrito con JPA
+            sessions.flush(email);
+            Long orderId;
+            try {
+                orderId = tx.execute(status -> placeOrder(email));
+            } catch (ObjectOptimisticLockingFailureException e) {
+                // Otro nodo cambió el carrito entre la lectura y el cierre (carts.version)
+                sessions.evict(email);
+                throw new ConflictException("El carrito cambió desde otro dispositivo, revíselo e intente nuevamente");
+            }
+            sessions.evict(email);
+            return orderId;
+        });
+    }
+
+    private Long placeOrder(String email) {
         User u = users.findByEmail(email).orElseThrow();
-        Cart c = carts.findByUserAndStatus(u, Cart.Status.OPEN)
+        Cart c = carts.findWithItemsByUserAndStatus(u, Cart.Status.OPEN)
                       .orElseThrow(() -> new IllegalStateException("No hay carrito abierto"));
 
         if (c.getItems().isEmpty())
             throw new IllegalStateException("Carrito vacío");
 
-        // 1) validar stock
+        // 1) y 2) reservar stock: UPDATE condicional por línea en un solo batch
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        Map<Long, Product> productsById = new HashMap<>();
         for (CartItem it : c.getItems()) {
-            if (it.getQuantity() > it.getProduct().getStock()) {
-                throw new IllegalStateException("Sin stock para " + it.getProduct().getNombre());
-            }
+            quantities.merge(it.getProduct().getId(), it.getQuantity(), Integer::sum);
+            productsById.put(it.getProduct().getId(), it.getProduct());
         }
+        stockReservations.reserve(quantities, productsById);
 
-        //2) descontar stock
-        for (CartItem it : c.getItems()) {
-            Product p = it.getProduct();
-            p.setStock(p.getStock() - it.getQuantity());
-            products.save(p);
-        }
-
-        //3) crear orden + items snapshot
+        //3) crear orden + items snapshot (items en un solo batch)
         Order order = new Order();
         order.setUser(u);
         order.setTotal(
@@ -216,18 +248,18 @@ public class CartService {
              .map(CartItem::getLineTotal)
              .reduce(BigDecimal.ZERO, BigDecimal::add)
         );
-        order = orders.save(order);
 
+        List<OrderItem> lines = new ArrayList<>(c.getItems().size());
         for (CartItem it : c.getItems()) {
             OrderItem oi = new OrderItem();
-            oi.setOrder(order);
             oi.setProduct(it.getProduct());
             oi.setQuantity(it.getQuantity());
             oi.setUnitPrice(it.getUnitPrice());
             oi.setUnitDiscount(it.getUnitDiscount());
             oi.setLineTotal(it.getLineTotal());
-            orderItems.save(oi);
+            lines.add(oi);
         }
+        order = orderWriter.write(order, lines);
 
         //4 cerrar carrito
         c.setStatus(Cart.Status.CHECKED_OUT);
@@ -238,19 +270,67 @@ public class CartService {
 
     //helpers
 
-    private Cart newCart(User u) {
-        Cart c = new Cart();
-        c.setUser(u);
-        c.setStatus(Cart.Status.OPEN);
-        return c;
+    private <T> T inCart(String email, Function<CartSessionStore.CartSession, T> operation) {
+        return locks.withLock(email, () -> sessions.withSession(email, operation));
+    }
+
+    // Precio, descuento y stock desde el índice del catálogo; la DB solo si el índice no lo tiene
+    private ProductDTO product(Long productId) {
+        ProductDTO cached = catalogIndex.get(productId);
+        if (cached != null) {
+            return cached;
+        }
+        return products.findById(productId)
+            .map(ProductDTO::from)
+            .orElseThrow(() -> new IllegalArgumentException("Producto no encontrado"));
+    }
+
+    // Varios productos: los que falten en el índice se buscan con un solo SELECT ... WHERE id IN
+    private Map<Long, ProductDTO> products(Collection<Long> productIds) {
+        Map<Long, ProductDTO> found = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : productIds) {
+            ProductDTO cached = catalogIndex.get(id);
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            products.findAllById(missing).forEach(p -> found.put(p.getId(), ProductDTO.from(p)));
+        }
+        return found;
+    }
+
+    private static Long batchProductId(CartSessionStore.CartSession c, CartBatchRequest.Operation op, String prefix) {
+        if (op.getItemId() != null) {
+            CartSessionStore.Line line = c.line(op.getItemId());
+            if (line == null)
+                throw new IllegalStateException(prefix + "el ítem " + op.getItemId() + " no pertenece al carrito del usuario");
+            return line.getProductId();
+        }
+        if (op.getProductId() == null)
+            throw new IllegalArgumentException(prefix + "falta productId o itemId");
+        return op.getProductId();
+    }
+
+    private static void requirePositive(Integer quantity, String prefix) {
+        if (quantity == null || quantity < 1)
+            throw new IllegalArgumentException(prefix + "cantidad inválida");
+    }
+
+    // Precio y descuento tal como están en Product (BigDecimal de punta a punta, sin pasar por double)
+    private static BigDecimal money(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
     }
 
-    private CartResponse toResponse(Cart c) {
-        var lines = c.getItems().stream().map(it -> {
+    private CartResponse toResponse(CartSessionStore.CartSession c) {
+        var lines = c.getLines().stream().map(it -> {
             var l = new CartResponse.CartLine();
-            l.setItemId(it.getId());
-            l.setProductId(it.getProduct().getId());
-            l.setName(it.getProduct().getNombre()); 
+            l.setItemId(it.getItemId());
+            l.setProductId(it.getProductId());
+            l.setName(it.getName());
             l.setQuantity(it.getQuantity());
             l.setUnitPrice(it.getUnitPrice());
             l.setUnitDiscount(it.getUnitDiscount());
@@ -263,8 +343,8 @@ public class CartService {
                 .reduce(BigDecimal.ZERO, BigDecimal::add);
 
         var dto = new CartResponse();
-        dto.setId(c.getId());
-        dto.setStatus(c.getStatus().name());
+        dto.setId(c.getCartId());
+        dto.setStatus(Cart.Status.OPEN.name());
         dto.setItems(lines);
         dto.setTotal(total);
         return dto;
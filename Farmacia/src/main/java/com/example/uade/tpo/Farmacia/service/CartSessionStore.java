@@ -0,0 +1,717 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.exception.ConflictException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Carrito abierto de cada usuario en memoria sobre carts/cart_items.
+ * La primera operación de un usuario carga el carrito con una sola consulta; las siguientes trabajan
+ * sobre la sesión. Las líneas nuevas y el carrito se insertan en el momento (la API identifica los ítems
+ * por su ID) y un lote de CartService.applyBatch se escribe completo en una transacción antes de responder.
+ * - WRITE_THROUGH (default): cada operación se escribe antes de responder, y antes de usar la sesión se
+ *   compara carts.version con la de la DB (una lectura por PK): es seguro con varios nodos sin sticky sessions.
+ * - WRITE_BEHIND: los cambios de cantidad y las bajas se acumulan y se escriben juntos (un batch JDBC para
+ *   todas las sesiones) cada "flush-interval-ms", antes del checkout y al apagar. Pensado para un solo nodo.
+ * Toda escritura sube carts.version con un UPDATE condicional a la versión que leyó la sesión y a que el
+ * carrito siga OPEN. Si no encuentra la fila (otro nodo cambió el carrito o hizo el checkout) la sesión se
+ * descarta en vez de pisar la DB: en una operación se recarga y se vuelve a aplicar; en un flush diferido
+ * esos cambios se pierden (farmacia.cart.stale) porque se basaban en un carrito que ya no existe así.
+ * Métricas: farmacia.cart.sessions, farmacia.cart.flushed (filas escritas), farmacia.cart.flush (timer)
+ * y farmacia.cart.stale.
+ */
+@Slf4j
+@Component
+public class CartSessionStore {
+
+    public enum Durability { WRITE_BEHIND, WRITE_THROUGH }
+
+    public static final class Line {
+        private final Long itemId;
+        private final Long productId;
+        private final String name;
+        private int quantity;
+        private BigDecimal unitPrice;
+        private BigDecimal unitDiscount;
+        private BigDecimal lineTotal;
+
+        Line(Long itemId, Long productId, String name, int quantity, BigDecimal unitPrice,
+             BigDecimal unitDiscount, BigDecimal lineTotal) {
+            this.itemId = itemId;
+            this.productId = productId;
+            this.name = name;
+            this.quantity = quantity;
+            this.unitPrice = unitPrice;
+            this.unitDiscount = unitDiscount;
+            this.lineTotal = lineTotal;
+        }
+
+        public Long getItemId() { return itemId; }
+        public Long getProductId() { return productId; }
+        public String getName() { return name; }
+        public int getQuantity() { return quantity; }
+        public BigDecimal getUnitPrice() { return unitPrice; }
+        public BigDecimal getUnitDiscount() { return unitDiscount; }
+        public BigDecimal getLineTotal() { return lineTotal; }
+
+        Line copy() {
+            return new Line(itemId, productId, name, quantity, unitPrice, unitDiscount, lineTotal);
+        }
+
+        // Misma fórmula que CartItem.recomputeLineTotal
+        void set(int quantity, BigDecimal unitPrice, BigDecimal unitDiscount) {
+            this.quantity = quantity;
+            this.unitPrice = unitPrice;
+            this.unitDiscount = unitDiscount;
+            BigDecimal d = unitDiscount == null ? BigDecimal.ZERO : unitDiscount;
+            this.lineTotal = unitPrice.subtract(d).max(BigDecimal.ZERO).multiply(new BigDecimal(quantity));
+        }
+    }
+
+    /**
+     * Carrito OPEN de un usuario. Solo se modifica con el lock de la sesión (ver withSession).
+     */
+    public static final class CartSession {
+        private final String email;
+        private final Long userId;
+        private final Long cartId;
+        private long version;                                          // carts.version de lo que tiene la sesión
+        private final Map<Long, Line> lines = new LinkedHashMap<>();   // itemId -> línea
+        private final Map<Long, Line> removed = new HashMap<>();       // bajas todavía no escritas
+        private final Map<Long, Line> dirty = new HashMap<>();         // cambios todavía no escritos
+        private boolean touched;
+        private boolean evicted;
+        private volatile CompletableFuture<Void> writing;             // lote de flushAll todavía sin commit
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        CartSession(String email, Long userId, Long cartId, long version) {
+            this.email = email;
+            this.userId = userId;
+            this.cartId = cartId;
+            this.version = version;
+        }
+
+        public Long getUserId() { return userId; }
+        public Long getCartId() { return cartId; }
+        public Collection<Line> getLines() { return lines.values(); }
+
+        public Line line(Long itemId) {
+            return lines.get(itemId);
+        }
+
+        public Line lineForProduct(Long productId) {
+            return lines.values().stream().filter(l -> l.productId.equals(productId)).findFirst().orElse(null);
+        }
+
+        public void update(Line line, int quantity, BigDecimal unitPrice, BigDecimal unitDiscount) {
+            line.set(quantity, unitPrice, unitDiscount);
+            dirty.put(line.itemId, line);
+            touched = true;
+        }
+
+        public void remove(Long itemId) {
+            Line line = lines.remove(itemId);
+            if (line != null) {
+                dirty.remove(itemId);
+                removed.put(itemId, line);
+                touched = true;
+            }
+        }
+
+        boolean isDirty() {
+            return touched;
+        }
+
+        boolean isWriting() {
+            return writing != null && !writing.isDone();
+        }
+    }
+
+    // version: la que tenía la sesión al tomar los cambios; el UPDATE de carts la exige
+    private record Pending(CartSession session, long version, List<Line> updates, List<Line> removals) {}
+
+    // Filas escritas y lotes cuyo carrito ya no estaba en la versión esperada (no se escribieron)
+    private record Written(int rows, List<Pending> stale) {}
+
+    // El carrito cambió en otro nodo (o se cerró) desde que se cargó la sesión
+    private static final class StaleCartException extends RuntimeException {
+        StaleCartException() {
+            super("El carrito cambió desde que se cargó la sesión", null, false, false);
+        }
+    }
+
+    // Copia de la sesión para deshacer un applyBatch cuya transacción falló
+    private record Snapshot(Map<Long, Line> lines, Set<Long> dirty, Map<Long, Line> removed, boolean touched) {
+
+        static Snapshot of(CartSession session) {
+            Map<Long, Line> lines = new LinkedHashMap<>();
+            session.lines.forEach((id, line) -> lines.put(id, line.copy()));
+            Map<Long, Line> removed = new HashMap<>();
+            session.removed.forEach((id, line) -> removed.put(id, line.copy()));
+            return new Snapshot(lines, Set.copyOf(session.dirty.keySet()), removed, session.touched);
+        }
+
+        void restore(CartSession session) {
+            session.lines.clear();
+            session.lines.putAll(lines);
+            session.dirty.clear();
+            dirty.forEach(id -> session.dirty.put(id, session.lines.get(id)));
+            session.removed.clear();
+            session.removed.putAll(removed);
+            session.touched = touched;
+        }
+    }
+
+    private static final String LOAD_SQL =
+        "SELECT u.id AS user_id, c.id AS cart_id, c.version, i.id AS item_id, i.product_id, p.nombre, i.quantity, " +
+        "i.unit_price, i.unit_discount, i.line_total " +
+        "FROM users u " +
+        "LEFT JOIN carts c ON c.user_id = u.id AND c.status = 'OPEN' " +
+        "LEFT JOIN cart_items i ON i.cart_id = c.id " +
+        "LEFT JOIN products p ON p.id = i.product_id " +
+        "WHERE u.email = ? ORDER BY c.id, i.id";
+    private static final String INSERT_CART_SQL =
+        "INSERT INTO carts (user_id, status, open_slot, version, created_at, update_at) VALUES (?, 'OPEN', 1, 0, ?, ?)";
+    private static final String INSERT_ITEM_SQL =
+        "INSERT INTO cart_items (cart_id, product_id, quantity, unit_price, unit_discount, line_total) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_ITEM_SQL =
+        "UPDATE cart_items SET quantity = ?, unit_price = ?, unit_discount = ?, line_total = ? WHERE id = ?";
+    private static final String DELETE_ITEM_SQL =
+        "DELETE FROM cart_items WHERE id = ?";
+    private static final String TOUCH_CART_SQL =
+        "UPDATE carts SET update_at = ?, version = version + 1 WHERE id = ? AND version = ? AND status = 'OPEN'";
+    private static final String VERSION_SQL =
+        "SELECT version FROM carts WHERE id = ? AND status = 'OPEN'";
+    private static final String TOUCH_OPEN_CART_SQL =
+        "UPDATE carts SET update_at = ? WHERE status = 'OPEN' AND user_id = (SELECT id FROM users WHERE email = ?)";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate flushTx;
+    private final Durability durability;
+    private final long idleMillis;
+    private final int maxSessions;
+
+    private final Map<String, CartSession> sessions = new ConcurrentHashMap<>();
+    private static final int MAX_STALE_RETRIES = 3;
+
+    private final Counter flushedRows;
+    private final Counter staleSessions;
+    private final Timer flushTimer;
+
+    public CartSessionStore(JdbcTemplate jdbc, PlatformTransactionManager transactionManager, MeterRegistry registry,
+                            @Value("${farmacia.cart.durability:WRITE_THROUGH}") Durability durability,
+                            @Value("${farmacia.cart.idle-seconds:900}") long idleSeconds,
+                            @Value("${farmacia.cart.max-sessions:10000}") int maxSessions) {
+        this.jdbc = jdbc;
+        // Transacción propia: lo escrito no depende de que confirme la operación que disparó el flush
+        this.flushTx = new TransactionTemplate(transactionManager);
+        this.flushTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.durability = durability;
+        this.idleMillis = idleSeconds * 1000;
+        this.maxSessions = maxSessions;
+        this.flushedRows = registry.counter("farmacia.cart.flushed");
+        this.staleSessions = registry.counter("farmacia.cart.stale");
+        this.flushTimer = registry.timer("farmacia.cart.flush");
+        Gauge.builder("farmacia.cart.sessions", sessions, Map::size).register(registry);
+    }
+
+    /**
+     * Ejecuta la operación con el carrito abierto del usuario (lo carga o lo crea si hace falta).
+     * Las operaciones sobre el mismo carrito se serializan con el lock de la sesión. Si al escribir
+     * resulta que otro nodo cambió el carrito, se recarga y la operación se aplica de nuevo.
+     */
+    public <T> T withSession(String email, Function<CartSession, T> operation) {
+        int stale = 0;
+        while (true) {
+            CartSession session = session(email);
+            awaitWrite(session);
+            synchronized (session) {
+                if (session.evicted) {
+                    continue; // la desalojó el flush periódico mientras esperábamos el lock
+                }
+                if (session.isWriting()) {
+                    continue; // flushAll tomó sus cambios mientras esperábamos el lock
+                }
+                try {
+                    if (durability == Durability.WRITE_THROUGH && !isCurrent(session)) {
+                        staleSessions.increment();
+                        throw new StaleCartException();
+                    }
+                    session.lastAccess = System.currentTimeMillis();
+                    T result = operation.apply(session);
+                    if (durability == Durability.WRITE_THROUGH && session.isDirty()) {
+                        write(List.of(drain(session)));
+                    }
+                    return result;
+                } catch (StaleCartException e) {
+                    discard(session);
+                    if (++stale > MAX_STALE_RETRIES) {
+                        throw new ConflictException("El carrito está siendo modificado desde otro dispositivo, intente nuevamente");
+                    }
+                }
+            }
+        }
+    }
+
+    public record NewLine(Long productId, String name, int quantity, BigDecimal unitPrice, BigDecimal unitDiscount) {}
+
+    // Inserta la línea en el momento (su ID se devuelve al cliente)
+    public Line addLine(CartSession session, Long productId, String name, int quantity,
+                        BigDecimal unitPrice, BigDecimal unitDiscount) {
+        return addLines(session, List.of(new NewLine(productId, name, quantity, unitPrice, unitDiscount))).get(0);
+    }
+
+    /**
+     * Inserta varias líneas en un único batch JDBC (y una transacción): o entran todas o ninguna.
+     * Las bajas todavía no escritas del mismo producto se reviven en lugar de insertar otra fila.
+     */
+    public List<Line> addLines(CartSession session, List<NewLine> newLines) {
+        List<Line> lines = prepareLines(session, newLines);
+        if (lines.stream().noneMatch(l -> l.itemId == null)) {
+            return attachLines(session, lines, List.of());
+        }
+        List<Long> ids = flushTx.execute(status -> {
+            // Antes de insertar: el carrito sigue OPEN y nadie lo cambió desde que se cargó
+            if (jdbc.update(TOUCH_CART_SQL, Timestamp.from(Instant.now()), session.cartId, session.version) == 0) {
+                throw new StaleCartException();
+            }
+            return insertLines(session.cartId, lines);
+        });
+        // Recién con el INSERT confirmado se toca la sesión
+        session.version++;
+        return attachLines(session, lines, ids);
+    }
+
+    /**
+     * Aplica un lote de CartService.applyBatch: inserta las líneas nuevas, ejecuta "changes" (cambios y bajas
+     * sobre la sesión) y escribe todo, junto con lo que la sesión tenía pendiente, en una sola transacción
+     * antes de volver. Si la transacción falla no queda nada escrito y la sesión vuelve a como estaba.
+     */
+    public void applyBatch(CartSession session, List<NewLine> newLines, Consumer<CartSession> changes) {
+        Snapshot before = Snapshot.of(session);
+        try {
+            Written written = flushTimer.record(() -> flushTx.execute(status -> {
+                List<Line> lines = prepareLines(session, newLines);
+                attachLines(session, lines, insertLines(session.cartId, lines));
+                changes.accept(session);
+                Written result = writeRows(List.of(drain(session)));
+                if (!result.stale().isEmpty()) {
+                    throw new StaleCartException(); // rollback: tampoco quedan las líneas insertadas
+                }
+                return result;
+            }));
+            session.version++;
+            flushedRows.increment(written.rows());
+        } catch (RuntimeException e) {
+            before.restore(session);
+            throw e;
+        }
+    }
+
+    // Líneas del lote: las bajas todavía no escritas del mismo producto se reviven (conservan su ID)
+    private List<Line> prepareLines(CartSession session, List<NewLine> newLines) {
+        List<Line> result = new ArrayList<>(newLines.size());
+        for (NewLine n : newLines) {
+            Line revived = session.removed.values().stream()
+                .filter(l -> l.productId.equals(n.productId())).findFirst().orElse(null);
+            Line line = revived != null ? revived : new Line(null, n.productId(), n.name(), 0, null, null, null);
+            line.set(n.quantity(), n.unitPrice(), n.unitDiscount());
+            result.add(line);
+        }
+        return result;
+    }
+
+    // Agrega a la sesión las líneas ya escritas; "ids" son los generados para las que no tenían ID
+    private List<Line> attachLines(CartSession session, List<Line> lines, List<Long> ids) {
+        List<Line> result = new ArrayList<>(lines);
+        for (int i = 0, inserted = 0; i < result.size(); i++) {
+            Line line = result.get(i);
+            if (line.itemId == null) {
+                Line stored = new Line(ids.get(inserted++), line.productId, line.name, line.quantity,
+                    line.unitPrice, line.unitDiscount, line.lineTotal);
+                session.lines.put(stored.itemId, stored);
+                result.set(i, stored);
+            } else {
+                session.removed.remove(line.itemId);
+                session.lines.put(line.itemId, line);
+                session.dirty.put(line.itemId, line);
+            }
+        }
+        session.touched = true;
+        return result;
+    }
+
+    // INSERT de las líneas sin ID en un único batch; corre dentro de la transacción de quien llama
+    private List<Long> insertLines(Long cartId, List<Line> candidates) {
+        List<Line> lines = candidates.stream().filter(l -> l.itemId == null).toList();
+        if (lines.isEmpty()) {
+            return List.of();
+        }
+        KeyHolder keys = new GeneratedKeyHolder();
+        jdbc.batchUpdate(
+            con -> con.prepareStatement(INSERT_ITEM_SQL, Statement.RETURN_GENERATED_KEYS),
+            new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    Line line = lines.get(i);
+                    ps.setLong(1, cartId);
+                    ps.setLong(2, line.productId);
+                    ps.setInt(3, line.quantity);
+                    ps.setBigDecimal(4, line.unitPrice);
+                    ps.setBigDecimal(5, line.unitDiscount);
+                    ps.setBigDecimal(6, line.lineTotal);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return lines.size();
+                }
+            },
+            keys);
+        return keys.getKeyList().stream()
+            .map(row -> ((Number) row.values().iterator().next()).longValue())
+            .toList();
+    }
+
+    /**
+     * Escribe los cambios pendientes del usuario (p. ej. antes del checkout, que lee el carrito con JPA).
+     * Si flushAll ya tomó parte de esos cambios y todavía no hizo commit, primero espera ese lote:
+     * al volver, todo lo que la sesión tenía está en la DB. Si el carrito cambió en otro nodo la sesión
+     * se descarta y se responde 409: el usuario tiene que ver el carrito actual antes de confirmarlo.
+     */
+    public void flush(String email) {
+        CartSession session = sessions.get(email);
+        if (session == null) {
+            return;
+        }
+        while (true) {
+            awaitWrite(session);
+            synchronized (session) {
+                if (session.isWriting()) {
+                    continue;
+                }
+                if (session.isDirty()) {
+                    try {
+                        write(List.of(drain(session)));
+                    } catch (StaleCartException e) {
+                        discard(session);
+                        throw new ConflictException("El carrito cambió desde otro dispositivo, revíselo e intente nuevamente");
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    // El carrito dejó de estar OPEN (checkout): la próxima operación carga o crea el nuevo
+    public void evict(String email) {
+        CartSession session = sessions.remove(email);
+        if (session != null) {
+            synchronized (session) {
+                session.evicted = true;
+            }
+        }
+    }
+
+    // Las sesiones tomadas quedan marcadas hasta el commit del lote (ver flush y withSession)
+    @Scheduled(fixedDelayString = "${farmacia.cart.flush-interval-ms:2000}")
+    public void flushAll() {
+        List<Pending> pending = new ArrayList<>();
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        for (CartSession session : sessions.values()) {
+            synchronized (session) {
+                if (session.isDirty()) {
+                    pending.add(drain(session));
+                    session.writing = written;
+                }
+            }
+        }
+        if (!pending.isEmpty()) {
+            try {
+                write(pending);
+            } catch (StaleCartException e) {
+                // Ya descartadas en write; el resto del lote quedó escrito
+            } finally {
+                written.complete(null);
+            }
+        }
+        evictIdle();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushAll();
+        log.info("🛒 Carritos en memoria escritos antes de apagar");
+    }
+
+    // IDs de los carritos con sesión en memoria (CartReaper no los borra aunque update_at sea viejo)
+    public Set<Long> activeCartIds() {
+        return sessions.values().stream().map(CartSession::getCartId).collect(Collectors.toSet());
+    }
+
+    // Descarta las sesiones de carritos que ya no existen en la DB
+    public void evictCarts(Collection<Long> cartIds) {
+        for (CartSession session : sessions.values()) {
+            if (cartIds.contains(session.cartId)) {
+                evict(session.email);
+            }
+        }
+    }
+
+    // ================= Helpers =================
+
+    /**
+     * Sesión del usuario, cargándola si no está. La carga (I/O) no corre dentro de una función del mapa:
+     * CartService ya tiene el lock de la franja del usuario, y si dos cargas se cruzan igual queda una sola.
+     */
+    private CartSession session(String email) {
+        CartSession session = sessions.get(email);
+        if (session != null) {
+            return session;
+        }
+        CartSession loaded = load(email);
+        CartSession existing = sessions.putIfAbsent(email, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    // Solo con WRITE_THROUGH: otro nodo pudo cambiar o cerrar el carrito desde la última operación
+    private boolean isCurrent(CartSession session) {
+        List<Long> version = jdbc.queryForList(VERSION_SQL, Long.class, session.cartId);
+        return !version.isEmpty() && version.get(0) == session.version;
+    }
+
+    // Saca la sesión del mapa y la marca: quien la tenga tomada vuelve a pedirla y se carga de la DB
+    private void discard(CartSession session) {
+        synchronized (session) {
+            session.evicted = true;
+            sessions.remove(session.email, session);
+        }
+    }
+
+    private CartSession load(String email) {
+        // Antes de leer: CartReaper vuelve a mirar update_at con FOR UPDATE, así no borra un carrito recién cargado.
+        // Si el reaper ya lo tiene bloqueado, el UPDATE espera su commit y la lectura ya no lo encuentra (se crea otro)
+        jdbc.update(TOUCH_OPEN_CART_SQL, Timestamp.from(Instant.now()), email);
+        List<Map<String, Object>> rows = jdbc.queryForList(LOAD_SQL, email);
+        if (rows.isEmpty()) {
+            throw new IllegalArgumentException("Usuario no encontrado");
+        }
+
+        Long userId = ((Number) rows.get(0).get("user_id")).longValue();
+        Number cartId = (Number) rows.get(0).get("cart_id");
+        if (cartId == null) {
+            try {
+                return new CartSession(email, userId, insertCart(userId), 0);
+            } catch (DuplicateKeyException e) {
+                // Otro nodo creó el carrito OPEN primero (uk_carts_user_open): usar ese
+                rows = jdbc.queryForList(LOAD_SQL, email);
+                cartId = (Number) rows.get(0).get("cart_id");
+            }
+        }
+        CartSession session = new CartSession(email, userId, cartId.longValue(),
+            ((Number) rows.get(0).get("version")).longValue());
+        for (Map<String, Object> row : rows) {
+            Number itemId = (Number) row.get("item_id");
+            Number rowCart = (Number) row.get("cart_id");
+            if (itemId == null || rowCart.longValue() != session.cartId) {
+                continue; // carrito sin ítems (LEFT JOIN) o un segundo carrito OPEN
+            }
+            session.lines.put(itemId.longValue(), new Line(
+                itemId.longValue(),
+                ((Number) row.get("product_id")).longValue(),
+                (String) row.get("nombre"),
+                ((Number) row.get("quantity")).intValue(),
+                (BigDecimal) row.get("unit_price"),
+                (BigDecimal) row.get("unit_discount"),
+                (BigDecimal) row.get("line_total")));
+        }
+        return session;
+    }
+
+    private Long insertCart(Long userId) {
+        KeyHolder key = new GeneratedKeyHolder();
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(INSERT_CART_SQL, Statement.RETURN_GENERATED_KEYS);
+            ps.setLong(1, userId);
+            Timestamp now = Timestamp.from(Instant.now());
+            ps.setTimestamp(2, now);
+            ps.setTimestamp(3, now);
+            return ps;
+        }, key);
+        return key.getKey().longValue();
+    }
+
+    // Espera sin el lock de la sesión: si el lote falla, restore necesita ese lock para devolver los cambios
+    private static void awaitWrite(CartSession session) {
+        CompletableFuture<Void> writing = session.writing;
+        if (writing != null) {
+            writing.join();
+        }
+    }
+
+    // Toma (y limpia) los cambios pendientes; se llama con el lock de la sesión
+    private Pending drain(CartSession session) {
+        Pending pending = new Pending(session, session.version,
+            session.dirty.values().stream().map(Line::copy).toList(),
+            List.copyOf(session.removed.values()));
+        session.dirty.clear();
+        session.removed.clear();
+        session.touched = false;
+        return pending;
+    }
+
+    // Escribe los lotes; los de carritos cambiados en otro nodo se descartan y terminan en StaleCartException
+    private void write(List<Pending> pending) {
+        Written written;
+        try {
+            written = flushTimer.record(() -> flushTx.execute(status -> writeRows(pending)));
+        } catch (RuntimeException e) {
+            // Los cambios vuelven a quedar pendientes para el próximo flush
+            for (Pending p : pending) {
+                restore(p);
+            }
+            log.error("❌ No se pudieron escribir {} carritos: {}", pending.size(), e.getMessage());
+            throw e;
+        }
+        flushedRows.increment(written.rows());
+        for (Pending p : pending) {
+            if (!written.stale().contains(p)) {
+                synchronized (p.session()) {
+                    p.session().version++;
+                }
+            }
+        }
+        if (!written.stale().isEmpty()) {
+            for (Pending p : written.stale()) {
+                discard(p.session());
+            }
+            staleSessions.increment(written.stale().size());
+            log.warn("⚠️ {} carritos cambiaron en otro nodo: se descartan sus sesiones y los cambios sin escribir",
+                written.stale().size());
+            throw new StaleCartException();
+        }
+    }
+
+    /**
+     * update_at y versión de los carritos, y después bajas y cambios de los que seguían en la versión
+     * esperada, en batches JDBC; corre dentro de la transacción de quien llama.
+     * Con rewriteBatchedStatements un UPDATE del batch puede volver SUCCESS_NO_INFO: se toma como escrito.
+     */
+    private Written writeRows(List<Pending> pending) {
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Object[]> touches = pending.stream()
+            .map(p -> new Object[] {now, p.session().cartId, p.version()})
+            .toList();
+        int[] touched = jdbc.batchUpdate(TOUCH_CART_SQL, touches);
+
+        List<Object[]> updates = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        List<Pending> stale = new ArrayList<>();
+        for (int i = 0; i < pending.size(); i++) {
+            Pending p = pending.get(i);
+            if (touched[i] == 0) {
+                stale.add(p);
+                continue;
+            }
+            p.updates().forEach(l -> updates.add(new Object[] {l.quantity, l.unitPrice, l.unitDiscount, l.lineTotal, l.itemId}));
+            p.removals().forEach(l -> deletes.add(new Object[] {l.itemId}));
+        }
+        if (!deletes.isEmpty()) {
+            jdbc.batchUpdate(DELETE_ITEM_SQL, deletes);
+        }
+        if (!updates.isEmpty()) {
+            jdbc.batchUpdate(UPDATE_ITEM_SQL, updates);
+        }
+        return new Written(updates.size() + deletes.size(), stale);
+    }
+
+    private void restore(Pending pending) {
+        CartSession session = pending.session();
+        synchronized (session) {
+            for (Line line : pending.updates()) {
+                Line current = session.lines.get(line.itemId);
+                if (current != null) {
+                    session.dirty.putIfAbsent(line.itemId, current);
+                }
+            }
+            for (Line line : pending.removals()) {
+                if (!session.lines.containsKey(line.itemId)) {
+                    session.removed.putIfAbsent(line.itemId, line);
+                }
+            }
+            session.touched = true;
+        }
+    }
+
+    /**
+     * Desaloja las sesiones sin cambios pendientes que no se usan hace idle-seconds y, si todavía sobran
+     * más de max-sessions, las menos usadas. Corre solo en el flush periódico (nunca en un request):
+     * entre dos pasadas el mapa puede pasarse de max-sessions por lo que entre en flush-interval-ms.
+     */
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        for (CartSession session : sessions.values()) {
+            if (session.lastAccess < cutoff) {
+                evictIfClean(session);
+            }
+        }
+
+        int excess = sessions.size() - maxSessions;
+        if (excess <= 0) {
+            return;
+        }
+        List<CartSession> oldest = new ArrayList<>(sessions.values());
+        oldest.sort(Comparator.comparingLong(s -> s.lastAccess));
+        for (int i = 0; i < oldest.size() && excess > 0; i++) {
+            if (evictIfClean(oldest.get(i))) {
+                excess--;
+            }
+        }
+    }
+
+    private boolean evictIfClean(CartSession session) {
+        synchronized (session) {
+            // Con un lote sin commit, una recarga desde la DB leería el carrito viejo
+            if (session.isDirty() || session.isWriting()) {
+                return false;
+            }
+            session.evicted = true;
+            return sessions.remove(session.email, session);
+        }
+    }
+}
@@ -23,6 +23,7 @@ public class CategoryService {
 
     private final CategoryRepository repo;
     private final ProductRepository products;
+    private final ProductCatalogIndex catalogIndex;
 
     public List<CategoryResponse> findAll() {
         log.debug("Fetching all categories");
@@ -115,6 +116,7 @@ public class CategoryService {
             c.setDescription(req.getDescription());
             
             Category updated = repo.save(c);
+            catalogIndex.renameCategory(updated.getId(), updated.getName());
             log.info("Category updated successfully: {}", updated.getId());
             
             return toResponse(updated);
@@ -0,0 +1,106 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.repository.ProductImageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Borra del ImageBlobStore los originales y variantes que ninguna fila de product_images referencia.
+ * Recorre las claves de a "chunk-size", consulta cuáles siguen en uso con un solo IN y borra el resto
+ * con deleteIfIdle: un blob escrito o reutilizado en los últimos "grace-minutes" no se toca, así una
+ * subida que deduplicó contra él y todavía no hizo commit de su fila no queda apuntando a un archivo borrado.
+ * Métrica: farmacia.images.gc.deleted (archivos borrados).
+ */
+@Slf4j
+@Component
+public class ImageBlobCollector {
+
+    private final ImageBlobStore blobStore;
+    private final ProductImageRepository images;
+    private final boolean enabled;
+    private final Duration grace;
+    private final int chunkSize;
+    private final Counter deleted;
+
+    public ImageBlobCollector(ImageBlobStore blobStore, ProductImageRepository images, MeterRegistry registry,
+                              @Value("${farmacia.images.gc.enabled:true}") boolean enabled,
+                              @Value("${farmacia.images.gc.grace-minutes:60}") long graceMinutes,
+                              @Value("${farmacia.images.gc.chunk-size:500}") int chunkSize) {
+        this.blobStore = blobStore;
+        this.images = images;
+        this.enabled = enabled;
+        this.grace = Duration.ofMinutes(graceMinutes);
+        this.chunkSize = chunkSize;
+        this.deleted = registry.counter("farmacia.images.gc.deleted");
+    }
+
+    @Scheduled(fixedDelayString = "${farmacia.images.gc.interval-ms:3600000}",
+               initialDelayString = "${farmacia.images.gc.interval-ms:3600000}")
+    public void run() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            int total = collect(Instant.now().minus(grace));
+            if (total > 0) {
+                log.info("🧹 {} blobs de imágenes sin uso eliminados", total);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("⚠️ No se pudo recorrer el store de imágenes: {}", e.getMessage());
+        }
+    }
+
+    // Borra los blobs sin referencias que no se usaron desde "idleSince"; devuelve cuántos borró
+    public int collect(Instant idleSince) throws IOException {
+        int total = 0;
+        try (Stream<String> keys = blobStore.keys()) {
+            Iterator<String> it = keys.iterator();
+            List<String> chunk = new ArrayList<>(chunkSize);
+            while (it.hasNext()) {
+                chunk.add(it.next());
+                if (chunk.size() == chunkSize || !it.hasNext()) {
+                    total += collectChunk(chunk, idleSince);
+                    chunk.clear();
+                }
+            }
+        }
+        return total;
+    }
+
+    private int collectChunk(List<String> keys, Instant idleSince) {
+        Set<String> originals = new HashSet<>();
+        keys.forEach(key -> originals.add(ImageVariantService.originalKey(key)));
+        Set<String> referenced = new HashSet<>(images.findReferencedSha256(originals));
+
+        int count = 0;
+        for (String key : keys) {
+            if (referenced.contains(ImageVariantService.originalKey(key))) {
+                continue;
+            }
+            try {
+                if (blobStore.deleteIfIdle(key, idleSince)) {
+                    count++;
+                }
+            } catch (IOException e) {
+                log.warn("⚠️ No se pudo borrar el blob {}: {}", key, e.getMessage());
+            }
+        }
+        deleted.increment(count);
+        return count;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+/**
+ * Almacenamiento de los binarios de imágenes, direccionado por contenido.
+ * La clave es el sha256 de la imagen (el mismo de ProductImage.sha256), así que
+ * dos productos con la misma foto comparten un único archivo.
+ * ProductImage guarda solo metadatos; los bytes viven acá.
+ * Los blobs no se borran al borrar la imagen: ImageBlobCollector elimina periódicamente los que
+ * ninguna fila referencia y que nadie escribió ni reutilizó durante el período de gracia.
+ */
+public interface ImageBlobStore {
+
+    /**
+     * Guarda el contenido bajo la clave. Si ya existe solo lo marca como usado ahora (deduplicación)
+     * y devuelve null; si lo escribió devuelve su marca de uso, con la que se puede deshacer la
+     * escritura mediante deleteIfIdle(key, marca + 1ns) sin borrar un blob que otro put reutilizó después.
+     */
+    Instant put(String key, byte[] bytes) throws IOException;
+
+    // Igual que put(byte[]) pero copiando desde un stream, sin cargar todo en memoria
+    Instant put(String key, InputStream content) throws IOException;
+
+    boolean exists(String key);
+
+    // Contenido listo para leer o servir; lanza NotFoundException si la clave no existe
+    Resource get(String key);
+
+    void delete(String key) throws IOException;
+
+    // Todas las claves guardadas (originales y variantes); hay que cerrar el stream
+    Stream<String> keys() throws IOException;
+
+    /**
+     * Borra la clave solo si no se escribió ni se reutilizó con put desde "idleSince".
+     * Es atómico respecto de put sobre la misma clave: un put que deduplica contra el blob
+     * lo mantiene vivo o, si llegó después del borrado, lo vuelve a escribir.
+     */
+    boolean deleteIfIdle(String key, Instant idleSince) throws IOException;
+}
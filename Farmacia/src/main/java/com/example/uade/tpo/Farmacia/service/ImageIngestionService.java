@@ -0,0 +1,369 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.controllers.dto.ImageUploadJobDTO;
+import com.example.uade.tpo.Farmacia.controllers.dto.ProductImageMetadataDTO;
+import com.example.uade.tpo.Farmacia.entity.ProductImage;
+import com.example.uade.tpo.Farmacia.exception.TooManyRequestsException;
+import com.example.uade.tpo.Farmacia.exceptions.NotFoundException;
+import com.example.uade.tpo.Farmacia.repository.ProductImageRepository;
+import com.example.uade.tpo.Farmacia.repository.ProductRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipeline de ingesta de imágenes de productos.
+ * - En el thread del request solo se valida y se copia cada archivo a disco (el multipart se borra al terminar el request).
+ * - Un pool acotado de workers calcula el sha256 en streaming, lee ancho/alto solo del header
+ *   (ImageReader, sin decodificar el raster), guarda el blob y genera las variantes.
+ * - Cuando terminan todos los archivos, una transacción corta registra las filas de ProductImage.
+ * Un trabajo es todo o nada, igual que la subida sincrónica: si falla un archivo no se registra ninguno,
+ * y los blobs y variantes que el trabajo escribió (no los deduplicados) se borran del store.
+ * El estado de cada trabajo se consulta por ID y se descarta pasado "farmacia.images.ingest-job-ttl-minutes".
+ */
+@Slf4j
+@Service
+public class ImageIngestionService {
+
+    public enum JobStatus { PENDING, PROCESSING, COMPLETED, FAILED }
+
+    // Límites de seguridad
+    private static final long MAX_FILE_SIZE = 5 * 1024 * 1024; // 5MB máximo por imagen
+    private static final int MAX_IMAGES_PER_PRODUCT = 10; // máximo 10 imágenes por producto
+    private static final List<String> ALLOWED_MIME_TYPES = List.of(
+        "image/jpeg", "image/png", "image/webp"
+    );
+
+    private final ProductImageRepository productImageRepository;
+    private final ProductRepository productRepository;
+    private final ImageBlobStore blobStore;
+    private final ImageVariantService variants;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolExecutor executor;
+    private final Duration jobTtl;
+    private final Map<String, UploadJob> jobs = new ConcurrentHashMap<>();
+
+    public ImageIngestionService(ProductImageRepository productImageRepository,
+                                 ProductRepository productRepository,
+                                 ImageBlobStore blobStore,
+                                 ImageVariantService variants,
+                                 TransactionTemplate transactionTemplate,
+                                 @Value("${farmacia.images.ingest-threads:4}") int threads,
+                                 @Value("${farmacia.images.ingest-queue-capacity:100}") int queueCapacity,
+                                 @Value("${farmacia.images.ingest-job-ttl-minutes:60}") long jobTtlMinutes) {
+        this.productImageRepository = productImageRepository;
+        this.productRepository = productRepository;
+        this.blobStore = blobStore;
+        this.variants = variants;
+        this.transactionTemplate = transactionTemplate;
+        this.jobTtl = Duration.ofMinutes(jobTtlMinutes);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            r -> {
+                Thread t = new Thread(r, "image-ingest-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // Encola la subida y devuelve enseguida el trabajo para consultar su estado
+    public ImageUploadJobDTO submit(Long productId, MultipartFile[] files) throws IOException {
+        return start(productId, files).toDTO();
+    }
+
+    // Misma pipeline, esperando el resultado (subida sincrónica)
+    public List<ProductImageMetadataDTO> ingest(Long productId, MultipartFile[] files) throws IOException {
+        UploadJob job = start(productId, files);
+        job.completion.join();
+        if (job.status == JobStatus.FAILED) {
+            throw new RuntimeException(String.join("; ", job.errors));
+        }
+        return job.images;
+    }
+
+    public ImageUploadJobDTO getJob(Long productId, String jobId) {
+        UploadJob job = jobs.get(jobId);
+        if (job == null || !job.productId.equals(productId)) {
+            throw new NotFoundException("Trabajo de subida no encontrado: " + jobId);
+        }
+        return job.toDTO();
+    }
+
+    public void validateFile(MultipartFile file) {
+        if (file.isEmpty()) {
+            throw new RuntimeException("Archivo vacío");
+        }
+
+        if (file.getSize() > MAX_FILE_SIZE) {
+            throw new RuntimeException("Archivo muy grande. Máximo 5MB");
+        }
+
+        if (!ALLOWED_MIME_TYPES.contains(file.getContentType())) {
+            throw new RuntimeException("Tipo de archivo no permitido. Solo JPG, PNG, WEBP");
+        }
+    }
+
+    // ================= Pipeline =================
+
+    // written: claves que escribió este trabajo (original y variantes) con su marca de uso en el store
+    private record IngestedImage(String sha256, String mimeType, int width, int height, long sizeBytes,
+                                 Map<String, Instant> written) {}
+
+    private UploadJob start(Long productId, MultipartFile[] files) throws IOException {
+        purgeExpiredJobs();
+
+        // Verificar que el producto existe
+        productRepository.findById(productId)
+            .orElseThrow(() -> new RuntimeException("Producto no encontrado"));
+
+        // Verificar límite de imágenes
+        long currentCount = productImageRepository.countByProductId(productId);
+        if (currentCount + files.length > MAX_IMAGES_PER_PRODUCT) {
+            throw new RuntimeException("Máximo " + MAX_IMAGES_PER_PRODUCT + " imágenes por producto");
+        }
+
+        for (MultipartFile file : files) {
+            validateFile(file); // valida tamaño, tipo y contenido
+        }
+
+        if (executor.getQueue().remainingCapacity() < files.length) {
+            throw new TooManyRequestsException("Hay demasiadas imágenes en proceso, reintentá en unos segundos");
+        }
+
+        UploadJob job = new UploadJob(productId, files.length);
+        jobs.put(job.id, job);
+
+        List<CompletableFuture<IngestedImage>> tasks = new ArrayList<>();
+        for (MultipartFile file : files) {
+            String name = Optional.ofNullable(file.getOriginalFilename()).orElse("imagen");
+            String mimeType = file.getContentType();
+            Path staged = Files.createTempFile("farmacia-upload-", ".tmp");
+            file.transferTo(staged);
+
+            try {
+                tasks.add(CompletableFuture.supplyAsync(() -> process(job, staged, mimeType, name), executor));
+            } catch (RejectedExecutionException e) {
+                deleteQuietly(staged);
+                job.addError(name + ": cola de procesamiento llena");
+            }
+        }
+
+        job.completion = CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new))
+            .thenRun(() -> finish(job, tasks));
+
+        log.info("📥 Subida {} encolada: {} imágenes para el producto {}", job.id, files.length, productId);
+        return job;
+    }
+
+    private IngestedImage process(UploadJob job, Path staged, String mimeType, String name) {
+        job.status = JobStatus.PROCESSING;
+        Map<String, Instant> written = new HashMap<>();
+        try {
+            String sha256 = sha256(staged);
+            int[] size = readDimensions(staged);
+
+            Instant at;
+            try (InputStream in = Files.newInputStream(staged)) {
+                at = blobStore.put(sha256, in); // si otro producto ya tiene la misma imagen, se reutiliza el archivo
+            }
+            if (at != null) {
+                written.put(sha256, at);
+            }
+            written.putAll(variants.generate(sha256, mimeType, size[0])); // thumbnails una sola vez
+
+            return new IngestedImage(sha256, mimeType, size[0], size[1], Files.size(staged), written);
+        } catch (Exception e) {
+            log.warn("⚠️ Subida {}: no se pudo procesar {}: {}", job.id, name, e.getMessage());
+            job.addError(name + ": " + e.getMessage());
+            discard(written);
+            return null;
+        } finally {
+            deleteQuietly(staged);
+        }
+    }
+
+    private void finish(UploadJob job, List<CompletableFuture<IngestedImage>> tasks) {
+        List<IngestedImage> ingested = tasks.stream().map(CompletableFuture::join).filter(Objects::nonNull).toList();
+        if (!job.errors.isEmpty()) {
+            ingested.forEach(image -> discard(image.written()));
+            job.finish(JobStatus.FAILED, List.of());
+            return;
+        }
+
+        try {
+            List<ProductImageMetadataDTO> saved = transactionTemplate.execute(tx -> register(job.productId, ingested));
+            job.finish(JobStatus.COMPLETED, saved);
+            log.info("✅ Subida {} completada: {} imágenes nuevas", job.id, saved.size());
+        } catch (Exception e) {
+            log.error("❌ Subida {} falló al registrar las imágenes: {}", job.id, e.getMessage());
+            ingested.forEach(image -> discard(image.written()));
+            job.addError(e.getMessage());
+            job.finish(JobStatus.FAILED, List.of());
+        }
+    }
+
+    private List<ProductImageMetadataDTO> register(Long productId, List<IngestedImage> ingested) {
+        // Volver a verificar el límite: puede haber habido otra subida en paralelo
+        long currentCount = productImageRepository.countByProductId(productId);
+        if (currentCount + ingested.size() > MAX_IMAGES_PER_PRODUCT) {
+            throw new RuntimeException("Máximo " + MAX_IMAGES_PER_PRODUCT + " imágenes por producto");
+        }
+
+        List<ProductImageMetadataDTO> results = new ArrayList<>();
+        boolean isFirstImage = currentCount == 0; // la primera imagen será la primary
+
+        for (IngestedImage image : ingested) {
+            // Deduplicar: si ya existe esta imagen (mismo hash), skip
+            if (productImageRepository.findByProductIdAndSha256(productId, image.sha256()).isPresent()) {
+                log.info("Imagen duplicada detectada para producto {}, sha256: {}", productId, image.sha256());
+                continue;
+            }
+
+            ProductImage productImage = new ProductImage();
+            productImage.setProductId(productId);
+            productImage.setMimeType(image.mimeType());
+            productImage.setWidth(image.width());
+            productImage.setHeight(image.height());
+            productImage.setSizeBytes(image.sizeBytes());
+            productImage.setSha256(image.sha256());
+            productImage.setIsPrimary(isFirstImage && results.isEmpty()); // auto-primary si es la primera
+
+            results.add(ProductImageMetadataDTO.from(productImageRepository.save(productImage)));
+        }
+        return results;
+    }
+
+    // ================= Helpers =================
+
+    /**
+     * Deshace las escrituras de un trabajo que falló. Solo borra si nadie reutilizó el blob después
+     * (deleteIfIdle compara con la marca de la escritura), así una subida paralela de la misma imagen
+     * que deduplicó contra él lo conserva; lo que quede lo recoge ImageBlobCollector.
+     */
+    private void discard(Map<String, Instant> written) {
+        written.forEach((key, at) -> {
+            try {
+                blobStore.deleteIfIdle(key, at.plusNanos(1));
+            } catch (IOException e) {
+                log.warn("⚠️ No se pudo borrar el blob {} de una subida fallida: {}", key, e.getMessage());
+            }
+        });
+    }
+
+    private String sha256(Path file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+                in.transferTo(OutputStream.nullOutputStream()); // solo interesa el digest
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Error calculando SHA-256", e);
+        }
+    }
+
+    // Ancho y alto leídos del header de la imagen, sin decodificar los píxeles
+    private int[] readDimensions(Path file) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                throw new IOException("No se pudo leer la imagen");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                return new int[] { reader.getWidth(0), reader.getHeight(0) };
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private void purgeExpiredJobs() {
+        Instant limit = Instant.now().minus(jobTtl);
+        jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt.isBefore(limit));
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("⚠️ No se pudo borrar el archivo temporal {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static final class UploadJob {
+        final String id = UUID.randomUUID().toString();
+        final Long productId;
+        final int totalFiles;
+        final Instant createdAt = Instant.now();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        volatile JobStatus status = JobStatus.PENDING;
+        volatile List<ProductImageMetadataDTO> images = List.of();
+        volatile Instant finishedAt;
+        volatile CompletableFuture<Void> completion;
+
+        UploadJob(Long productId, int totalFiles) {
+            this.productId = productId;
+            this.totalFiles = totalFiles;
+        }
+
+        void addError(String error) {
+            errors.add(error);
+        }
+
+        void finish(JobStatus finalStatus, List<ProductImageMetadataDTO> saved) {
+            images = List.copyOf(saved);
+            finishedAt = Instant.now();
+            status = finalStatus;
+        }
+
+        ImageUploadJobDTO toDTO() {
+            return new ImageUploadJobDTO(id, productId, status.name(), totalFiles, images,
+                List.copyOf(errors), createdAt, finishedAt);
+        }
+    }
+}
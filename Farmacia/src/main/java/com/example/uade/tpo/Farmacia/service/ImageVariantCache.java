@@ -0,0 +1,86 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache LRU en memoria de las variantes (thumbnails) ya renderizadas, limitada por bytes y no por cantidad.
+ * Las variantes son chicas y las piden todas las grillas del catálogo, así que conviene
+ * tenerlas en heap; los originales se siguen sirviendo en streaming desde el store.
+ * Las claves son "{sha256}-w{ancho}": el contenido nunca cambia, así que no hace falta invalidar.
+ * Métricas: farmacia.images.cache.{hits,misses,evictions} y farmacia.images.cache.bytes / .entries.
+ */
+@Component
+public class ImageVariantCache {
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true); // orden de acceso
+    private long currentBytes = 0;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public ImageVariantCache(MeterRegistry registry,
+                             @Value("${farmacia.images.cache-max-bytes:33554432}") long maxBytes) {
+        this.maxBytes = maxBytes;
+        // Una sola variante no puede ocupar más de 1/8 del cache, para no vaciarlo de golpe
+        this.maxEntryBytes = maxBytes / 8;
+
+        this.hits = registry.counter("farmacia.images.cache.hits");
+        this.misses = registry.counter("farmacia.images.cache.misses");
+        this.evictions = registry.counter("farmacia.images.cache.evictions");
+        Gauge.builder("farmacia.images.cache.bytes", this, ImageVariantCache::currentBytes).register(registry);
+        Gauge.builder("farmacia.images.cache.entries", this, ImageVariantCache::size).register(registry);
+    }
+
+    public synchronized byte[] get(String key) {
+        byte[] bytes = entries.get(key);
+        if (bytes != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return bytes;
+    }
+
+    public boolean accepts(long size) {
+        return size <= maxEntryBytes;
+    }
+
+    public synchronized void put(String key, byte[] bytes) {
+        if (!accepts(bytes.length)) {
+            return;
+        }
+        byte[] previous = entries.put(key, bytes);
+        if (previous != null) {
+            currentBytes -= previous.length;
+        }
+        currentBytes += bytes.length;
+
+        // Desalojar los menos usados hasta volver a entrar en el límite
+        Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            currentBytes -= eldest.getValue().length;
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    public synchronized long currentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
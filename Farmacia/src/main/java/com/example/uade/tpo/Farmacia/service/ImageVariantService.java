@@ -0,0 +1,173 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versiones reducidas (thumbnails) de las imágenes de productos.
+ * Se generan una sola vez, al subir o reemplazar la imagen, para cada ancho de
+ * "farmacia.images.variant-widths", y se guardan en el ImageBlobStore junto al original
+ * con la clave "{sha256}-w{ancho}". Como el contenido es inmutable, nunca hay que regenerarlas.
+ * Las más pedidas quedan además en ImageVariantCache.
+ * Los formatos sin writer de ImageIO (p. ej. WebP en el JDK) no tienen variantes: se sirve el original.
+ */
+@Slf4j
+@Service
+public class ImageVariantService {
+
+    private final ImageBlobStore blobStore;
+    private final ImageVariantCache cache;
+    private final List<Integer> widths;
+
+    public ImageVariantService(ImageBlobStore blobStore, ImageVariantCache cache,
+                               @Value("${farmacia.images.variant-widths:320,800}") List<Integer> widths) {
+        this.blobStore = blobStore;
+        this.cache = cache;
+        this.widths = List.copyOf(widths);
+    }
+
+    public List<Integer> getWidths() {
+        return widths;
+    }
+
+    public boolean isVariantWidth(Integer width) {
+        return width != null && widths.contains(width);
+    }
+
+    public static String variantKey(String sha256, int width) {
+        return sha256 + "-w" + width;
+    }
+
+    /**
+     * Genera las variantes que falten; solo para anchos menores al original (no se agranda).
+     * Devuelve las claves escritas con su marca de uso (ver ImageBlobStore.put).
+     */
+    public Map<String, Instant> generate(String sha256, String mimeType, BufferedImage original) throws IOException {
+        Map<String, Instant> written = new HashMap<>();
+        if (!canWrite(mimeType)) {
+            return written;
+        }
+        for (Integer width : widths) {
+            String key = variantKey(sha256, width);
+            if (width < original.getWidth() && !blobStore.exists(key)) {
+                Instant at = blobStore.put(key, resize(original, width, mimeType));
+                if (at != null) {
+                    written.put(key, at);
+                }
+            }
+        }
+        return written;
+    }
+
+    // Igual que generate(BufferedImage), pero decodifica el original del store solo si falta alguna variante
+    public Map<String, Instant> generate(String sha256, String mimeType, int originalWidth) throws IOException {
+        if (!canWrite(mimeType)) {
+            return Map.of();
+        }
+        boolean missing = widths.stream()
+            .anyMatch(w -> w < originalWidth && !blobStore.exists(variantKey(sha256, w)));
+        if (!missing) {
+            return Map.of();
+        }
+        BufferedImage original = readOriginal(sha256);
+        return original != null ? generate(sha256, mimeType, original) : Map.of();
+    }
+
+    /**
+     * Variante de un ancho dado. Si todavía no existe (imagen previa al backfill),
+     * se genera a partir del original y queda guardada para los próximos requests.
+     */
+    public Resource get(String sha256, String mimeType, int width) throws IOException {
+        String key = variantKey(sha256, width);
+        byte[] cached = cache.get(key);
+        if (cached != null) {
+            return new ByteArrayResource(cached);
+        }
+
+        if (!canWrite(mimeType)) {
+            return blobStore.get(sha256);
+        }
+
+        if (!blobStore.exists(key)) {
+            log.debug("Variante {} no encontrada, generando", key);
+            BufferedImage original = readOriginal(sha256);
+            if (original == null || width >= original.getWidth()) {
+                return blobStore.get(sha256);
+            }
+            byte[] bytes = resize(original, width, mimeType);
+            blobStore.put(key, bytes);
+            cache.put(key, bytes);
+            return new ByteArrayResource(bytes);
+        }
+
+        Resource stored = blobStore.get(key);
+        if (!cache.accepts(stored.contentLength())) {
+            return stored; // demasiado grande para el cache: streaming como el original
+        }
+        byte[] bytes = stored.getContentAsByteArray();
+        cache.put(key, bytes);
+        return new ByteArrayResource(bytes);
+    }
+
+    // Clave del original a partir de la de una variante ("{sha256}-w320" -> "{sha256}")
+    public static String originalKey(String key) {
+        int suffix = key.indexOf("-w");
+        return suffix < 0 ? key : key.substring(0, suffix);
+    }
+
+    public BufferedImage readOriginal(String sha256) throws IOException {
+        try (InputStream in = blobStore.get(sha256).getInputStream()) {
+            return ImageIO.read(in);
+        }
+    }
+
+    // Hay un writer de ImageIO para el formato (el JDK no trae uno para WebP)
+    public static boolean canWrite(String mimeType) {
+        return mimeType != null && mimeType.startsWith("image/")
+            && ImageIO.getImageWritersByFormatName(format(mimeType)).hasNext();
+    }
+
+    private byte[] resize(BufferedImage original, int targetWidth, String mimeType) throws IOException {
+        // Calcular nuevo alto manteniendo aspect ratio
+        int newWidth = targetWidth;
+        int newHeight = (int) ((double) targetWidth / original.getWidth() * original.getHeight());
+        String format = format(mimeType);
+
+        // Resize con interpolación bilinear para calidad; se conserva la transparencia salvo en JPEG (no la soporta)
+        boolean alpha = original.getColorModel().hasAlpha() && !format.equals("jpeg");
+        BufferedImage resized = new BufferedImage(newWidth, newHeight,
+            alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = resized.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(original, 0, 0, newWidth, newHeight, null);
+        g.dispose();
+
+        // Convertir de vuelta a bytes en el formato original
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (!ImageIO.write(resized, format, baos) || baos.size() == 0) {
+            // Nunca guardar una variante vacía: quedaría servida para siempre
+            throw new IOException("No se pudo codificar la variante en " + mimeType);
+        }
+
+        return baos.toByteArray();
+    }
+
+    private static String format(String mimeType) {
+        String format = mimeType.substring(6); // "image/jpeg" -> "jpeg"
+        return format.equals("jpg") ? "jpeg" : format;
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.controllers.dto.OrderEventDTO;
+import com.example.uade.tpo.Farmacia.entity.Order;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+/**
+ * Bus de eventos de órdenes en memoria, expuesto como Server-Sent Events.
+ * - Los eventos se publican después del commit (un rollback no genera eventos).
+ * - Los últimos "farmacia.orders.events.buffer-size" eventos quedan en un ring buffer:
+ *   un cliente que se reconecta con Last-Event-ID recibe lo que se perdió. Si ese id ya
+ *   salió del buffer (o es de otra instancia) recibe un evento "reset" y debe recargar por REST.
+ * - Farmacéuticos y admins reciben todas las órdenes; un USER solo las suyas.
+ * - Cada cliente tiene una cola acotada que vacían los threads de envío. Si un cliente lento
+ *   la llena se lo desconecta, y al reconectarse se pone al día desde el buffer.
+ * Métricas: farmacia.orders.events.{published,dropped} y farmacia.orders.events.subscribers.
+ */
+@Slf4j
+@Component
+public class OrderEventBus {
+
+  public static final String ORDER_CREATED = "ORDER_CREATED";
+  public static final String ORDER_STATUS_CHANGED = "ORDER_STATUS_CHANGED";
+  public static final String PAYMENT_CONFIRMED = "PAYMENT_CONFIRMED";
+
+  private static final long HEARTBEAT_SECONDS = 20;
+
+  private static final class Subscriber {
+    final SseEmitter emitter;
+    final Long userId;
+    final boolean staff;
+    final BlockingQueue<OrderEventDTO> queue;
+    final AtomicBoolean draining = new AtomicBoolean();
+
+    Subscriber(SseEmitter emitter, Long userId, boolean staff, int capacity) {
+      this.emitter = emitter;
+      this.userId = userId;
+      this.staff = staff;
+      this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    boolean sees(OrderEventDTO event) {
+      return staff || (userId != null && userId.equals(event.userId()));
+    }
+  }
+
+  private final int bufferSize;
+  private final int clientQueueCapacity;
+  private final long timeoutMillis;
+
+  // Guardado por "this": buffer, lastId y el alta de suscriptores
+  private final ArrayDeque<OrderEventDTO> buffer;
+  // Arranca en el reloj para que los ids sigan creciendo después de un reinicio
+  private long lastId = System.currentTimeMillis();
+
+  private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+  private final ScheduledExecutorService dispatcher;
+
+  private final Counter published;
+  private final Counter dropped;
+
+  public OrderEventBus(MeterRegistry registry,
+                       @Value("${farmacia.orders.events.buffer-size:1000}") int bufferSize,
+                       @Value("${farmacia.orders.events.client-queue-capacity:256}") int clientQueueCapacity,
+                       @Value("${farmacia.orders.events.dispatch-threads:2}") int dispatchThreads,
+                       @Value("${farmacia.orders.events.timeout-minutes:30}") long timeoutMinutes) {
+    this.bufferSize = bufferSize;
+    this.clientQueueCapacity = clientQueueCapacity;
+    this.timeoutMillis = TimeUnit.MINUTES.toMillis(timeoutMinutes);
+    this.buffer = new ArrayDeque<>(bufferSize);
+
+    AtomicInteger counter = new AtomicInteger();
+    this.dispatcher = Executors.newScheduledThreadPool(dispatchThreads, runnable -> {
+      Thread thread = new Thread(runnable, "order-events-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.dispatcher.scheduleAtFixedRate(this::heartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+
+    this.published = registry.counter("farmacia.orders.events.published");
+    this.dropped = registry.counter("farmacia.orders.events.dropped");
+    Gauge.builder("farmacia.orders.events.subscribers", subscribers, List::size).register(registry);
+  }
+
+  // Toma los datos de la orden ahora y los publica cuando la transacción confirma
+  public void publish(String type, Order order) {
+    publish(type, order.getId(),
+        order.getUser() != null ? order.getUser().getId() : null,
+        order.getStatus() != null ? order.getStatus().name() : null,
+        order.getPaymentStatus() != null ? order.getPaymentStatus().name() : null,
+        order.getDeliveryMethod(),
+        order.getTotal());
+  }
+
+  // Variante sin entidad, para los cambios hechos con UPDATE directo
+  public void publish(String type, Long orderId, Long userId, String status, String paymentStatus,
+                      String deliveryMethod, BigDecimal total) {
+    Instant at = Instant.now();
+    afterCommit(() -> append(id -> new OrderEventDTO(
+        id, type, orderId, userId, status, paymentStatus, deliveryMethod, total, at)));
+  }
+
+  /**
+   * Abre un stream para el usuario. lastEventId (header Last-Event-ID) reanuda desde el buffer.
+   */
+  public SseEmitter subscribe(Long userId, boolean staff, Long lastEventId) {
+    SseEmitter emitter = newEmitter(timeoutMillis);
+    Subscriber subscriber = new Subscriber(emitter, userId, staff, clientQueueCapacity);
+    emitter.onCompletion(() -> subscribers.remove(subscriber));
+    emitter.onTimeout(() -> disconnect(subscriber));
+    emitter.onError(ex -> subscribers.remove(subscriber));
+
+    try {
+      // Bajo el mismo lock que append: ningún evento queda entre la reanudación y el alta
+      synchronized (this) {
+        if (lastEventId != null) {
+          if (isGap(lastEventId)) {
+            emitter.send(SseEmitter.event().id(String.valueOf(lastId)).name("reset").data(Map.of("lastEventId", lastId)));
+          } else {
+            for (OrderEventDTO event : buffer) {
+              if (event.id() > lastEventId && subscriber.sees(event)) {
+                emitter.send(toSse(event));
+              }
+            }
+          }
+        }
+        subscribers.add(subscriber);
+      }
+    } catch (IOException e) {
+      emitter.completeWithError(e);
+    }
+
+    log.debug("📡 Nuevo suscriptor de órdenes - userId: {}, staff: {}, lastEventId: {}", userId, staff, lastEventId);
+    return emitter;
+  }
+
+  // ================= Helpers =================
+
+  // Los tests lo reemplazan por un emitter que guarda lo enviado, sin servlet container
+  SseEmitter newEmitter(long timeoutMillis) {
+    return new SseEmitter(timeoutMillis);
+  }
+
+  private void append(LongFunction<OrderEventDTO> factory) {
+    List<Subscriber> overflowed = new ArrayList<>();
+    synchronized (this) {
+      OrderEventDTO event = factory.apply(++lastId);
+      if (buffer.size() == bufferSize) {
+        buffer.removeFirst();
+      }
+      buffer.addLast(event);
+      published.increment();
+
+      for (Subscriber subscriber : subscribers) {
+        if (!subscriber.sees(event)) {
+          continue;
+        }
+        if (subscriber.queue.offer(event)) {
+          scheduleDrain(subscriber);
+        } else {
+          overflowed.add(subscriber);
+        }
+      }
+    }
+    // Cliente demasiado lento: se lo desconecta; al reconectar recupera lo perdido desde el buffer
+    overflowed.forEach(subscriber -> {
+      dropped.increment();
+      log.warn("⚠️ Suscriptor de órdenes desconectado por no consumir eventos (userId: {})", subscriber.userId);
+      disconnect(subscriber);
+    });
+  }
+
+  private boolean isGap(long lastEventId) {
+    if (lastEventId > lastId) {
+      return true; // id de otra instancia o de antes de un reinicio
+    }
+    OrderEventDTO oldest = buffer.peekFirst();
+    return lastEventId < lastId && (oldest == null || lastEventId < oldest.id() - 1);
+  }
+
+  private void scheduleDrain(Subscriber subscriber) {
+    if (subscriber.draining.compareAndSet(false, true)) {
+      dispatcher.execute(() -> drain(subscriber));
+    }
+  }
+
+  private void drain(Subscriber subscriber) {
+    try {
+      OrderEventDTO event;
+      while ((event = subscriber.queue.poll()) != null) {
+        subscriber.emitter.send(toSse(event));
+      }
+    } catch (IOException | IllegalStateException e) {
+      subscribers.remove(subscriber);
+      return;
+    } finally {
+      subscriber.draining.set(false);
+    }
+    // Pudo llegar un evento entre el último poll y liberar el flag
+    if (!subscriber.queue.isEmpty()) {
+      scheduleDrain(subscriber);
+    }
+  }
+
+  // Comentario SSE periódico: mantiene viva la conexión en proxies y detecta clientes caídos
+  private void heartbeat() {
+    for (Subscriber subscriber : subscribers) {
+      try {
+        subscriber.emitter.send(SseEmitter.event().comment("ping"));
+      } catch (IOException | IllegalStateException e) {
+        subscribers.remove(subscriber);
+      }
+    }
+  }
+
+  private void disconnect(Subscriber subscriber) {
+    subscribers.remove(subscriber);
+    subscriber.emitter.complete();
+  }
+
+  private static SseEmitter.SseEventBuilder toSse(OrderEventDTO event) {
+    return SseEmitter.event().id(String.valueOf(event.id())).name(event.type()).data(event);
+  }
+
+  // Si hay una transacción activa, esperar al commit para no publicar cambios que hagan rollback
+  private void afterCommit(Runnable action) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          action.run();
+        }
+      });
+    } else {
+      action.run();
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    dispatcher.shutdownNow();
+    subscribers.forEach(subscriber -> subscriber.emitter.complete());
+  }
+}
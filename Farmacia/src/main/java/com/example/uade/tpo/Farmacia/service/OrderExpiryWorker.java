@@ -0,0 +1,138 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.entity.Order;
+import com.example.uade.tpo.Farmacia.repository.OrderRepository;
+import com.example.uade.tpo.Farmacia.repository.OrderStateRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cancela las órdenes que quedaron PENDING sin pago más allá del TTL y devuelve su stock.
+ * Trabaja de a lotes de "chunk-size" órdenes, cada uno en su propia transacción corta:
+ * un backlog grande no bloquea filas de products durante toda la corrida y, si un lote falla,
+ * los anteriores ya quedaron confirmados. Antes del UPDATE se bloquean las filas del lote y se vuelve
+ * a mirar el estado, así que una orden pagada entre la búsqueda y la cancelación no se toca
+ * (PaymentServiceImpl bloquea la misma fila al confirmar el pago).
+ * Por defecto solo vencen las órdenes con tarjeta: el efectivo se cobra al retirar en el mostrador.
+ * Métricas: farmacia.orders.expiry.expired, farmacia.orders.expiry.stock-released (unidades) y
+ * farmacia.orders.expiry.run (timer por corrida).
+ */
+@Slf4j
+@Component
+public class OrderExpiryWorker {
+
+  private final OrderRepository orders;
+  private final StockReservationService stockReservations;
+  private final OrderEventBus events;
+  private final TransactionTemplate tx;
+
+  private final boolean enabled;
+  private final Duration ttl;
+  private final int chunkSize;
+  private final List<String> paymentMethods;
+
+  private final Counter expired;
+  private final Counter stockReleased;
+  private final Timer runTimer;
+
+  public OrderExpiryWorker(OrderRepository orders, StockReservationService stockReservations,
+                           OrderEventBus events, PlatformTransactionManager transactionManager,
+                           MeterRegistry registry,
+                           @Value("${farmacia.orders.expiry.enabled:true}") boolean enabled,
+                           @Value("${farmacia.orders.expiry.ttl-minutes:30}") long ttlMinutes,
+                           @Value("${farmacia.orders.expiry.chunk-size:200}") int chunkSize,
+                           @Value("${farmacia.orders.expiry.payment-methods:CARD}") List<String> paymentMethods) {
+    this.orders = orders;
+    this.stockReservations = stockReservations;
+    this.events = events;
+    this.tx = new TransactionTemplate(transactionManager);
+    this.enabled = enabled;
+    this.ttl = Duration.ofMinutes(ttlMinutes);
+    this.chunkSize = chunkSize;
+    this.paymentMethods = List.copyOf(paymentMethods);
+    this.expired = registry.counter("farmacia.orders.expiry.expired");
+    this.stockReleased = registry.counter("farmacia.orders.expiry.stock-released");
+    this.runTimer = registry.timer("farmacia.orders.expiry.run");
+  }
+
+  @Scheduled(fixedDelayString = "${farmacia.orders.expiry.interval-ms:60000}",
+             initialDelayString = "${farmacia.orders.expiry.interval-ms:60000}")
+  public void run() {
+    if (!enabled) {
+      return;
+    }
+    runTimer.record(this::expireAll);
+  }
+
+  // Lotes sucesivos hasta que uno venga incompleto; el corte se fija al inicio para no perseguir órdenes nuevas
+  int expireAll() {
+    Instant cutoff = Instant.now().minus(ttl);
+    int total = 0;
+    int units = 0;
+    while (true) {
+      ChunkResult chunk = tx.execute(status -> expireChunk(cutoff));
+      if (chunk == null || chunk.found() == 0) {
+        break;
+      }
+      total += chunk.expired();
+      units += chunk.units();
+      if (chunk.found() < chunkSize || chunk.expired() == 0) {
+        break;
+      }
+    }
+    if (total > 0) {
+      log.info("⏰ {} órdenes impagas vencidas - {} unidades devueltas al stock", total, units);
+    }
+    return total;
+  }
+
+  private record ChunkResult(int found, int expired, int units) {}
+
+  private ChunkResult expireChunk(Instant cutoff) {
+    List<Long> ids = orders.findExpiredIds(cutoff, paymentMethods, Limit.of(chunkSize));
+    if (ids.isEmpty()) {
+      return new ChunkResult(0, 0, 0);
+    }
+
+    // Bloqueo antes del UPDATE: las que siguen impagas con la fila tomada son exactamente las que se cancelan
+    List<OrderStateRow> rows = orders.lockStateRows(ids).stream()
+        .filter(row -> row.status() == Order.Status.PENDING && row.paymentStatus() == Order.PaymentStatus.PENDING)
+        .toList();
+    if (rows.isEmpty()) {
+      return new ChunkResult(ids.size(), 0, 0);
+    }
+    Set<Long> applied = new HashSet<>();
+    rows.forEach(row -> applied.add(row.id()));
+    int updated = orders.expire(applied);
+    if (updated != applied.size()) {
+      throw new IllegalStateException("Se esperaban " + applied.size() + " órdenes vencidas y fueron " + updated);
+    }
+
+    int units = stockReservations.releaseOrders(applied);
+    for (OrderStateRow row : rows) {
+      if (applied.contains(row.id())) {
+        events.publish(OrderEventBus.ORDER_STATUS_CHANGED, row.id(), row.userId(), Order.Status.CANCELLED.name(),
+            row.paymentStatus() != null ? row.paymentStatus().name() : null, row.deliveryMethod(), row.total());
+      }
+    }
+
+    expired.increment(applied.size());
+    stockReleased.increment(units);
+    log.debug("⏰ Lote de vencimiento: {} encontradas, {} canceladas", ids.size(), applied.size());
+    return new ChunkResult(ids.size(), applied.size(), units);
+  }
+}
@@ -0,0 +1,20 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.entity.Order;
+
+import java.time.Instant;
+
+/**
+ * Filtros de la consola de órdenes; los campos en null no se aplican.
+ * El rango de fechas es [from, to).
+ */
+public record OrderFilter(
+    Order.Status status,
+    Order.PaymentStatus paymentStatus,
+    String deliveryMethod,
+    Long userId,
+    Instant from,
+    Instant to
+) {
+  public static final OrderFilter NONE = new OrderFilter(null, null, null, null, null, null);
+}
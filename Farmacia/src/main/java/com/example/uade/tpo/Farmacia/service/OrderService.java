@@ -1,8 +1,10 @@
 package com.example.uade.tpo.Farmacia.service;
 
+import com.example.uade.tpo.Farmacia.controllers.dto.BulkStatusUpdateResponse;
 import com.example.uade.tpo.Farmacia.controllers.dto.CreateOrderRequest;
 import com.example.uade.tpo.Farmacia.controllers.dto.CreateOrderResponse;
 import com.example.uade.tpo.Farmacia.controllers.dto.OrderDTO;
+import com.example.uade.tpo.Farmacia.controllers.dto.OrderPageDTO;
 import com.example.uade.tpo.Farmacia.controllers.dto.OrderSummaryDTO;
 import com.example.uade.tpo.Farmacia.entity.Order;
 
@@ -19,6 +21,9 @@ public interface OrderService {
   // Procesar orden - ahora retorna OrderSummaryDTO actualizado
   OrderSummaryDTO processOrderSummary(Long id, Order.Status newStatus);
   
+  // Cambio de estado masivo (Farmacéutico/Admin): resultado por orden, sin cortar en la primera que falle
+  BulkStatusUpdateResponse bulkUpdateStatus(List<Long> orderIds, Order.Status newStatus);
+  
   // 🔴 Nuevo método para farmacéuticos: marcar pickup completado
   OrderSummaryDTO markPickupComplete(Long orderId);
   
@@ -28,5 +33,8 @@ public interface OrderService {
   OrderDTO setStatusDTO(Long id, Order.Status status);
   OrderDTO processOrder(Long id, Order.Status newStatus);
   List<OrderDTO> byUserIdDTO(Long userId);
-  List<OrderDTO> getAllOrdersDTO();
+  
+  // Consola de órdenes (admin/farmacéutico): página keyset filtrada, más recientes primero.
+  // El listado completo (GET /all sin limit) recorre estas páginas y las escribe en streaming
+  OrderPageDTO pageAllOrdersDTO(OrderFilter filter, String cursor, int limit, boolean withTotal);
 }
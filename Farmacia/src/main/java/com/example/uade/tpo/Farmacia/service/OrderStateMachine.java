@@ -0,0 +1,72 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.entity.Order;
+import com.example.uade.tpo.Farmacia.exception.BadRequestException;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transiciones permitidas de los estados de una orden, declaradas como tablas.
+ * sourcesOf(destino) da los estados desde los que se puede llegar a ese destino, y es lo que
+ * usan los UPDATE condicionales ("... WHERE status IN (:sources)") para aplicar la transición
+ * sin leer y guardar la entidad: si otra request cambió el estado antes, el UPDATE no toca la fila.
+ */
+public final class OrderStateMachine {
+
+  public static final class Table<E extends Enum<E>> {
+    private final Class<E> type;
+    private final Map<E, Set<E>> next;
+
+    private Table(Class<E> type) {
+      this.type = type;
+      this.next = new EnumMap<>(type);
+    }
+
+    @SafeVarargs
+    private Table<E> allow(E from, E... targets) {
+      next.computeIfAbsent(from, k -> EnumSet.noneOf(type)).addAll(Set.of(targets));
+      return this;
+    }
+
+    public boolean allows(E from, E to) {
+      return from != null && next.getOrDefault(from, Collections.emptySet()).contains(to);
+    }
+
+    public Set<E> sourcesOf(E to) {
+      Set<E> sources = EnumSet.noneOf(type);
+      next.forEach((from, targets) -> {
+        if (targets.contains(to)) {
+          sources.add(from);
+        }
+      });
+      return sources;
+    }
+
+    public void check(E from, E to) {
+      if (!allows(from, to)) {
+        throw new BadRequestException("Transición no permitida de " + from + " a " + to);
+      }
+    }
+  }
+
+  // COMPLETED y CANCELLED son finales
+  public static final Table<Order.Status> STATUS = new Table<>(Order.Status.class)
+      .allow(Order.Status.PENDING, Order.Status.PROCESSING, Order.Status.CONFIRMED, Order.Status.CANCELLED)
+      .allow(Order.Status.CONFIRMED, Order.Status.PROCESSING, Order.Status.COMPLETED, Order.Status.CANCELLED)
+      .allow(Order.Status.PROCESSING, Order.Status.COMPLETED, Order.Status.CANCELLED);
+
+  // Retiro en farmacia (markPickupComplete): cualquier orden abierta pasa directo a COMPLETED
+  public static final Set<Order.Status> PICKUP_SOURCES =
+      Collections.unmodifiableSet(EnumSet.of(Order.Status.PENDING, Order.Status.CONFIRMED, Order.Status.PROCESSING));
+
+  public static final Table<Order.PaymentStatus> PAYMENT = new Table<>(Order.PaymentStatus.class)
+      .allow(Order.PaymentStatus.PENDING, Order.PaymentStatus.PAID, Order.PaymentStatus.FAILED)
+      .allow(Order.PaymentStatus.FAILED, Order.PaymentStatus.PAID, Order.PaymentStatus.PENDING)
+      .allow(Order.PaymentStatus.PAID, Order.PaymentStatus.REFUNDED);
+
+  private OrderStateMachine() {}
+}
@@ -0,0 +1,36 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.exception.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Cursor opaco para paginación keyset: las claves de la última fila de una página
+ * (p. ej. sort, precio, id) codificadas en Base64 URL-safe.
+ */
+public final class PageCursor {
+
+  private static final String SEPARATOR = "\u001F";
+
+  private PageCursor() {}
+
+  public static String encode(String... parts) {
+    String raw = String.join(SEPARATOR, parts);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // Devuelve exactamente "expectedParts" claves o lanza 400 si el cursor no es válido
+  public static String[] decode(String token, int expectedParts) {
+    try {
+      String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+      String[] parts = raw.split(SEPARATOR, -1);
+      if (parts.length != expectedParts) {
+        throw new BadRequestException("Cursor inválido");
+      }
+      return parts;
+    } catch (IllegalArgumentException ex) {
+      throw new BadRequestException("Cursor inválido");
+    }
+  }
+}
@@ -9,4 +9,5 @@ public interface PaymentService {
     PaymentIntentResponse createTemporaryPaymentIntent(CreatePaymentIntentRequest request, Long userId);
     boolean verifyPayment(String paymentId);
     Order confirmPayment(Long orderId, String paymentId, String paymentProvider);
+    void refundPayment(String paymentId);
 }
@@ -0,0 +1,283 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.controllers.dto.ProductDTO;
+import com.example.uade.tpo.Farmacia.entity.Product;
+import com.example.uade.tpo.Farmacia.repository.ProductRepository;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Índice en memoria del catálogo para servir GET /api/v1/products sin ir a MySQL.
+ * Guarda los ProductDTO ya armados, indexados por ID y por categoría; el texto de
+ * nombre y descripción se indexa en ProductSearchIndex para el filtro "q" y /search.
+ * Se construye al arrancar y se mantiene al día desde ProductService, CategoryService
+ * y las reservas de stock; los cambios se aplican recién cuando la transacción hace commit.
+ *
+ * Nunca se suman deltas: cada producto modificado se vuelve a leer de la DB (valor absoluto) en un único
+ * thread que también hace las reconstrucciones completas, así una recarga y un refresco no se pisan ni
+ * cuentan dos veces el mismo cambio. La reconstrucción se repite cada "refresh-interval-ms" para tomar
+ * los cambios hechos por otros nodos.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ProductCatalogIndex {
+
+  private final ProductRepository repo;
+  private final ProductSearchIndex searchIndex;
+
+  private final ConcurrentSkipListMap<Long, ProductDTO> entries = new ConcurrentSkipListMap<>();
+  private final Map<Long, NavigableSet<Long>> byCategory = new ConcurrentHashMap<>();
+  private volatile boolean ready = false;
+
+  // Productos a releer de la DB; los procesa el thread "catalog-refresh" de a lotes
+  private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+  private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "catalog-refresh");
+    t.setDaemon(true);
+    return t;
+  });
+
+  // Construye el índice completo en el thread de refresco y espera a que termine
+  @EventListener(ApplicationReadyEvent.class)
+  @Scheduled(fixedDelayString = "${farmacia.catalog.refresh-interval-ms:300000}",
+             initialDelayString = "${farmacia.catalog.refresh-interval-ms:300000}")
+  public void rebuild() {
+    try {
+      refresher.submit(this::load).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.error("❌ Error construyendo el índice de catálogo: {}", e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    refresher.shutdownNow();
+  }
+
+  private void load() {
+    long start = System.currentTimeMillis();
+    // La lectura va fuera del lock: lo que haga commit durante la lectura queda en "pending"
+    // y se relee después de esta carga, en el mismo thread
+    List<Product> all = repo.findAll();
+
+    synchronized (this) {
+      entries.clear();
+      byCategory.clear();
+      searchIndex.clear();
+      all.forEach(p -> {
+        ProductDTO dto = ProductDTO.from(p);
+        put(dto);
+        searchIndex.index(dto.id(), dto.name(), dto.description());
+      });
+      ready = true;
+    }
+
+    log.info("🗂️ Índice de catálogo construido: {} productos en {} ms",
+             all.size(), System.currentTimeMillis() - start);
+  }
+
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Misma semántica que ProductService.list: la categoría tiene prioridad sobre "q",
+   * y luego se aplican los filtros de stock y receta.
+   * Con "q" los resultados vienen ordenados por relevancia.
+   */
+  public List<ProductDTO> list(Long categoryId, String q, Boolean inStock, Boolean rx) {
+    Stream<ProductDTO> base;
+    if (categoryId != null) {
+      base = byCategory.getOrDefault(categoryId, Collections.emptyNavigableSet()).stream()
+          .map(entries::get)
+          .filter(Objects::nonNull);
+    } else if (q != null && !q.isBlank()) {
+      base = ranked(q);
+    } else {
+      base = entries.values().stream();
+    }
+
+    return filter(base, inStock, rx).toList();
+  }
+
+  /**
+   * Búsqueda por texto combinable con todos los filtros (categoría, stock y receta),
+   * ordenada por relevancia y cortada en "limit" resultados.
+   */
+  public List<ProductDTO> search(String q, Long categoryId, Boolean inStock, Boolean rx, int limit) {
+    Stream<ProductDTO> base = ranked(q);
+    if (categoryId != null) {
+      base = base.filter(dto -> categoryId.equals(dto.categoryId()));
+    }
+    return filter(base, inStock, rx).limit(limit).toList();
+  }
+
+  // Producto por ID (null si el índice todavía no está listo o no lo tiene)
+  public ProductDTO get(Long productId) {
+    return ready ? entries.get(productId) : null;
+  }
+
+  // Alta o modificación de un producto: visible al instante y releído de la DB por si una carga lo pisa
+  public void upsert(Product product) {
+    ProductDTO dto = ProductDTO.from(product);
+    afterCommit(() -> {
+      synchronized (this) {
+        removeEntry(dto.id());
+        put(dto);
+        searchIndex.index(dto.id(), dto.name(), dto.description());
+      }
+      refresh(List.of(dto.id()));
+    });
+  }
+
+  public void remove(Long productId) {
+    afterCommit(() -> {
+      synchronized (this) {
+        removeEntry(productId);
+        searchIndex.remove(productId);
+      }
+      refresh(List.of(productId));
+    });
+  }
+
+  // Stock cambiado por UPDATE directo en la DB: se relee el valor actual (no se aplica la diferencia)
+  public void refreshStock(Collection<Long> productIds) {
+    List<Long> ids = List.copyOf(productIds);
+    afterCommit(() -> refresh(ids));
+  }
+
+  // Renombrar una categoría cambia el categoryName de todos sus productos
+  public void renameCategory(Long categoryId, String newName) {
+    afterCommit(() -> {
+      List<Long> ids;
+      synchronized (this) {
+        ids = List.copyOf(byCategory.getOrDefault(categoryId, Collections.emptyNavigableSet()));
+        ids.forEach(id -> entries.computeIfPresent(id, (k, dto) -> dto.withCategoryName(newName)));
+      }
+      refresh(ids);
+    });
+  }
+
+  // ================= Refresco desde la DB =================
+
+  private void refresh(Collection<Long> productIds) {
+    if (productIds.isEmpty()) {
+      return;
+    }
+    pending.addAll(productIds);
+    if (drainScheduled.compareAndSet(false, true)) {
+      refresher.execute(this::drain);
+    }
+  }
+
+  // Relee los productos pendientes en una sola consulta; los que ya no existen salen del índice
+  private void drain() {
+    drainScheduled.set(false);
+    List<Long> ids = new ArrayList<>(pending);
+    pending.removeAll(ids);
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    try {
+      Map<Long, Product> found = repo.findAllById(ids).stream()
+          .collect(Collectors.toMap(Product::getId, Function.identity()));
+      synchronized (this) {
+        for (Long id : ids) {
+          removeEntry(id);
+          Product product = found.get(id);
+          if (product == null) {
+            searchIndex.remove(id);
+            continue;
+          }
+          ProductDTO dto = ProductDTO.from(product);
+          put(dto);
+          searchIndex.index(dto.id(), dto.name(), dto.description());
+        }
+      }
+    } catch (RuntimeException e) {
+      // La próxima reconstrucción periódica deja el índice al día
+      log.warn("⚠️ No se pudo refrescar el índice de catálogo para {} productos: {}", ids.size(), e.getMessage());
+    }
+  }
+
+  // ================= Helpers =================
+
+  private Stream<ProductDTO> ranked(String q) {
+    return searchIndex.search(q).stream()
+        .map(entries::get)
+        .filter(Objects::nonNull);
+  }
+
+  private Stream<ProductDTO> filter(Stream<ProductDTO> base, Boolean inStock, Boolean rx) {
+    if (Boolean.TRUE.equals(inStock)) {
+      base = base.filter(dto -> dto.stock() != null && dto.stock() > 0);
+    }
+    if (rx != null) {
+      base = base.filter(dto -> rx.equals(dto.requiresPrescription()));
+    }
+    return base;
+  }
+
+  private void put(ProductDTO dto) {
+    entries.put(dto.id(), dto);
+    if (dto.categoryId() != null) {
+      byCategory.computeIfAbsent(dto.categoryId(), k -> new ConcurrentSkipListSet<>()).add(dto.id());
+    }
+  }
+
+  private void removeEntry(Long productId) {
+    ProductDTO previous = entries.remove(productId);
+    if (previous != null && previous.categoryId() != null) {
+      NavigableSet<Long> ids = byCategory.get(previous.categoryId());
+      if (ids != null) {
+        ids.remove(productId);
+      }
+    }
+  }
+
+  // Si hay una transacción activa, esperar al commit para no publicar cambios que hagan rollback
+  private void afterCommit(Runnable action) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          action.run();
+        }
+      });
+    } else {
+      action.run();
+    }
+  }
+}
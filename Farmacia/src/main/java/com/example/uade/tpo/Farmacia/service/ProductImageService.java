@@ -1,7 +1,10 @@
 package com.example.uade.tpo.Farmacia.service;
 
+import com.example.uade.tpo.Farmacia.controllers.dto.ImageUploadJobDTO;
 import com.example.uade.tpo.Farmacia.controllers.dto.ProductImageMetadataDTO;
 import com.example.uade.tpo.Farmacia.entity.ProductImage;
+import com.example.uade.tpo.Farmacia.repository.ProductImageRepository.ServingMetadata;
+import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -11,15 +14,24 @@ public interface ProductImageService {
     
     List<ProductImageMetadataDTO> uploadImages(Long productId, MultipartFile[] files) throws IOException;
     
+    ImageUploadJobDTO uploadImagesAsync(Long productId, MultipartFile[] files) throws IOException;
+    
+    ImageUploadJobDTO getUploadJob(Long productId, String jobId);
+    
     List<ProductImageMetadataDTO> getImageMetadata(Long productId);
     
     ProductImage getImageById(Long imageId);
     
+    ServingMetadata getServingMetadata(Long imageId);
+    
+    // Original si width es null o no es un ancho de variante configurado
+    Resource getImageContent(ServingMetadata image, Integer width) throws IOException;
+    
+    boolean isVariantWidth(Integer width);
+    
     void deleteImage(Long imageId);
     
     void setImageAsPrimary(Long imageId);
     
     ProductImageMetadataDTO replaceImage(Long imageId, MultipartFile file) throws IOException;
-    
-    byte[] getResizedImage(Long imageId, Integer width) throws IOException;
 }
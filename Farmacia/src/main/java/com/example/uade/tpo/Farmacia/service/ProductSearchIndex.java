@@ -0,0 +1,158 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Índice invertido en memoria para la búsqueda de productos por nombre y descripción.
+ * - Tokeniza en minúsculas y sin acentos ("Ácido" -> "acido"), descartando stopwords en español.
+ * - Cada término apunta a los productos que lo contienen con un peso: el nombre pesa más que la descripción.
+ * - Los términos están ordenados, así que "ibu" encuentra "ibuprofeno" con un rango del diccionario.
+ * - Todas las palabras de la consulta deben aparecer (AND); el score suma peso * idf
+ *   y las coincidencias exactas puntúan más que las de prefijo.
+ * Lo mantiene ProductCatalogIndex en cada alta, modificación o baja de producto.
+ */
+@Component
+public class ProductSearchIndex {
+
+  private static final int NAME_WEIGHT = 3;
+  private static final int DESCRIPTION_WEIGHT = 1;
+  private static final double PREFIX_FACTOR = 0.5;
+
+  private static final Set<String> STOPWORDS = Set.of(
+      "a", "al", "con", "de", "del", "el", "en", "la", "las", "lo", "los",
+      "o", "para", "por", "sin", "su", "un", "una", "y"
+  );
+
+  // término -> (productId -> peso)
+  private final ConcurrentSkipListMap<String, Map<Long, Integer>> postings = new ConcurrentSkipListMap<>();
+  // productId -> términos indexados (para poder borrar)
+  private final Map<Long, Set<String>> documentTerms = new ConcurrentHashMap<>();
+
+  public synchronized void index(Long productId, String name, String description) {
+    remove(productId);
+
+    Map<String, Integer> weights = new HashMap<>();
+    tokenize(name).forEach(t -> weights.merge(t, NAME_WEIGHT, Integer::sum));
+    tokenize(description).forEach(t -> weights.merge(t, DESCRIPTION_WEIGHT, Integer::sum));
+
+    weights.forEach((term, weight) ->
+        postings.computeIfAbsent(term, k -> new ConcurrentHashMap<>()).put(productId, weight));
+    documentTerms.put(productId, weights.keySet());
+  }
+
+  public synchronized void remove(Long productId) {
+    Set<String> terms = documentTerms.remove(productId);
+    if (terms == null) {
+      return;
+    }
+    for (String term : terms) {
+      Map<Long, Integer> docs = postings.get(term);
+      if (docs != null) {
+        docs.remove(productId);
+        if (docs.isEmpty()) {
+          postings.remove(term);
+        }
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    postings.clear();
+    documentTerms.clear();
+  }
+
+  /**
+   * Devuelve los IDs que contienen todas las palabras de la consulta (exactas o como prefijo),
+   * ordenados por relevancia descendente y luego por ID.
+   */
+  public List<Long> search(String query) {
+    List<String> queryTerms = tokenize(query);
+    if (queryTerms.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    int totalDocs = Math.max(documentTerms.size(), 1);
+    Map<Long, Double> scores = null;
+
+    for (String queryTerm : queryTerms) {
+      Map<Long, Double> termScores = new HashMap<>();
+      NavigableMap<String, Map<Long, Integer>> matches =
+          postings.subMap(queryTerm, true, queryTerm + Character.MAX_VALUE, false);
+
+      for (Map.Entry<String, Map<Long, Integer>> match : matches.entrySet()) {
+        Map<Long, Integer> docs = match.getValue();
+        double idf = Math.log(1.0 + (double) totalDocs / Math.max(docs.size(), 1));
+        double factor = match.getKey().equals(queryTerm) ? 1.0 : PREFIX_FACTOR;
+        // Si varios términos del producto coinciden con la misma palabra, nos quedamos con el mejor
+        docs.forEach((id, weight) -> termScores.merge(id, weight * idf * factor, Math::max));
+      }
+
+      if (scores == null) {
+        scores = termScores;
+      } else {
+        scores.keySet().retainAll(termScores.keySet());
+        for (Map.Entry<Long, Double> e : scores.entrySet()) {
+          e.setValue(e.getValue() + termScores.get(e.getKey()));
+        }
+      }
+      if (scores.isEmpty()) {
+        return Collections.emptyList();
+      }
+    }
+
+    List<Map.Entry<Long, Double>> ranked = new ArrayList<>(scores.entrySet());
+    ranked.sort(Map.Entry.<Long, Double>comparingByValue().reversed()
+        .thenComparing(Map.Entry.comparingByKey()));
+    return ranked.stream().map(Map.Entry::getKey).toList();
+  }
+
+  /**
+   * Misma regla de coincidencia que search() pero sin índice ni ranking:
+   * cada palabra de la consulta debe ser prefijo de alguna palabra del nombre o la descripción.
+   */
+  public static boolean matches(String query, String name, String description) {
+    List<String> queryTerms = tokenize(query);
+    if (queryTerms.isEmpty()) {
+      return false;
+    }
+    List<String> terms = new ArrayList<>(tokenize(name));
+    terms.addAll(tokenize(description));
+    return queryTerms.stream().allMatch(q -> terms.stream().anyMatch(t -> t.startsWith(q)));
+  }
+
+  // ================= Helpers =================
+
+  static List<String> tokenize(String text) {
+    if (text == null || text.isBlank()) {
+      return Collections.emptyList();
+    }
+    Set<String> seen = new HashSet<>();
+    return Arrays.stream(fold(text).split("[^\\p{Alnum}]+"))
+        .filter(t -> !t.isEmpty() && !STOPWORDS.contains(t))
+        .filter(seen::add)
+        .toList();
+  }
+
+  // Minúsculas y sin acentos, igual que la collation de MySQL
+  static String fold(String text) {
+    if (text == null) {
+      return "";
+    }
+    String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+    return decomposed.replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT);
+  }
+}
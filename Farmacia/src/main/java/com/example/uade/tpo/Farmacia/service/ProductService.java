@@ -1,8 +1,11 @@
 package com.example.uade.tpo.Farmacia.service;
 
 import com.example.uade.tpo.Farmacia.controllers.dto.CreateProductRequest;
+import com.example.uade.tpo.Farmacia.controllers.dto.ProductDTO;
+import com.example.uade.tpo.Farmacia.controllers.dto.ProductPageDTO;
 import com.example.uade.tpo.Farmacia.entity.Product;
 import com.example.uade.tpo.Farmacia.entity.Category;
+import com.example.uade.tpo.Farmacia.exception.BadRequestException;
 import com.example.uade.tpo.Farmacia.exception.ConflictException;
 import com.example.uade.tpo.Farmacia.repository.ProductRepository;
 import com.example.uade.tpo.Farmacia.repository.CategoryRepository;
@@ -11,6 +14,7 @@ import com.example.uade.tpo.Farmacia.exceptions.NotFoundException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
@@ -23,6 +27,9 @@ public class ProductService {
   private final ProductRepository repo;
   private final CategoryRepository categories;
   private final OrderItemRepository orderItems;
+  private final ProductCatalogIndex catalogIndex;
+
+  private static final int MAX_PAGE_SIZE = 100;
 
   public List<Product> list(Long categoryId, String q, Boolean inStock, Boolean rx) {
     log.debug("Listing products with filters - categoryId: {}, query: '{}', inStock: {}, rx: {}", 
@@ -35,8 +42,11 @@ public class ProductService {
         log.debug("Filtering by category ID: {}", categoryId);
         base = repo.findByCategoryId(categoryId);
       } else if (q != null && !q.isBlank()) {
-        log.debug("Searching by name: '{}'", q);
-        base = repo.findByNombreContainingIgnoreCase(q);
+        // Solo mientras el índice de búsqueda no está listo: misma regla de coincidencia, sin ranking
+        log.debug("Searching by text without index: '{}'", q);
+        base = repo.findAll().stream()
+            .filter(p -> ProductSearchIndex.matches(q, p.getNombre(), p.getDescripcion()))
+            .toList();
       } else {
         log.debug("Fetching all products");
         base = repo.findAll();
@@ -64,6 +74,106 @@ public class ProductService {
     }
   }
 
+  // Listado ya mapeado a DTO; se sirve desde el índice en memoria cuando está listo
+  public List<ProductDTO> listDTO(Long categoryId, String q, Boolean inStock, Boolean rx) {
+    if (catalogIndex.isReady()) {
+      List<ProductDTO> result = catalogIndex.list(categoryId, q, inStock, rx);
+      log.debug("Returning {} products from catalog index", result.size());
+      return result;
+    }
+    
+    return list(categoryId, q, inStock, rx).stream().map(ProductDTO::from).toList();
+  }
+
+  /**
+   * Búsqueda de texto sobre nombre y descripción, ordenada por relevancia.
+   * A diferencia de list(), la categoría se combina con "q" en lugar de reemplazarlo.
+   */
+  public List<ProductDTO> search(String q, Long categoryId, Boolean inStock, Boolean rx, int limit) {
+    if (q == null || q.isBlank()) {
+      throw new IllegalArgumentException("El parámetro q es obligatorio");
+    }
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("El límite debe estar entre 1 y " + MAX_PAGE_SIZE);
+    }
+
+    if (catalogIndex.isReady()) {
+      List<ProductDTO> result = catalogIndex.search(q, categoryId, inStock, rx, limit);
+      log.debug("Search '{}' returned {} products from index", q, result.size());
+      return result;
+    }
+
+    return list(null, q, inStock, rx).stream()
+        .filter(p -> categoryId == null || (p.getCategory() != null && categoryId.equals(p.getCategory().getId())))
+        .limit(limit)
+        .map(ProductDTO::from)
+        .toList();
+  }
+
+  /**
+   * Página keyset del catálogo ordenada por "id", "price" o "name" (siempre con id como desempate).
+   * El cursor codifica las claves de la última fila devuelta; el total se calcula solo si se pide.
+   */
+  public ProductPageDTO page(Long categoryId, Boolean inStock, Boolean rx,
+                             String sort, String cursor, int limit, boolean withTotal) {
+    String sortKey = sort == null || sort.isBlank() ? "id" : sort.toLowerCase();
+    if (!List.of("id", "price", "name").contains(sortKey)) {
+      throw new IllegalArgumentException("Orden inválido: " + sort + " (valores permitidos: id, price, name)");
+    }
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("El límite debe estar entre 1 y " + MAX_PAGE_SIZE);
+    }
+    
+    String afterKey = null;
+    Long afterId = null;
+    if (cursor != null && !cursor.isBlank()) {
+      String[] parts = PageCursor.decode(cursor, 3);
+      if (!sortKey.equals(parts[0])) {
+        throw new BadRequestException("El cursor no corresponde al orden solicitado");
+      }
+      afterKey = parts[1];
+      afterId = parseCursorId(parts[2]);
+    }
+    
+    boolean inStockOnly = Boolean.TRUE.equals(inStock);
+    // Pedimos una fila de más para saber si hay página siguiente sin hacer COUNT
+    Limit fetch = Limit.of(limit + 1);
+    List<Product> rows = switch (sortKey) {
+      case "price" -> repo.pageByPrice(categoryId, inStockOnly, rx,
+          afterKey != null ? new BigDecimal(afterKey) : null, afterId, fetch);
+      case "name" -> repo.pageByName(categoryId, inStockOnly, rx, afterKey, afterId, fetch);
+      default -> repo.pageById(categoryId, inStockOnly, rx, afterId, fetch);
+    };
+    
+    boolean hasNext = rows.size() > limit;
+    List<Product> pageRows = hasNext ? rows.subList(0, limit) : rows;
+    
+    String nextCursor = null;
+    if (hasNext) {
+      Product last = pageRows.get(pageRows.size() - 1);
+      String lastKey = switch (sortKey) {
+        case "price" -> last.getPrecio().toPlainString();
+        case "name" -> last.getNombre();
+        default -> String.valueOf(last.getId());
+      };
+      nextCursor = PageCursor.encode(sortKey, lastKey, String.valueOf(last.getId()));
+    }
+    
+    Long total = withTotal ? repo.countFiltered(categoryId, inStockOnly, rx) : null;
+    
+    log.debug("Product page - sort: {}, limit: {}, returned: {}, hasNext: {}", 
+              sortKey, limit, pageRows.size(), hasNext);
+    return new ProductPageDTO(pageRows.stream().map(ProductDTO::from).toList(), nextCursor, total);
+  }
+
+  private Long parseCursorId(String value) {
+    try {
+      return Long.valueOf(value);
+    } catch (NumberFormatException ex) {
+      throw new BadRequestException("Cursor inválido");
+    }
+  }
+
   public Product get(Long id) {
     log.debug("Fetching product with ID: {}", id);
     
@@ -113,6 +223,7 @@ public class ProductService {
       product.setCategory(category);
       
       Product saved = repo.save(product);
+      catalogIndex.upsert(saved);
       log.info("✅ Product created successfully with ID: {} - Category: {}", 
                saved.getId(), category.getName());
       return saved;
@@ -157,6 +268,7 @@ public class ProductService {
       p.setCategory(category);
       
       Product saved = repo.save(p);
+      catalogIndex.upsert(saved);
       log.info("Product created successfully with ID: {}", saved.getId());
       return saved;
       
@@ -218,6 +330,7 @@ public class ProductService {
       }
       
       Product updated = repo.save(db);
+      catalogIndex.upsert(updated);
       log.info("Product updated successfully: {}", updated.getId());
       return updated;
       
@@ -248,6 +361,7 @@ public class ProductService {
       }
       
       repo.deleteById(id);
+      catalogIndex.remove(id);
       log.info("Product deleted successfully: {}", id);
       
     } catch (NotFoundException | ConflictException ex) {
@@ -0,0 +1,158 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.entity.Product;
+import com.example.uade.tpo.Farmacia.exception.InsufficientStockException;
+import com.example.uade.tpo.Farmacia.repository.OrderItemRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reserva y libera stock de productos con UPDATEs condicionales en batch.
+ * Cada línea descuenta solo si "stock >= cantidad", así que nunca se vende de más
+ * y no hace falta leer-modificar-escribir la entidad Product.
+ * Todas las líneas de una orden viajan juntas en un único batch JDBC.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StockReservationService {
+
+  private static final String RESERVE_SQL =
+      "UPDATE products SET stock = stock - ? WHERE id = ? AND stock >= ?";
+  private static final String RELEASE_SQL =
+      "UPDATE products SET stock = stock + ? WHERE id = ?";
+  private static final String CURRENT_STOCK_SQL =
+      "SELECT id, stock FROM products WHERE id IN (:ids)";
+
+  private final JdbcTemplate jdbc;
+  private final NamedParameterJdbcTemplate namedJdbc;
+  private final ProductCatalogIndex catalogIndex;
+  private final OrderItemRepository orderItems;
+
+  /**
+   * Descuenta las cantidades pedidas (productId -> cantidad).
+   * Si alguna línea no alcanza, lanza InsufficientStockException con el detalle
+   * de todas las líneas faltantes; la transacción del llamador hace rollback.
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public void reserve(Map<Long, Integer> quantities, Map<Long, Product> productsById) {
+    if (quantities.isEmpty()) {
+      return;
+    }
+
+    // Ordenar por ID para que órdenes concurrentes bloqueen filas en el mismo orden (evita deadlocks)
+    List<Map.Entry<Long, Integer>> lines = new ArrayList<>(new TreeMap<>(quantities).entrySet());
+
+    int[] updated = jdbc.batchUpdate(RESERVE_SQL, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        Map.Entry<Long, Integer> line = lines.get(i);
+        ps.setInt(1, line.getValue());
+        ps.setLong(2, line.getKey());
+        ps.setInt(3, line.getValue());
+      }
+
+      @Override
+      public int getBatchSize() {
+        return lines.size();
+      }
+    });
+
+    List<Long> failed = new ArrayList<>();
+    for (int i = 0; i < lines.size(); i++) {
+      if (updated[i] == 0) {
+        failed.add(lines.get(i).getKey());
+      }
+    }
+
+    if (!failed.isEmpty()) {
+      Map<Long, Integer> available = currentStock(failed);
+      List<InsufficientStockException.Shortfall> shortfalls = new ArrayList<>();
+      for (Long productId : failed) {
+        Product product = productsById.get(productId);
+        shortfalls.add(new InsufficientStockException.Shortfall(
+            productId,
+            product != null ? product.getNombre() : String.valueOf(productId),
+            quantities.get(productId),
+            available.getOrDefault(productId, 0)
+        ));
+      }
+      log.warn("⚠️ Stock insuficiente en {} de {} líneas: {}", failed.size(), lines.size(), shortfalls);
+      throw new InsufficientStockException(shortfalls);
+    }
+
+    catalogIndex.refreshStock(quantities.keySet());
+
+    log.debug("📦 Stock reservado para {} productos", lines.size());
+  }
+
+  /**
+   * Devuelve al stock las cantidades indicadas (productId -> cantidad), p. ej. al cancelar una orden.
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public void release(Map<Long, Integer> quantities) {
+    if (quantities.isEmpty()) {
+      return;
+    }
+
+    List<Map.Entry<Long, Integer>> lines = new ArrayList<>(new TreeMap<>(quantities).entrySet());
+    jdbc.batchUpdate(RELEASE_SQL, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        Map.Entry<Long, Integer> line = lines.get(i);
+        ps.setInt(1, line.getValue());
+        ps.setLong(2, line.getKey());
+      }
+
+      @Override
+      public int getBatchSize() {
+        return lines.size();
+      }
+    });
+
+    catalogIndex.refreshStock(quantities.keySet());
+
+    log.info("↩️ Stock liberado para {} productos", lines.size());
+  }
+
+  /**
+   * Devuelve al stock todo lo reservado por un conjunto de órdenes (canceladas o vencidas),
+   * sumando las cantidades por producto en una sola consulta. Retorna las unidades devueltas.
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public int releaseOrders(Collection<Long> orderIds) {
+    Map<Long, Integer> quantities = new HashMap<>();
+    int units = 0;
+    for (Object[] line : orderItems.sumQuantitiesByProduct(orderIds)) {
+      int quantity = ((Number) line[1]).intValue();
+      quantities.put((Long) line[0], quantity);
+      units += quantity;
+    }
+    release(quantities);
+    return units;
+  }
+
+  private Map<Long, Integer> currentStock(List<Long> productIds) {
+    Map<Long, Integer> stock = new HashMap<>();
+    namedJdbc.query(CURRENT_STOCK_SQL, new MapSqlParameterSource("ids", productIds),
+        rs -> { stock.put(rs.getLong("id"), rs.getInt("stock")); });
+    return stock;
+  }
+}
@@ -0,0 +1,158 @@
+package com.example.uade.tpo.Farmacia.service.impl;
+
+import com.example.uade.tpo.Farmacia.exceptions.NotFoundException;
+import com.example.uade.tpo.Farmacia.service.ImageBlobStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+/**
+ * ImageBlobStore sobre el filesystem local.
+ * Cada blob se guarda en {storage-dir}/ab/cd/{clave}, usando los primeros caracteres
+ * del sha256 como subdirectorios para no juntar miles de archivos en una sola carpeta.
+ * Las escrituras van a un archivo temporal y se mueven al final, así nunca se sirve un archivo a medias.
+ * La fecha de modificación de cada archivo es su último uso: put la actualiza aunque el blob ya exista,
+ * y deleteIfIdle la compara bajo el mismo lock (repartido por clave) que usa put.
+ */
+@Slf4j
+@Service
+public class FileSystemImageBlobStore implements ImageBlobStore {
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path root;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public FileSystemImageBlobStore(@Value("${farmacia.images.storage-dir:data/images}") String storageDir) throws IOException {
+        this.root = Paths.get(storageDir).toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        log.info("🖼️ Imágenes almacenadas en {}", root);
+    }
+
+    @Override
+    public Instant put(String key, byte[] bytes) throws IOException {
+        return put(key, new ByteArrayInputStream(bytes));
+    }
+
+    @Override
+    public Instant put(String key, InputStream content) throws IOException {
+        Path target = pathFor(key);
+        if (touchIfExists(key, target)) {
+            log.debug("Blob {} ya existe, se reutiliza", key);
+            return null;
+        }
+
+        // La copia va fuera del lock; solo el move (o el descarte) compite con deleteIfIdle
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), key, TMP_SUFFIX);
+        try {
+            Files.copy(content, tmp, StandardCopyOption.REPLACE_EXISTING);
+            synchronized (lockFor(key)) {
+                if (touchIfExists(key, target)) {
+                    // Otra request subió la misma imagen al mismo tiempo: el contenido es idéntico
+                    log.debug("Blob {} escrito en paralelo, se descarta la copia", key);
+                    return null;
+                }
+                try {
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    touch(target);
+                    return null;
+                }
+                return touch(target);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(pathFor(key));
+    }
+
+    @Override
+    public Resource get(String key) {
+        Path path = pathFor(key);
+        if (!Files.exists(path)) {
+            throw new NotFoundException("Contenido de imagen no encontrado: " + key);
+        }
+        return new FileSystemResource(path);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        synchronized (lockFor(key)) {
+            if (Files.deleteIfExists(pathFor(key))) {
+                log.debug("Blob {} eliminado", key);
+            }
+        }
+    }
+
+    @Override
+    public Stream<String> keys() throws IOException {
+        return Files.walk(root)
+            .filter(Files::isRegularFile)
+            .map(path -> path.getFileName().toString())
+            .filter(name -> !name.endsWith(TMP_SUFFIX));
+    }
+
+    @Override
+    public boolean deleteIfIdle(String key, Instant idleSince) throws IOException {
+        Path path = pathFor(key);
+        synchronized (lockFor(key)) {
+            if (!Files.exists(path) || !Files.getLastModifiedTime(path).toInstant().isBefore(idleSince)) {
+                return false;
+            }
+            Files.delete(path);
+        }
+        log.debug("Blob {} eliminado (sin uso)", key);
+        return true;
+    }
+
+    private boolean touchIfExists(String key, Path target) throws IOException {
+        synchronized (lockFor(key)) {
+            if (!Files.exists(target)) {
+                return false;
+            }
+            touch(target);
+            return true;
+        }
+    }
+
+    private static Instant touch(Path path) throws IOException {
+        Instant now = Instant.now();
+        Files.setLastModifiedTime(path, FileTime.from(now));
+        return now;
+    }
+
+    private Object lockFor(String key) {
+        return locks[Math.floorMod(key.hashCode(), LOCK_STRIPES)];
+    }
+
+    private Path pathFor(String key) {
+        // Las claves son hex (sha256, opcionalmente con sufijo): nunca deben salir del directorio raíz
+        if (key == null || key.length() < 4 || !key.matches("[0-9a-zA-Z-]+")) {
+            throw new IllegalArgumentException("Clave de imagen inválida: " + key);
+        }
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+}
@@ -1,21 +1,32 @@
 package com.example.uade.tpo.Farmacia.service.impl;
 
+import com.example.uade.tpo.Farmacia.controllers.dto.BulkStatusUpdateResponse;
 import com.example.uade.tpo.Farmacia.controllers.dto.CreateOrderRequest;
 import com.example.uade.tpo.Farmacia.controllers.dto.CreateOrderResponse;
 import com.example.uade.tpo.Farmacia.controllers.dto.OrderDTO;
 import com.example.uade.tpo.Farmacia.controllers.dto.OrderItemDTO;
+import com.example.uade.tpo.Farmacia.controllers.dto.OrderPageDTO;
 import com.example.uade.tpo.Farmacia.controllers.dto.OrderSummaryDTO;
 import com.example.uade.tpo.Farmacia.entity.Order;
 import com.example.uade.tpo.Farmacia.entity.OrderItem;
 import com.example.uade.tpo.Farmacia.entity.Product;
 import com.example.uade.tpo.Farmacia.entity.User;
 import com.example.uade.tpo.Farmacia.exception.BadRequestException;
+import com.example.uade.tpo.Farmacia.exception.ConflictException;
 import com.example.uade.tpo.Farmacia.exceptions.NotFoundException;
-import com.example.uade.tpo.Farmacia.repository.OrderItemRepository;
+import com.example.uade.tpo.Farmacia.repository.OrderBatchWriter;
+import com.example.uade.tpo.Farmacia.repository.OrderConsoleQuery;
+import com.example.uade.tpo.Farmacia.repository.OrderLineRow;
 import com.example.uade.tpo.Farmacia.repository.OrderRepository;
+import com.example.uade.tpo.Farmacia.repository.OrderStateRow;
 import com.example.uade.tpo.Farmacia.repository.ProductRepository;
 import com.example.uade.tpo.Farmacia.repository.UserRepository;
+import com.example.uade.tpo.Farmacia.service.OrderEventBus;
+import com.example.uade.tpo.Farmacia.service.OrderFilter;
 import com.example.uade.tpo.Farmacia.service.OrderService;
+import com.example.uade.tpo.Farmacia.service.OrderStateMachine;
+import com.example.uade.tpo.Farmacia.service.PageCursor;
+import com.example.uade.tpo.Farmacia.service.StockReservationService;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -23,8 +34,15 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -32,22 +50,24 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class OrderServiceImpl implements OrderService {
 
+  private static final int MAX_PAGE_SIZE = 100;
+  private static final int MAX_BULK_SIZE = 500;
+
   private final OrderRepository orders;
+  private final OrderConsoleQuery consoleQuery;
   private final UserRepository users;
   private final ProductRepository products;
-  private final OrderItemRepository orderItems;
+  private final OrderBatchWriter orderWriter;
+  private final StockReservationService stockReservations;
+  private final OrderEventBus events;
 
   @Override
   @Transactional
   public OrderSummaryDTO createOrderSummary(String email, CreateOrderRequest request) {
     log.info("📦 Iniciando creación de orden (OrderSummaryDTO) para: {}", email);
     
-    // Reutilizar la lógica existente
-    CreateOrderResponse response = createOrder(email, request);
-    
-    // Obtener la orden completa para mapearla
-    Order order = orders.findById(response.getOrderId())
-        .orElseThrow(() -> new NotFoundException("Orden recién creada no encontrada"));
+    // La orden vuelve con sus items en memoria: no hace falta volver a consultarla
+    Order order = placeOrder(email, request);
     
     return toOrderSummaryDTO(order);
   }
@@ -55,6 +75,17 @@ public class OrderServiceImpl implements OrderService {
   @Override
   @Transactional
   public CreateOrderResponse createOrder(String email, CreateOrderRequest request) {
+    Order order = placeOrder(email, request);
+    
+    return CreateOrderResponse.builder()
+        .orderId(order.getId())
+        .total(order.getTotal())
+        .status(order.getStatus().name())
+        .build();
+  }
+
+  // Valida, reserva stock y persiste la orden con todos sus items
+  private Order placeOrder(String email, CreateOrderRequest request) {
     log.info("📦 Iniciando creación de orden para: {}", email);
     
     // 1. Validar usuario
@@ -70,10 +101,8 @@ public class OrderServiceImpl implements OrderService {
       throw new IllegalArgumentException("La orden debe contener al menos un producto");
     }
     
-    // 3. Validar y calcular total
-    BigDecimal total = BigDecimal.ZERO;
-    boolean hasRxProduct = false; // 🔴 Flag para detectar productos con receta
-    
+    // 3. Validar items y agrupar cantidades por producto (una línea por producto)
+    Map<Long, Integer> quantities = new LinkedHashMap<>();
     for (CreateOrderRequest.OrderItemRequest item : request.getItems()) {
       if (item.getProductId() == null) {
         throw new IllegalArgumentException("El ID del producto no puede ser nulo");
@@ -81,22 +110,21 @@ public class OrderServiceImpl implements OrderService {
       if (item.getQuantity() == null || item.getQuantity() < 1) {
         throw new IllegalArgumentException("La cantidad debe ser al menos 1");
       }
-      
-      // Validar que el producto existe
-      Product product = products.findById(item.getProductId())
-          .orElseThrow(() -> {
-            log.error("❌ Producto no encontrado: {}", item.getProductId());
-            return new NotFoundException("Producto no encontrado: " + item.getProductId());
-          });
-      
-      // Validar stock
-      if (product.getStock() == null || product.getStock() < item.getQuantity()) {
-        log.error("❌ Stock insuficiente - Producto: {}, Stock: {}, Solicitado: {}", 
-                  product.getId(), product.getStock(), item.getQuantity());
-        throw new IllegalStateException(
-            "Stock insuficiente para el producto: " + product.getNombre() + 
-            " (disponible: " + product.getStock() + ", solicitado: " + item.getQuantity() + ")"
-        );
+      quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+    }
+    
+    // Cargar todos los productos de la orden en una sola consulta
+    Map<Long, Product> productsById = products.findAllById(quantities.keySet()).stream()
+        .collect(Collectors.toMap(Product::getId, Function.identity()));
+    
+    BigDecimal total = BigDecimal.ZERO;
+    boolean hasRxProduct = false; // 🔴 Flag para detectar productos con receta
+    
+    for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+      Product product = productsById.get(line.getKey());
+      if (product == null) {
+        log.error("❌ Producto no encontrado: {}", line.getKey());
+        throw new NotFoundException("Producto no encontrado: " + line.getKey());
       }
       
       // 🔴 Detectar si el producto requiere receta
@@ -107,7 +135,7 @@ public class OrderServiceImpl implements OrderService {
       
       // Calcular subtotal
       BigDecimal unitPrice = product.getPrecio() != null ? product.getPrecio() : BigDecimal.ZERO;
-      BigDecimal lineTotal = unitPrice.multiply(BigDecimal.valueOf(item.getQuantity()));
+      BigDecimal lineTotal = unitPrice.multiply(BigDecimal.valueOf(line.getValue()));
       total = total.add(lineTotal);
     }
     
@@ -128,7 +156,11 @@ public class OrderServiceImpl implements OrderService {
       log.info("✅ Validación RX pasada - Método PICKUP confirmado para usuario: {}", email);
     }
     
-    // 4. Crear la orden con datos de delivery
+    // 4. Reservar stock con UPDATEs condicionales (stock >= cantidad) en un solo batch.
+    //    Si alguna línea no alcanza se lanza InsufficientStockException y se hace rollback.
+    stockReservations.reserve(quantities, productsById);
+    
+    // 5. Crear la orden con datos de delivery
     Order order = new Order();
     order.setUser(user);
     order.setTotal(total);
@@ -148,246 +180,353 @@ public class OrderServiceImpl implements OrderService {
       order.setDeliveryZip(request.getAddress().getZip());
     }
     
-    order = orders.save(order);
-    
-    log.info("✅ Orden creada con ID: {} para usuario: {}", order.getId(), email);
-    
-    // 5. Crear los items y descontar stock
-    for (CreateOrderRequest.OrderItemRequest item : request.getItems()) {
-      Product product = products.findById(item.getProductId()).orElseThrow();
-      
-      // Descontar stock
-      product.setStock(product.getStock() - item.getQuantity());
-      products.save(product);
+    // 6. Armar los items (el stock ya fue descontado en la reserva)
+    List<OrderItem> items = new ArrayList<>(quantities.size());
+    for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+      Product product = productsById.get(line.getKey());
       
-      // Crear OrderItem
       OrderItem orderItem = new OrderItem();
-      orderItem.setOrder(order);
       orderItem.setProduct(product);
-      orderItem.setQuantity(item.getQuantity());
+      orderItem.setQuantity(line.getValue());
       orderItem.setUnitPrice(product.getPrecio() != null ? product.getPrecio() : BigDecimal.ZERO);
       orderItem.setUnitDiscount(product.getDescuento() != null ? product.getDescuento() : BigDecimal.ZERO);
       
-      BigDecimal lineTotal = orderItem.getUnitPrice().multiply(BigDecimal.valueOf(item.getQuantity()));
+      BigDecimal lineTotal = orderItem.getUnitPrice().multiply(BigDecimal.valueOf(line.getValue()));
       orderItem.setLineTotal(lineTotal);
-      
-      orderItems.save(orderItem);
+      items.add(orderItem);
       
       log.debug("📦 Item agregado - Producto: {}, Cantidad: {}, Precio unitario: {}", 
-                product.getNombre(), item.getQuantity(), orderItem.getUnitPrice());
+                product.getNombre(), line.getValue(), orderItem.getUnitPrice());
     }
     
-    log.info("✅ Orden {} completada exitosamente - Total: {}, Items: {}", 
-             order.getId(), total, request.getItems().size());
+    // 7. Persistir orden + items en batch
+    order = orderWriter.write(order, items);
+    events.publish(OrderEventBus.ORDER_CREATED, order);
     
-    // 6. Retornar respuesta
-    return CreateOrderResponse.builder()
-        .orderId(order.getId())
-        .total(total)
-        .status(order.getStatus().name())
-        .build();
+    log.info("✅ Orden {} completada exitosamente para usuario: {} - Total: {}, Items: {}", 
+             order.getId(), email, total, items.size());
+    
+    return order;
   }
 
   @Override
+  @Transactional(readOnly = true)
   public List<OrderDTO> myOrdersDTO(String email) {
-    User user = users.findByEmail(email)
-        .orElseThrow(() -> new NotFoundException("Usuario no encontrado"));
-    
-    List<Order> userOrders = orders.findAllByUserIdWithItems(user.getId());
+    // Filas planas orden + item filtradas por email: sin buscar antes al usuario ni cargar entidades
+    List<OrderDTO> userOrders = groupRows(orders.findLineRowsByUserEmail(email));
     log.info("📋 Consultando órdenes para usuario: {} - Encontradas: {}", email, userOrders.size());
     
-    return userOrders.stream()
-        .map(this::toDTO)
-        .collect(Collectors.toList());
+    return userOrders;
   }
 
   @Override
+  @Transactional(readOnly = true)
   public List<OrderDTO> byUserIdDTO(Long userId) {
-    List<Order> userOrders = orders.findAllByUserIdWithItems(userId);
+    List<OrderDTO> userOrders = groupRows(orders.findLineRowsByUserId(userId));
     log.info("📋 Consultando órdenes para userId: {} - Encontradas: {}", userId, userOrders.size());
     
-    return userOrders.stream()
-        .map(this::toDTO)
-        .collect(Collectors.toList());
+    return userOrders;
   }
 
   @Override
-  public List<OrderDTO> getAllOrdersDTO() {
-    log.info("🔐 Consultando TODAS las órdenes del sistema (Admin/Farmacéutico)");
+  @Transactional(readOnly = true)
+  public OrderPageDTO pageAllOrdersDTO(OrderFilter filter, String cursor, int limit, boolean withTotal) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("El límite debe estar entre 1 y " + MAX_PAGE_SIZE);
+    }
+    OrderFilter f = normalize(filter);
+    
+    Instant afterCreatedAt = null;
+    Long afterId = null;
+    if (cursor != null && !cursor.isBlank()) {
+      String[] parts = PageCursor.decode(cursor, 2);
+      try {
+        afterCreatedAt = Instant.parse(parts[0]);
+        afterId = Long.parseLong(parts[1]);
+      } catch (DateTimeParseException | NumberFormatException ex) {
+        throw new BadRequestException("Cursor inválido");
+      }
+    }
     
-    List<Order> allOrders = orders.findAllWithItems();
-    log.info("✅ Total de órdenes en el sistema: {}", allOrders.size());
+    // Pedimos una fila de más para saber si hay página siguiente sin hacer COUNT
+    List<OrderDTO> rows = fetchPage(f, afterCreatedAt, afterId, limit + 1);
+    boolean hasNext = rows.size() > limit;
+    List<OrderDTO> pageRows = hasNext ? rows.subList(0, limit) : rows;
     
-    return allOrders.stream()
-        .map(this::toDTO)
-        .collect(Collectors.toList());
+    String nextCursor = null;
+    if (hasNext) {
+      OrderDTO last = pageRows.get(pageRows.size() - 1);
+      nextCursor = PageCursor.encode(last.createdAt(), String.valueOf(last.id()));
+    }
+    
+    Long total = withTotal ? consoleQuery.count(f) : null;
+    
+    log.debug("Order page - filter: {}, limit: {}, returned: {}, hasNext: {}", 
+              f, limit, pageRows.size(), hasNext);
+    return new OrderPageDTO(List.copyOf(pageRows), nextCursor, total);
   }
 
   @Override
+  @Transactional(readOnly = true)
   public OrderDTO getUserOrderDTO(Long id, String email) {
-    User user = users.findByEmail(email)
-        .orElseThrow(() -> new NotFoundException("Usuario no encontrado"));
-    
-    Order order = orders.findByIdAndUserIdWithItems(id, user.getId())
-        .orElseThrow(() -> {
-          log.warn("❌ Orden {} no encontrada o no pertenece al usuario {}", id, email);
-          return new NotFoundException("Orden no encontrada");
-        });
+    List<OrderDTO> found = groupRows(orders.findLineRowsByIdAndUserEmail(id, email));
+    if (found.isEmpty()) {
+      log.warn("❌ Orden {} no encontrada o no pertenece al usuario {}", id, email);
+      throw new NotFoundException("Orden no encontrada");
+    }
     
     log.info("📦 Consultando orden {} para usuario: {}", id, email);
-    return toDTO(order);
+    return found.get(0);
   }
 
   @Override
+  @Transactional
   public OrderDTO setStatusDTO(Long id, Order.Status status) {
-    Order o = orders.findById(id)
-        .orElseThrow(() -> new NotFoundException("Orden no encontrada"));
-    o.setStatus(status);
-    return toDTO(orders.save(o));
+    // Misma validación que processOrder (antes este camino no validaba la transición)
+    transitionOne(id, status);
+    return groupRows(orders.findLineRowsByIdIn(List.of(id))).get(0);
   }
 
   @Override
+  @Transactional
   public OrderDTO processOrder(Long id, Order.Status newStatus) {
     log.info("🔄 Procesando orden {} - Nuevo estado: {}", id, newStatus);
     
-    Order order = orders.findById(id)
-        .orElseThrow(() -> {
-          log.error("❌ Orden {} no encontrada", id);
-          return new NotFoundException("Orden no encontrada con ID: " + id);
-        });
-    
-    // Validar transiciones de estado
-    validateStatusTransition(order.getStatus(), newStatus, id);
-    
-    // Actualizar el estado
-    order.setStatus(newStatus);
-    Order updatedOrder = orders.save(order);
-    
-    log.info("✅ Orden {} actualizada - Estado: {} -> {}", id, order.getStatus(), newStatus);
+    Order.Status previousStatus = transitionOne(id, newStatus);
     
-    return toDTO(updatedOrder);
+    log.info("✅ Orden {} actualizada - Estado: {} -> {}", id, previousStatus, newStatus);
+    return groupRows(orders.findLineRowsByIdIn(List.of(id))).get(0);
   }
 
   @Override
+  @Transactional
   public OrderSummaryDTO processOrderSummary(Long id, Order.Status newStatus) {
     log.info("🔄 Procesando orden (OrderSummaryDTO) {} - Nuevo estado: {}", id, newStatus);
     
-    Order order = orders.findById(id)
-        .orElseThrow(() -> {
-          log.error("❌ Orden {} no encontrada", id);
-          return new NotFoundException("Orden no encontrada con ID: " + id);
-        });
-    
-    // Validar transiciones de estado
-    validateStatusTransition(order.getStatus(), newStatus, id);
-    
-    // Actualizar el estado
-    Order.Status previousStatus = order.getStatus();
-    order.setStatus(newStatus);
-    Order updatedOrder = orders.save(order);
+    Order.Status previousStatus = transitionOne(id, newStatus);
     
     log.info("✅ Orden {} actualizada - Estado: {} -> {}", id, previousStatus, newStatus);
+    return toOrderSummaryDTO(orders.findLineRowsByIdIn(List.of(id)));
+  }
+
+  @Override
+  @Transactional
+  public BulkStatusUpdateResponse bulkUpdateStatus(List<Long> orderIds, Order.Status newStatus) {
+    if (newStatus == null) {
+      throw new IllegalArgumentException("El estado es requerido");
+    }
+    if (orderIds == null || orderIds.isEmpty()) {
+      throw new IllegalArgumentException("Debe indicar al menos una orden");
+    }
+    if (orderIds.size() > MAX_BULK_SIZE) {
+      throw new IllegalArgumentException("Se pueden actualizar hasta " + MAX_BULK_SIZE + " órdenes por llamada");
+    }
     
-    return toOrderSummaryDTO(updatedOrder);
+    List<BulkStatusUpdateResponse.Result> results = applyStatus(orderIds, newStatus);
+    int applied = (int) results.stream()
+        .filter(r -> r.outcome() == BulkStatusUpdateResponse.Outcome.APPLIED)
+        .count();
+    
+    log.info("✅ Cambio masivo a {} - Pedidas: {}, Aplicadas: {}", newStatus, results.size(), applied);
+    return new BulkStatusUpdateResponse(newStatus.name(), results.size(), applied, results);
   }
 
   @Override
+  @Transactional
   public OrderSummaryDTO markPickupComplete(Long orderId) {
     log.info("🏪 Farmacéutico marcando pickup completado - Orden: {}", orderId);
     
-    // 1. Buscar la orden
-    Order order = orders.findById(orderId)
-        .orElseThrow(() -> {
-          log.error("❌ Orden {} no encontrada", orderId);
-          return new NotFoundException("Orden no encontrada con ID: " + orderId);
-        });
+    // 1. Buscar la orden (filas planas: estado, método de entrega e items con su flag RX)
+    List<OrderLineRow> rows = orders.findLineRowsByIdIn(List.of(orderId));
+    if (rows.isEmpty()) {
+      log.error("❌ Orden {} no encontrada", orderId);
+      throw new NotFoundException("Orden no encontrada con ID: " + orderId);
+    }
+    OrderLineRow head = rows.get(0);
     
     // 2. Validar que el método de entrega es PICKUP
-    if (!"PICKUP".equalsIgnoreCase(order.getDeliveryMethod())) {
+    if (!"PICKUP".equalsIgnoreCase(head.deliveryMethod())) {
       log.error("❌ Intento de marcar pickup en orden con método: {} - Orden: {}", 
-                order.getDeliveryMethod(), orderId);
+                head.deliveryMethod(), orderId);
       throw new BadRequestException(
           "Solo las órdenes con método de entrega PICKUP pueden marcarse como recogidas. " +
-          "Esta orden usa: " + order.getDeliveryMethod()
+          "Esta orden usa: " + head.deliveryMethod()
       );
     }
     
     // 3. Validar que la orden contiene productos RX (opcional pero recomendado)
-    boolean hasRxProduct = order.getItems().stream()
-        .anyMatch(item -> {
-          Product product = item.getProduct();
-          return product.getRequiresPrescription() != null && product.getRequiresPrescription();
-        });
+    boolean hasRxProduct = rows.stream().anyMatch(row -> Boolean.TRUE.equals(row.requiresPrescription()));
     
     if (!hasRxProduct) {
       log.warn("⚠️ Orden {} no contiene productos RX pero se marca pickup completo", orderId);
     }
     
-    // 4. Validar estado actual (solo PENDING o PROCESSING pueden completarse)
-    if (order.getStatus() == Order.Status.COMPLETED) {
+    // 4. Validar estado actual (solo órdenes abiertas pueden completarse)
+    if (head.status() == Order.Status.COMPLETED) {
       log.warn("⚠️ Orden {} ya está COMPLETED", orderId);
       throw new BadRequestException("La orden ya está completada");
     }
     
-    if (order.getStatus() == Order.Status.CANCELLED) {
+    if (head.status() == Order.Status.CANCELLED) {
       log.error("❌ Intento de completar orden cancelada: {}", orderId);
       throw new BadRequestException("No se puede completar una orden cancelada");
     }
     
-    // 5. Marcar como COMPLETED
-    order.setStatus(Order.Status.COMPLETED);
+    // 5. Marcar como COMPLETED con UPDATE condicional
+    if (orders.transitionStatus(List.of(orderId), OrderStateMachine.PICKUP_SOURCES, Order.Status.COMPLETED) == 0) {
+      throw new ConflictException("La orden " + orderId + " cambió de estado mientras se procesaba, intente nuevamente");
+    }
     
     // 6. Si el pago era PENDING y es CASH, marcarlo como PAID
-    if (order.getPaymentStatus() == Order.PaymentStatus.PENDING && 
-        "CASH".equalsIgnoreCase(order.getPaymentMethod())) {
-      order.setPaymentStatus(Order.PaymentStatus.PAID);
+    Order.PaymentStatus paymentStatus = head.paymentStatus();
+    if (paymentStatus == Order.PaymentStatus.PENDING && "CASH".equalsIgnoreCase(head.paymentMethod())
+        && orders.transitionPaymentStatus(orderId, EnumSet.of(Order.PaymentStatus.PENDING), Order.PaymentStatus.PAID) > 0) {
+      paymentStatus = Order.PaymentStatus.PAID;
       log.info("💰 Pago en efectivo marcado como PAID - Orden: {}", orderId);
     }
     
-    Order completedOrder = orders.save(order);
+    events.publish(OrderEventBus.ORDER_STATUS_CHANGED, orderId, head.userId(), Order.Status.COMPLETED.name(),
+        paymentStatus.name(), head.deliveryMethod(), head.total());
     
     log.info("✅ Pickup completado exitosamente - Orden: {}, RX: {}", orderId, hasRxProduct);
     
-    return toOrderSummaryDTO(completedOrder);
+    return toOrderSummaryDTO(orders.findLineRowsByIdIn(List.of(orderId)));
   }
 
   // ================= Helpers =================
 
-  // Validar transiciones de estado permitidas
-  private void validateStatusTransition(Order.Status currentStatus, Order.Status newStatus, Long orderId) {
-    log.debug("Validando transición: {} -> {}", currentStatus, newStatus);
-    
-    // Estados finales no pueden cambiar
-    if (currentStatus == Order.Status.COMPLETED) {
-      log.warn("⚠️ Transición no permitida de COMPLETED a {} - Orden: {}", newStatus, orderId);
-      throw new BadRequestException("Transición no permitida de COMPLETED a " + newStatus);
+  // Fase 1: ids de la página (usa los índices compuestos); fase 2: filas orden + item solo de esos ids
+  private List<OrderDTO> fetchPage(OrderFilter f, Instant afterCreatedAt, Long afterId, int size) {
+    List<Long> ids = consoleQuery.pageIds(f, afterCreatedAt, afterId, size);
+    if (ids.isEmpty()) {
+      return List.of();
     }
-    
-    if (currentStatus == Order.Status.CANCELLED) {
-      log.warn("⚠️ Transición no permitida de CANCELLED a {} - Orden: {}", newStatus, orderId);
-      throw new BadRequestException("Transición no permitida de CANCELLED a " + newStatus);
+    return groupRows(orders.findLineRowsByIdIn(ids));
+  }
+
+  // Agrupa las filas (ya ordenadas por orden) en OrderDTO en una sola pasada
+  private List<OrderDTO> groupRows(List<OrderLineRow> rows) {
+    List<OrderDTO> result = new ArrayList<>();
+    OrderLineRow head = null;
+    List<OrderItemDTO> items = null;
+    
+    for (OrderLineRow row : rows) {
+      if (head == null || !head.orderId().equals(row.orderId())) {
+        if (head != null) {
+          result.add(toDTO(head, items));
+        }
+        head = row;
+        items = new ArrayList<>();
+      }
+      if (row.productId() != null) {
+        items.add(toItemDTO(row));
+      }
     }
-    
-    // Validar transiciones específicas
-    // PENDING -> PROCESSING, CONFIRMED, CANCELLED
-    // PROCESSING -> COMPLETED, CANCELLED
-    // CONFIRMED -> PROCESSING, CANCELLED
-    
-    if (currentStatus == Order.Status.PENDING) {
-      if (newStatus != Order.Status.PROCESSING && 
-          newStatus != Order.Status.CONFIRMED && 
-          newStatus != Order.Status.CANCELLED) {
-        log.warn("⚠️ Transición no permitida de PENDING a {} - Orden: {}", newStatus, orderId);
-        throw new BadRequestException("Transición no permitida de PENDING a " + newStatus);
+    if (head != null) {
+      result.add(toDTO(head, items));
+    }
+    return result;
+  }
+
+  private OrderFilter normalize(OrderFilter filter) {
+    if (filter == null) {
+      return OrderFilter.NONE;
+    }
+    if (filter.from() != null && filter.to() != null && !filter.from().isBefore(filter.to())) {
+      throw new IllegalArgumentException("La fecha 'from' debe ser anterior a 'to'");
+    }
+    String deliveryMethod = filter.deliveryMethod() != null && !filter.deliveryMethod().isBlank()
+        ? filter.deliveryMethod().trim().toUpperCase()
+        : null;
+    return new OrderFilter(filter.status(), filter.paymentStatus(), deliveryMethod,
+        filter.userId(), filter.from(), filter.to());
+  }
+
+  // Transición de una sola orden: traduce el resultado a la excepción correspondiente (404/400/409)
+  private Order.Status transitionOne(Long id, Order.Status newStatus) {
+    if (newStatus == null) {
+      throw new IllegalArgumentException("El estado es requerido");
+    }
+    BulkStatusUpdateResponse.Result result = applyStatus(List.of(id), newStatus).get(0);
+    switch (result.outcome()) {
+      case NOT_FOUND -> {
+        log.error("❌ Orden {} no encontrada", id);
+        throw new NotFoundException("Orden no encontrada con ID: " + id);
+      }
+      case INVALID_TRANSITION -> {
+        log.warn("⚠️ {} - Orden: {}", result.message(), id);
+        throw new BadRequestException(result.message());
+      }
+      case CONFLICT -> throw new ConflictException(result.message());
+      default -> {
+        return Order.Status.valueOf(result.previousStatus());
+      }
+    }
+  }
+
+  /**
+   * Bloquea las filas (SELECT ... FOR UPDATE), valida cada orden contra OrderStateMachine.STATUS
+   * y aplica la transición con un único UPDATE condicional para todas las válidas. Como las filas
+   * quedan bloqueadas hasta el commit, las aplicadas son exactamente las que pasaron la validación,
+   * sin depender del nivel de aislamiento; una request concurrente espera y ve el estado nuevo.
+   * Al cancelar se devuelve el stock de las órdenes aplicadas. Si aun así el UPDATE no encuentra las
+   * filas en su estado de origen (bloqueo que no se respetó), responde CONFLICT (409), nunca 500.
+   */
+  private List<BulkStatusUpdateResponse.Result> applyStatus(List<Long> orderIds, Order.Status newStatus) {
+    List<Long> ids = orderIds.stream().distinct().toList();
+    Map<Long, OrderStateRow> current = orders.lockStateRows(ids).stream()
+        .collect(Collectors.toMap(OrderStateRow::id, Function.identity()));
+    
+    List<Long> eligible = new ArrayList<>();
+    Map<Long, BulkStatusUpdateResponse.Result> results = new LinkedHashMap<>();
+    for (Long id : ids) {
+      OrderStateRow row = current.get(id);
+      if (row == null) {
+        results.put(id, result(id, BulkStatusUpdateResponse.Outcome.NOT_FOUND, null, "Orden no encontrada"));
+      } else if (!OrderStateMachine.STATUS.allows(row.status(), newStatus)) {
+        results.put(id, result(id, BulkStatusUpdateResponse.Outcome.INVALID_TRANSITION, row.status(),
+            "Transición no permitida de " + row.status() + " a " + newStatus));
+      } else {
+        eligible.add(id);
       }
     }
     
-    if (currentStatus == Order.Status.PROCESSING) {
-      if (newStatus != Order.Status.COMPLETED && newStatus != Order.Status.CANCELLED) {
-        log.warn("⚠️ Transición no permitida de PROCESSING a {} - Orden: {}", newStatus, orderId);
-        throw new BadRequestException("Transición no permitida de PROCESSING a " + newStatus);
+    if (!eligible.isEmpty()) {
+      int updated = orders.transitionStatus(eligible, OrderStateMachine.STATUS.sourcesOf(newStatus), newStatus);
+      if (updated == 0) {
+        // Otra transacción cambió el estado entre el bloqueo y el UPDATE (no debería pasar con las filas
+        // bloqueadas): no se aplicó nada, cada orden vuelve como CONFLICT y no se toca el stock
+        log.warn("⚠️ {} órdenes cambiaron de estado antes de pasar a {}", eligible.size(), newStatus);
+        for (Long id : eligible) {
+          results.put(id, result(id, BulkStatusUpdateResponse.Outcome.CONFLICT, current.get(id).status(),
+              "La orden cambió de estado mientras se procesaba, reintente"));
+        }
+        eligible.clear();
+      } else if (updated != eligible.size()) {
+        // Aplicadas solo algunas: no se sabe cuáles, así que se revierte todo antes que liberar stock de más
+        throw new ConflictException("Algunas órdenes cambiaron de estado mientras se procesaban, reintente");
+      }
+
+      for (Long id : eligible) {
+        OrderStateRow row = current.get(id);
+        results.put(id, result(id, BulkStatusUpdateResponse.Outcome.APPLIED, row.status(), null));
+        events.publish(OrderEventBus.ORDER_STATUS_CHANGED, id, row.userId(), newStatus.name(),
+            row.paymentStatus() != null ? row.paymentStatus().name() : null, row.deliveryMethod(), row.total());
+      }
+      
+      if (newStatus == Order.Status.CANCELLED) {
+        stockReservations.releaseOrders(eligible);
+        log.info("↩️ {} órdenes canceladas - Stock liberado", eligible.size());
       }
     }
+    
+    // Respuesta en el orden pedido (los ids repetidos comparten resultado)
+    return orderIds.stream().map(results::get).toList();
+  }
+
+  private static BulkStatusUpdateResponse.Result result(Long id, BulkStatusUpdateResponse.Outcome outcome,
+                                                        Order.Status previous, String message) {
+    return new BulkStatusUpdateResponse.Result(id, outcome, previous != null ? previous.name() : null, message);
   }
 
   // Mapear Order a OrderSummaryDTO
@@ -440,52 +579,72 @@ public class OrderServiceImpl implements OrderService {
     );
   }
 
-  private OrderDTO toDTO(Order order) {
-    // Mapear items
-    List<OrderItemDTO> itemDTOs = order.getItems()
-        .stream()
-        .map(this::toItemDTO)
+  // Mismo mapeo que toOrderSummaryDTO(Order), a partir de las filas planas de una orden
+  private OrderSummaryDTO toOrderSummaryDTO(List<OrderLineRow> rows) {
+    OrderLineRow head = rows.get(0);
+    boolean hasRxProduct = rows.stream().anyMatch(row -> Boolean.TRUE.equals(row.requiresPrescription()));
+    
+    List<OrderSummaryDTO.OrderItemSummary> items = rows.stream()
+        .filter(row -> row.productId() != null)
+        .map(row -> new OrderSummaryDTO.OrderItemSummary(
+            row.productId(),
+            row.productName(),
+            row.unitPrice(),
+            row.quantity(),
+            row.lineTotal()
+        ))
         .collect(Collectors.toList());
     
-    // Usar el total guardado en la orden (más confiable)
-    double total = order.getTotal() != null ? 
-        order.getTotal().doubleValue() : 0.0;
+    OrderSummaryDTO.DeliveryInfo delivery = new OrderSummaryDTO.DeliveryInfo(
+        head.fullName(),
+        head.deliveryStreet(),
+        head.deliveryCity(),
+        head.deliveryZip(),
+        head.deliveryPhone(),
+        head.deliveryEmail(),
+        head.deliveryMethod()
+    );
     
-    // Formatear fecha
-    DateTimeFormatter formatter = DateTimeFormatter.ISO_INSTANT;
-    String createdAt = order.getCreatedAt() != null ? 
-        formatter.format(order.getCreatedAt()) : null;
+    OrderSummaryDTO.PaymentInfo payment = new OrderSummaryDTO.PaymentInfo(
+        head.paymentMethod(),
+        head.paymentStatus() != null ? head.paymentStatus().name() : "PENDING"
+    );
     
-    // Mapear todos los campos planos de entrega y pago
-    return new OrderDTO(
-        order.getId(),
-        order.getStatus() != null ? order.getStatus().name() : "PENDING",
-        total,
-        itemDTOs,
-        order.getFullName() != null ? order.getFullName() : "",
-        order.getDeliveryStreet() != null ? order.getDeliveryStreet() : "",
-        order.getDeliveryCity() != null ? order.getDeliveryCity() : "",
-        order.getDeliveryZip() != null ? order.getDeliveryZip() : "",
-        order.getDeliveryEmail() != null ? order.getDeliveryEmail() : "",
-        order.getDeliveryPhone() != null ? order.getDeliveryPhone() : "",
-        order.getDeliveryMethod() != null ? order.getDeliveryMethod() : "",
-        order.getPaymentMethod() != null ? order.getPaymentMethod() : "",
-        createdAt
+    return new OrderSummaryDTO(
+        head.orderId(),
+        head.status().name(),
+        head.total(),
+        head.createdAt(),
+        items,
+        delivery,
+        payment,
+        hasRxProduct
     );
   }
 
-  private OrderItemDTO toItemDTO(OrderItem item) {
-    double unitPrice = item.getUnitPrice() != null ? 
-        item.getUnitPrice().doubleValue() : 0.0;
-    int quantity = item.getQuantity() != null ? item.getQuantity() : 0;
-    double lineTotal = unitPrice * quantity;
-    
-    return new OrderItemDTO(
-        item.getProduct().getId(),
-        item.getProduct().getNombre(),
-        unitPrice,
-        quantity,
-        lineTotal
+  // Mapear las filas planas de OrderRepository a OrderDTO
+  private OrderDTO toDTO(OrderLineRow head, List<OrderItemDTO> items) {
+    return new OrderDTO(
+        head.orderId(),
+        head.status() != null ? head.status().name() : "PENDING",
+        head.total() != null ? head.total().doubleValue() : 0.0,
+        items,
+        head.fullName() != null ? head.fullName() : "",
+        head.deliveryStreet() != null ? head.deliveryStreet() : "",
+        head.deliveryCity() != null ? head.deliveryCity() : "",
+        head.deliveryZip() != null ? head.deliveryZip() : "",
+        head.deliveryEmail() != null ? head.deliveryEmail() : "",
+        head.deliveryPhone() != null ? head.deliveryPhone() : "",
+        head.deliveryMethod() != null ? head.deliveryMethod() : "",
+        head.paymentMethod() != null ? head.paymentMethod() : "",
+        head.createdAt() != null ? DateTimeFormatter.ISO_INSTANT.format(head.createdAt()) : null
     );
   }
-}
\ No newline at end of file
+
+  private OrderItemDTO toItemDTO(OrderLineRow row) {
+    double unitPrice = row.unitPrice() != null ? row.unitPrice().doubleValue() : 0.0;
+    int quantity = row.quantity() != null ? row.quantity() : 0;
+    
+    return new OrderItemDTO(row.productId(), row.productName(), unitPrice, quantity, unitPrice * quantity);
+  }
+}
@@ -3,31 +3,46 @@ package com.example.uade.tpo.Farmacia.service.impl;
 import com.example.uade.tpo.Farmacia.controllers.dto.CreatePaymentIntentRequest;
 import com.example.uade.tpo.Farmacia.controllers.dto.PaymentIntentResponse;
 import com.example.uade.tpo.Farmacia.entity.Order;
+import com.example.uade.tpo.Farmacia.exception.ConflictException;
 import com.example.uade.tpo.Farmacia.repository.OrderRepository;
+import com.example.uade.tpo.Farmacia.service.OrderEventBus;
+import com.example.uade.tpo.Farmacia.service.OrderStateMachine;
 import com.example.uade.tpo.Farmacia.service.PaymentService;
 import com.stripe.Stripe;
 import com.stripe.exception.StripeException;
 import com.stripe.model.PaymentIntent;
+import com.stripe.model.Refund;
+import com.stripe.net.RequestOptions;
 import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.RefundCreateParams;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
+@Slf4j
 @Service
 public class PaymentServiceImpl implements PaymentService {
 
     private final OrderRepository orderRepository;
+    private final OrderEventBus events;
+    private final TransactionTemplate tx;
 
     @Value("${stripe.api.key:}")
     private String stripeApiKey;
 
-    public PaymentServiceImpl(OrderRepository orderRepository) {
+    public PaymentServiceImpl(OrderRepository orderRepository, OrderEventBus events,
+                              PlatformTransactionManager transactionManager) {
         this.orderRepository = orderRepository;
+        this.events = events;
+        this.tx = new TransactionTemplate(transactionManager);
     }
 
     @Override
@@ -134,28 +149,79 @@ public class PaymentServiceImpl implements PaymentService {
         }
     }
 
+    /**
+     * Verifica el pago con Stripe antes de tomar el bloqueo: la llamada HTTP no retiene la fila
+     * de la orden, así un lote de OrderExpiryWorker no espera por ella. Después bloquea la fila y
+     * registra el pago. Si la orden ya estaba cancelada (p. ej. venció mientras el cliente pagaba),
+     * el cobro igual se registra como PAID y se reintegra, en lugar de quedar cobrado sin rastro.
+     */
     @Override
-    @Transactional
     public Order confirmPayment(Long orderId, String paymentId, String paymentProvider) {
-        Order order = orderRepository.findById(orderId)
-                .orElseThrow(() -> new RuntimeException("Order not found"));
+        boolean stripe = "STRIPE".equalsIgnoreCase(paymentProvider);
+        if (stripe && !verifyPayment(paymentId)) {
+            throw new RuntimeException("Payment verification failed");
+        }
+
+        Order saved = tx.execute(status -> recordPayment(orderId, stripe));
+        if (saved.getStatus() != Order.Status.CANCELLED) {
+            events.publish(OrderEventBus.PAYMENT_CONFIRMED, saved);
+            return saved;
+        }
 
-        // Verify payment with Stripe
-        if ("STRIPE".equalsIgnoreCase(paymentProvider)) {
-            boolean isPaymentSuccessful = verifyPayment(paymentId);
-            if (!isPaymentSuccessful) {
-                throw new RuntimeException("Payment verification failed");
+        // Orden cancelada pero cobrada: se devuelve el dinero y se deja constancia en la orden
+        try {
+            refundPayment(paymentId);
+        } catch (RuntimeException e) {
+            log.error("❌ No se pudo reintegrar el pago {} de la orden cancelada {}: {}", paymentId, orderId, e.getMessage());
+            throw new ConflictException("La orden " + orderId + " fue cancelada (o venció sin pago); el pago quedó registrado " +
+                    "y el reintegro se gestionará manualmente");
+        }
+        tx.executeWithoutResult(status -> {
+            if (orderRepository.transitionPaymentStatus(orderId, Set.of(Order.PaymentStatus.PAID), Order.PaymentStatus.REFUNDED) == 0) {
+                log.warn("⚠️ La orden {} cambió de estado de pago durante el reintegro", orderId);
             }
+        });
+        log.info("↩️ Pago {} de la orden cancelada {} reintegrado", paymentId, orderId);
+        throw new ConflictException("La orden " + orderId + " fue cancelada (o venció sin pago); el pago fue reintegrado");
+    }
+
+    // Con la fila bloqueada, OrderExpiryWorker no puede cancelar la orden a mitad de la confirmación
+    private Order recordPayment(Long orderId, boolean stripe) {
+        Order order = orderRepository.findByIdForUpdate(orderId)
+                .orElseThrow(() -> new RuntimeException("Order not found"));
+
+        // Sin un cobro verificado en Stripe no hay nada que registrar ni reintegrar
+        if (order.getStatus() == Order.Status.CANCELLED && !stripe) {
+            throw new IllegalStateException("La orden " + orderId + " fue cancelada (o venció sin pago) y no puede confirmarse");
         }
 
+        // Un pago ya confirmado o reintegrado no se vuelve a confirmar (ni se reintegra dos veces)
+        OrderStateMachine.PAYMENT.check(order.getPaymentStatus(), Order.PaymentStatus.PAID);
+
         // Update order status
         order.setPaymentMethod("CARD");
         order.setPaymentStatus(Order.PaymentStatus.PAID);
-        order.setStatus(Order.Status.CONFIRMED);
-        order.setShippingStatus(Order.ShippingStatus.PENDING_SHIPMENT);
         order.setPaidAt(Instant.now());
         order.setTotalPaid(order.getTotal());
-
+        if (order.getStatus() != Order.Status.CANCELLED) {
+            // Solo se confirma una orden abierta (una ya en proceso conserva su estado)
+            if (OrderStateMachine.STATUS.allows(order.getStatus(), Order.Status.CONFIRMED)) {
+                order.setStatus(Order.Status.CONFIRMED);
+            }
+            order.setShippingStatus(Order.ShippingStatus.PENDING_SHIPMENT);
+        }
         return orderRepository.save(order);
     }
+
+    // Reintegro total del PaymentIntent; la clave de idempotencia evita un doble reintegro si se reintenta
+    @Override
+    public void refundPayment(String paymentId) {
+        try {
+            Stripe.apiKey = stripeApiKey;
+            Refund.create(RefundCreateParams.builder().setPaymentIntent(paymentId).build(),
+                    RequestOptions.builder().setIdempotencyKey("refund-" + paymentId).build());
+        } catch (StripeException e) {
+            throw new RuntimeException("Error refunding payment: " + e.getMessage(), e);
+        }
+    }
 }
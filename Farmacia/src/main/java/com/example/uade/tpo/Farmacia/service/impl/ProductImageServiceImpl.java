@@ -1,101 +1,59 @@
 package com.example.uade.tpo.Farmacia.service.impl;
 
+import com.example.uade.tpo.Farmacia.controllers.dto.ImageUploadJobDTO;
 import com.example.uade.tpo.Farmacia.controllers.dto.ProductImageMetadataDTO;
 import com.example.uade.tpo.Farmacia.entity.ProductImage;
 import com.example.uade.tpo.Farmacia.repository.ProductImageRepository;
-import com.example.uade.tpo.Farmacia.repository.ProductRepository;
+import com.example.uade.tpo.Farmacia.repository.ProductImageRepository.ServingMetadata;
+import com.example.uade.tpo.Farmacia.service.ImageBlobStore;
+import com.example.uade.tpo.Farmacia.service.ImageIngestionService;
+import com.example.uade.tpo.Farmacia.service.ImageVariantService;
 import com.example.uade.tpo.Farmacia.service.ProductImageService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ProductImageServiceImpl implements ProductImageService {
 
-    // Límites de seguridad
-    private static final long MAX_FILE_SIZE = 5 * 1024 * 1024; // 5MB máximo por imagen
-    private static final int MAX_IMAGES_PER_PRODUCT = 10; // máximo 10 imágenes por producto
-    private static final List<String> ALLOWED_MIME_TYPES = Arrays.asList(
-        "image/jpeg", "image/png", "image/webp"
-    );
-    
     private final ProductImageRepository productImageRepository;
-    private final ProductRepository productRepository;
+    private final ImageBlobStore blobStore;
+    private final ImageVariantService variants;
+    private final ImageIngestionService ingestion;
 
     @Override
-    @Transactional
     public List<ProductImageMetadataDTO> uploadImages(Long productId, MultipartFile[] files) throws IOException {
-        // Verificar que el producto existe
-        productRepository.findById(productId)
-            .orElseThrow(() -> new RuntimeException("Producto no encontrado"));
-
-        // Verificar límite de imágenes
-        long currentCount = productImageRepository.countByProductId(productId);
-        if (currentCount + files.length > MAX_IMAGES_PER_PRODUCT) {
-            throw new RuntimeException("Máximo " + MAX_IMAGES_PER_PRODUCT + " imágenes por producto");
-        }
+        // Misma pipeline que la subida asíncrona, esperando a que termine
+        return ingestion.ingest(productId, files);
+    }
 
-        List<ProductImageMetadataDTO> results = new ArrayList<>();
-        boolean isFirstImage = currentCount == 0; // la primera imagen será la primary
-
-        for (MultipartFile file : files) {
-            validateFile(file); // valida tamaño, tipo y contenido
-            
-            byte[] bytes = file.getBytes();
-            String sha256 = calculateSHA256(bytes);
-            
-            // Deduplicar: si ya existe esta imagen (mismo hash), skip
-            Optional<ProductImage> existing = productImageRepository.findByProductIdAndSha256(productId, sha256);
-            if (existing.isPresent()) {
-                log.info("Imagen duplicada detectada para producto {}, sha256: {}", productId, sha256);
-                continue;
-            }
-            
-            // Extraer dimensiones usando ImageIO
-            BufferedImage img = ImageIO.read(new ByteArrayInputStream(bytes));
-            if (img == null) {
-                throw new RuntimeException("No se pudo leer la imagen");
-            }
-            
-            ProductImage productImage = new ProductImage();
-            productImage.setProductId(productId);
-            productImage.setMimeType(file.getContentType());
-            productImage.setBytes(bytes);
-            productImage.setWidth(img.getWidth());
-            productImage.setHeight(img.getHeight());
-            productImage.setSizeBytes((long) bytes.length);
-            productImage.setSha256(sha256);
-            productImage.setIsPrimary(isFirstImage && results.isEmpty()); // auto-primary si es la primera
-            
-            productImage = productImageRepository.save(productImage);
-            
-            results.add(toMetadataDTO(productImage));
-        }
+    @Override
+    public ImageUploadJobDTO uploadImagesAsync(Long productId, MultipartFile[] files) throws IOException {
+        return ingestion.submit(productId, files);
+    }
 
-        return results;
+    @Override
+    public ImageUploadJobDTO getUploadJob(Long productId, String jobId) {
+        return ingestion.getJob(productId, jobId);
     }
 
     @Override
     public List<ProductImageMetadataDTO> getImageMetadata(Long productId) {
         List<ProductImage> images = productImageRepository.findByProductIdOrderByIsPrimaryDescCreatedAtAsc(productId);
-        return images.stream().map(this::toMetadataDTO).toList();
+        return images.stream().map(ProductImageMetadataDTO::from).toList();
     }
 
     @Override
@@ -104,6 +62,26 @@ public class ProductImageServiceImpl implements ProductImageService {
             .orElseThrow(() -> new RuntimeException("Imagen no encontrada"));
     }
 
+    @Override
+    public ServingMetadata getServingMetadata(Long imageId) {
+        return productImageRepository.findServingMetadataById(imageId)
+            .orElseThrow(() -> new RuntimeException("Imagen no encontrada"));
+    }
+
+    @Override
+    public Resource getImageContent(ServingMetadata image, Integer width) throws IOException {
+        // Variantes precalculadas; si se pide un ancho mayor o igual al original, va el original
+        if (isVariantWidth(width) && width < image.getWidth()) {
+            return variants.get(image.getSha256(), image.getMimeType(), width);
+        }
+        return blobStore.get(image.getSha256());
+    }
+
+    @Override
+    public boolean isVariantWidth(Integer width) {
+        return variants.isVariantWidth(width);
+    }
+
     @Override
     @Transactional
     public void deleteImage(Long imageId) {
@@ -111,6 +89,7 @@ public class ProductImageServiceImpl implements ProductImageService {
         boolean wasPrimary = image.getIsPrimary();
         Long productId = image.getProductId();
         
+        // El archivo queda en el store; ImageBlobCollector lo borra si ninguna imagen lo usa
         productImageRepository.delete(image);
         
         // Si borramos la imagen primary, promover la siguiente
@@ -142,7 +121,7 @@ public class ProductImageServiceImpl implements ProductImageService {
     public ProductImageMetadataDTO replaceImage(Long imageId, MultipartFile file) throws IOException {
         ProductImage image = getImageById(imageId);
         
-        validateFile(file);
+        ingestion.validateFile(file);
         
         byte[] bytes = file.getBytes();
         BufferedImage img = ImageIO.read(new ByteArrayInputStream(bytes));
@@ -150,64 +129,19 @@ public class ProductImageServiceImpl implements ProductImageService {
             throw new RuntimeException("No se pudo leer la imagen");
         }
         
+        String sha256 = calculateSHA256(bytes);
+        blobStore.put(sha256, bytes);
+        variants.generate(sha256, file.getContentType(), img);
+        
         image.setMimeType(file.getContentType());
-        image.setBytes(bytes);
         image.setWidth(img.getWidth());
         image.setHeight(img.getHeight());
         image.setSizeBytes((long) bytes.length);
-        image.setSha256(calculateSHA256(bytes));
+        image.setSha256(sha256);
         
         image = productImageRepository.save(image);
         
-        return toMetadataDTO(image);
-    }
-
-    @Override
-    public byte[] getResizedImage(Long imageId, Integer targetWidth) throws IOException {
-        ProductImage image = getImageById(imageId);
-        
-        // Si no se pide resize o ya es más chica, devolver original
-        if (targetWidth == null || targetWidth >= image.getWidth()) {
-            return image.getBytes();
-        }
-        
-        BufferedImage original = ImageIO.read(new ByteArrayInputStream(image.getBytes()));
-        if (original == null) {
-            return image.getBytes();
-        }
-        
-        // Calcular nuevo alto manteniendo aspect ratio
-        int newWidth = targetWidth;
-        int newHeight = (int) ((double) targetWidth / original.getWidth() * original.getHeight());
-        
-        // Resize con interpolación bilinear para calidad
-        BufferedImage resized = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = resized.createGraphics();
-        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g.drawImage(original, 0, 0, newWidth, newHeight, null);
-        g.dispose();
-        
-        // Convertir de vuelta a bytes en el formato original
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        String format = image.getMimeType().substring(6); // "image/jpeg" -> "jpeg"
-        if (format.equals("jpg")) format = "jpeg";
-        ImageIO.write(resized, format, baos);
-        
-        return baos.toByteArray();
-    }
-
-    private void validateFile(MultipartFile file) {
-        if (file.isEmpty()) {
-            throw new RuntimeException("Archivo vacío");
-        }
-        
-        if (file.getSize() > MAX_FILE_SIZE) {
-            throw new RuntimeException("Archivo muy grande. Máximo 5MB");
-        }
-        
-        if (!ALLOWED_MIME_TYPES.contains(file.getContentType())) {
-            throw new RuntimeException("Tipo de archivo no permitido. Solo JPG, PNG, WEBP");
-        }
+        return ProductImageMetadataDTO.from(image);
     }
 
     // Calcular hash SHA-256 para deduplicación y ETags
@@ -226,14 +160,4 @@ public class ProductImageServiceImpl implements ProductImageService {
             throw new RuntimeException("Error calculando SHA-256", e);
         }
     }
-
-    private ProductImageMetadataDTO toMetadataDTO(ProductImage image) {
-        return new ProductImageMetadataDTO(
-            image.getId(),
-            image.getIsPrimary(),
-            image.getWidth(),
-            image.getHeight(),
-            image.getSizeBytes()
-        );
-    }
 }
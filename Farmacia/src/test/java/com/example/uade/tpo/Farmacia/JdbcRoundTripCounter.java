@@ -0,0 +1,88 @@
+package com.example.uade.tpo.Farmacia;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+
+// Envuelve el DataSource (registrado en META-INF/spring.factories de los tests) y cuenta
+// los viajes a la base que hace el hilo que llamó a count: cada execute* y cada executeBatch cuentan uno,
+// vengan de Hibernate o de JdbcTemplate. Un batch JDBC es un viaje (rewriteBatchedStatements en MySQL).
+public class JdbcRoundTripCounter implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+  private static final Set<String> EXECUTE = Set.of(
+      "execute", "executeQuery", "executeUpdate", "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+  private static final ThreadLocal<int[]> ROUND_TRIPS = new ThreadLocal<>();
+
+  public static int count(Runnable action) {
+    int[] roundTrips = new int[1];
+    ROUND_TRIPS.set(roundTrips);
+    try {
+      action.run();
+      return roundTrips[0];
+    } finally {
+      ROUND_TRIPS.remove();
+    }
+  }
+
+  @Override
+  public void initialize(ConfigurableApplicationContext context) {
+    context.getBeanFactory().addBeanPostProcessor(new BeanPostProcessor() {
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        return bean instanceof DataSource dataSource && !(bean instanceof CountingDataSource)
+            ? new CountingDataSource(dataSource) : bean;
+      }
+    });
+  }
+
+  private static final class CountingDataSource extends DelegatingDataSource {
+
+    CountingDataSource(DataSource target) {
+      super(target);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      return proxy(Connection.class, super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+      return proxy(Connection.class, super.getConnection(username, password));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, T target) {
+    InvocationHandler handler = (self, method, args) -> {
+      if (target instanceof Statement && EXECUTE.contains(method.getName())) {
+        int[] roundTrips = ROUND_TRIPS.get();
+        if (roundTrips != null) {
+          roundTrips[0]++;
+        }
+      }
+      Object result;
+      try {
+        result = method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+      // Los statements que crea la conexión también se cuentan
+      if (result instanceof Statement statement && method.getReturnType().isInterface()) {
+        return proxy((Class<Statement>) method.getReturnType(), statement);
+      }
+      return result;
+    };
+    return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler);
+  }
+}
@@ -0,0 +1,33 @@
+package com.example.uade.tpo.Farmacia;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// StatementInspector de Hibernate (registrado en application-test.properties): anota las sentencias que
+// Hibernate prepara en el hilo que llamó a record. Lo que va por JdbcTemplate no pasa por acá.
+public class SqlStatementCounter implements StatementInspector {
+
+  private static final ThreadLocal<List<String>> STATEMENTS = new ThreadLocal<>();
+
+  public static List<String> record(Runnable action) {
+    List<String> statements = new ArrayList<>();
+    STATEMENTS.set(statements);
+    try {
+      action.run();
+      return statements;
+    } finally {
+      STATEMENTS.remove();
+    }
+  }
+
+  @Override
+  public String inspect(String sql) {
+    List<String> statements = STATEMENTS.get();
+    if (statements != null) {
+      statements.add(sql);
+    }
+    return sql;
+  }
+}
@@ -0,0 +1,42 @@
+package com.example.uade.tpo.Farmacia;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+// Datos de prueba insertados por JDBC (la base H2 del perfil "test" se comparte entre clases de test)
+public final class TestData {
+
+  private TestData() {
+  }
+
+  public static long category(JdbcTemplate jdbc, String name) {
+    return insert(jdbc, "INSERT INTO categories (name, description) VALUES (?, 'test')", name);
+  }
+
+  public static long product(JdbcTemplate jdbc, String name, int stock) {
+    long categoryId = category(jdbc, "Categoría " + name);
+    return insert(jdbc, "INSERT INTO products (nombre, descripcion, precio, stock, descuento, requires_prescription, category_id) " +
+        "VALUES (?, 'test', 10, ?, 0, false, ?)", name, stock, categoryId);
+  }
+
+  public static long user(JdbcTemplate jdbc, String email) {
+    return insert(jdbc, "INSERT INTO users (name, password, email, role_id) " +
+        "VALUES (?, 'test', ?, (SELECT id FROM roles WHERE name = 'USER'))", email, email);
+  }
+
+  private static long insert(JdbcTemplate jdbc, String sql, Object... args) {
+    KeyHolder keys = new GeneratedKeyHolder();
+    jdbc.update(con -> {
+      PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+      for (int i = 0; i < args.length; i++) {
+        ps.setObject(i + 1, args[i]);
+      }
+      return ps;
+    }, keys);
+    return keys.getKey().longValue();
+  }
+}
@@ -0,0 +1,67 @@
+package com.example.uade.tpo.Farmacia.controllers;
+
+import com.example.uade.tpo.Farmacia.repository.UserRepository;
+import com.example.uade.tpo.Farmacia.security.JwtService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// GET /orders/all sin limit: el array completo se escribe de a páginas, con varias páginas de por medio
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class OrderControllerAllOrdersTest {
+
+  private static final int ORDERS = 250;
+
+  @Autowired MockMvc mvc;
+  @Autowired JdbcTemplate jdbc;
+  @Autowired JwtService jwt;
+  @Autowired UserRepository users;
+
+  private String bearer;
+
+  @BeforeEach
+  void signIn() {
+    bearer = "Bearer " + jwt.generateToken(users.findByEmail("admin@farmacia.com").orElseThrow());
+  }
+
+  @Test
+  void streamsEveryOrderAcrossPages() throws Exception {
+    Long userId = jdbc.queryForObject("SELECT MIN(id) FROM users", Long.class);
+    for (int i = 0; i < ORDERS; i++) {
+      jdbc.update("INSERT INTO orders (user_id, total, status, payment_status, created_at, delivery_method) " +
+          "VALUES (?, 10, 'PENDING', 'PENDING', DATEADD('SECOND', ?, CURRENT_TIMESTAMP), 'PICKUP')", userId, -i);
+    }
+
+    MvcResult started = mvc.perform(get("/api/v1/orders/all").header("Authorization", bearer).param("deliveryMethod", "pickup"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mvc.perform(asyncDispatch(started))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()", greaterThanOrEqualTo(ORDERS)))
+        .andExpect(jsonPath("$[0].id").isNumber());
+  }
+
+  @Test
+  void invalidFilterStillAnswers400() throws Exception {
+    mvc.perform(get("/api/v1/orders/all").header("Authorization", bearer)
+            .param("from", "2026-02-01T00:00:00Z")
+            .param("to", "2026-01-01T00:00:00Z"))
+        .andExpect(status().isBadRequest());
+  }
+}
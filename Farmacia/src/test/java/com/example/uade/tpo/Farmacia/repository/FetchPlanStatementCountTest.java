@@ -0,0 +1,81 @@
+package com.example.uade.tpo.Farmacia.repository;
+
+import com.example.uade.tpo.Farmacia.SqlStatementCounter;
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.service.CartService;
+import com.example.uade.tpo.Farmacia.service.OrderService;
+import com.example.uade.tpo.Farmacia.service.ProductService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sentencias SQL que Hibernate ejecuta por caso de uso (SqlStatementCounter). Cada caso trabaja con
+ * varios productos de categorías distintas: si un fetch plan se pierde (N+1 sobre items, productos o
+ * categorías) el conteo crece con los datos y el test falla. Si un cambio agrega o quita una consulta
+ * a propósito, se actualiza el número acá.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class FetchPlanStatementCountTest {
+
+  private static final int PRODUCTS = 3;
+
+  @Autowired CartService cartService;
+  @Autowired OrderService orderService;
+  @Autowired ProductService productService;
+  @Autowired JdbcTemplate jdbc;
+
+  private final List<Long> productIds = new ArrayList<>();
+
+  @BeforeEach
+  void products() {
+    // TestData.product crea una categoría por producto
+    for (int i = 0; i < PRODUCTS; i++) {
+      productIds.add(TestData.product(jdbc, "Fetch plan " + i + " " + System.nanoTime(), 100));
+    }
+  }
+
+  @Test
+  void productReads() {
+    assertThat(SqlStatementCounter.record(() -> productService.list(null, null, null, null))).hasSize(1);
+    assertThat(SqlStatementCounter.record(() -> productService.get(productIds.get(0)))).hasSize(1);
+    // página + COUNT
+    assertThat(SqlStatementCounter.record(() -> productService.page(null, null, null, "id", null, 20, true))).hasSize(2);
+  }
+
+  @Test
+  void checkout() {
+    String email = "fetch-plan-" + System.nanoTime() + "@test.com";
+    TestData.user(jdbc, email);
+    productIds.forEach(id -> cartService.addItemByParams(email, id, 1));
+
+    // usuario + rol, carrito con ítems/productos/categorías en un JOIN, INSERT de la orden, UPDATE del carrito
+    // (la reserva de stock y los ítems de la orden van por JdbcTemplate)
+    assertThat(SqlStatementCounter.record(() -> cartService.checkout(email))).hasSize(5);
+  }
+
+  @Test
+  void orderReads() {
+    String email = "fetch-plan-orders-" + System.nanoTime() + "@test.com";
+    long userId = TestData.user(jdbc, email);
+    jdbc.update("INSERT INTO orders (user_id, total, status, payment_status, payment_method, created_at, delivery_method) " +
+        "VALUES (?, 30, 'PENDING', 'PENDING', 'CASH', CURRENT_TIMESTAMP, 'PICKUP')", userId);
+    long orderId = jdbc.queryForObject("SELECT id FROM orders WHERE user_id = ?", Long.class, userId);
+    productIds.forEach(id -> jdbc.update(
+        "INSERT INTO order_items (order_id, product_id, quantity, unit_price, line_total) VALUES (?, ?, 1, 10, 10)", orderId, id));
+
+    assertThat(SqlStatementCounter.record(() -> orderService.myOrdersDTO(email))).hasSize(1);
+    assertThat(SqlStatementCounter.record(() -> orderService.getUserOrderDTO(orderId, email))).hasSize(1);
+    // filas de la orden, UPDATE de estado, UPDATE del pago en efectivo y filas actualizadas
+    assertThat(SqlStatementCounter.record(() -> orderService.markPickupComplete(orderId))).hasSize(4);
+  }
+}
@@ -0,0 +1,99 @@
+package com.example.uade.tpo.Farmacia.repository;
+
+import com.example.uade.tpo.Farmacia.JdbcRoundTripCounter;
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.controllers.dto.CreateOrderRequest;
+import com.example.uade.tpo.Farmacia.controllers.dto.CreateOrderResponse;
+import com.example.uade.tpo.Farmacia.service.OrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Viajes a la base por orden creada (JdbcRoundTripCounter): usuario y su rol, productos con su categoría, reserva
+ * de stock en batch, INSERT de la orden y un batch de items cada farmacia.orders.batch-size líneas. El número no
+ * depende de la cantidad de líneas hasta pasar el tamaño del batch. También deja en el log la latencia para 1, 10
+ * y 50 líneas.
+ */
+@Slf4j
+@SpringBootTest
+@ActiveProfiles("test")
+class OrderBatchWriterTest {
+
+  private static final int ROUND_TRIPS_PER_ORDER = 6;
+  private static final int MAX_LINES = 51;
+  private static final int TIMED_ORDERS = 20;
+
+  @Autowired OrderService orderService;
+  @Autowired JdbcTemplate jdbc;
+
+  private final List<Long> productIds = new ArrayList<>();
+  private String email;
+
+  @BeforeEach
+  void catalog() {
+    email = "batch-writer-" + System.nanoTime() + "@test.com";
+    TestData.user(jdbc, email);
+    for (int i = 0; i < MAX_LINES; i++) {
+      productIds.add(TestData.product(jdbc, "Batch writer " + i + " " + System.nanoTime(), 1000));
+    }
+  }
+
+  @Test
+  void roundTripsDoNotGrowWithTheLines() {
+    for (int lines : new int[] {1, 10, 50}) {
+      CreateOrderResponse[] order = new CreateOrderResponse[1];
+      int roundTrips = JdbcRoundTripCounter.count(() -> order[0] = orderService.createOrder(email, request(lines)));
+
+      assertThat(roundTrips).as("%d líneas", lines).isEqualTo(ROUND_TRIPS_PER_ORDER);
+      assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM order_items WHERE order_id = ?", Integer.class, order[0].getOrderId()))
+          .isEqualTo(lines);
+      assertThat(jdbc.queryForObject("SELECT SUM(line_total) FROM order_items WHERE order_id = ?", BigDecimal.class, order[0].getOrderId()))
+          .isEqualByComparingTo(order[0].getTotal());
+    }
+
+    // Una línea más que el batch: un segundo batch de items
+    assertThat(JdbcRoundTripCounter.count(() -> orderService.createOrder(email, request(MAX_LINES))))
+        .isEqualTo(ROUND_TRIPS_PER_ORDER + 1);
+  }
+
+  @Test
+  void latencyPerOrderSize() {
+    for (int lines : new int[] {1, 10, 50}) {
+      orderService.createOrder(email, request(lines));
+      long begin = System.nanoTime();
+      for (int i = 0; i < TIMED_ORDERS; i++) {
+        orderService.createOrder(email, request(lines));
+      }
+      long micros = (System.nanoTime() - begin) / 1000 / TIMED_ORDERS;
+      log.info("📊 Orden de {} líneas: {} µs promedio en {} órdenes", lines, micros, TIMED_ORDERS);
+    }
+    assertThat(jdbc.queryForObject("SELECT stock FROM products WHERE id = ?", Integer.class, productIds.get(0)))
+        .isEqualTo(1000 - 3 * (TIMED_ORDERS + 1));
+  }
+
+  private CreateOrderRequest request(int lines) {
+    CreateOrderRequest request = new CreateOrderRequest();
+    request.setDeliveryMethod("PICKUP");
+    request.setPaymentMethod("CASH");
+    List<CreateOrderRequest.OrderItemRequest> items = new ArrayList<>();
+    for (int i = 0; i < lines; i++) {
+      CreateOrderRequest.OrderItemRequest item = new CreateOrderRequest.OrderItemRequest();
+      item.setProductId(productIds.get(i));
+      item.setQuantity(1);
+      items.add(item);
+    }
+    request.setItems(items);
+    return request;
+  }
+}
@@ -0,0 +1,78 @@
+package com.example.uade.tpo.Farmacia.repository;
+
+import com.example.uade.tpo.Farmacia.SqlStatementCounter;
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.entity.Order;
+import com.example.uade.tpo.Farmacia.service.OrderFilter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class OrderConsoleQueryTest {
+
+  @Autowired OrderConsoleQuery consoleQuery;
+  @Autowired TransactionTemplate tx;
+  @Autowired JdbcTemplate jdbc;
+
+  // Cada filtro solo genera su condición y la base resuelve la página con su índice compuesto (plan de H2)
+  @Test
+  void eachFilterUsesItsCompositeIndex() {
+    assertThat(plan(new OrderFilter(Order.Status.PENDING, null, null, null, null, null), "PENDING"))
+        .contains("idx_orders_status_created_id");
+    assertThat(plan(new OrderFilter(null, Order.PaymentStatus.PAID, null, null, null, null), "PAID"))
+        .contains("idx_orders_payment_created_id");
+    assertThat(plan(new OrderFilter(null, null, "PICKUP", null, null, null), "PICKUP"))
+        .contains("idx_orders_delivery_created_id");
+    assertThat(plan(new OrderFilter(null, null, null, 1L, null, null), 1L))
+        .contains("idx_orders_user_created_id");
+  }
+
+  @Test
+  void pagesThroughTheFilteredOrdersNewestFirst() {
+    long userId = TestData.user(jdbc, "consola-" + System.nanoTime() + "@test.com");
+    Instant base = Instant.now().truncatedTo(ChronoUnit.SECONDS).minus(1, ChronoUnit.HOURS);
+    List<Long> pending = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      pending.add(0, order(userId, "PENDING", base.plusSeconds(i)));
+      order(userId, "CANCELLED", base.plusSeconds(i));
+    }
+    Instant from = base.plusSeconds(1);
+    OrderFilter filter = new OrderFilter(Order.Status.PENDING, null, null, userId, from, null);
+
+    List<Long> first = tx.execute(status -> consoleQuery.pageIds(filter, null, null, 2));
+    Instant lastCreatedAt = jdbc.queryForObject("SELECT created_at FROM orders WHERE id = ?", Timestamp.class, first.get(1)).toInstant();
+    List<Long> second = tx.execute(status -> consoleQuery.pageIds(filter, lastCreatedAt, first.get(1), 10));
+
+    assertThat(first).containsExactlyElementsOf(pending.subList(0, 2));
+    assertThat(second).containsExactlyElementsOf(pending.subList(2, 4));
+    Long filtered = tx.execute(status -> consoleQuery.count(filter));
+    Long all = tx.execute(status -> consoleQuery.count(new OrderFilter(null, null, null, userId, null, null)));
+    assertThat(filtered).isEqualTo(4);
+    assertThat(all).isEqualTo(10);
+  }
+
+  private String plan(OrderFilter filter, Object value) {
+    List<String> sql = SqlStatementCounter.record(() -> tx.execute(status -> consoleQuery.pageIds(filter, null, null, 20)));
+    assertThat(sql.get(0)).doesNotContainIgnoringCase("is null");
+    return jdbc.queryForObject("EXPLAIN " + sql.get(0), String.class, value, 20);
+  }
+
+  private long order(long userId, String status, Instant createdAt) {
+    jdbc.update("INSERT INTO orders (user_id, total, status, payment_status, payment_method, created_at, delivery_method) " +
+        "VALUES (?, 10, ?, 'PENDING', 'CASH', ?, 'PICKUP')", userId, status, Timestamp.from(createdAt));
+    return jdbc.queryForObject("SELECT MAX(id) FROM orders WHERE user_id = ?", Long.class, userId);
+  }
+}
@@ -0,0 +1,120 @@
+package com.example.uade.tpo.Farmacia.repository;
+
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.controllers.dto.OrderDTO;
+import com.example.uade.tpo.Farmacia.controllers.dto.OrderItemDTO;
+import com.example.uade.tpo.Farmacia.entity.Order;
+import com.example.uade.tpo.Farmacia.service.OrderFilter;
+import com.example.uade.tpo.Farmacia.service.OrderService;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Lecturas de órdenes como filas planas (OrderLineRow) contra cargar las entidades, medido con las estadísticas
+ * de Hibernate sobre una orden de varias líneas: la proyección es una sola sentencia y no hidrata ninguna entidad.
+ */
+@Slf4j
+@SpringBootTest
+@ActiveProfiles("test")
+class OrderProjectionTest {
+
+  private static final int LINES = 20;
+  private static final int READS = 200;
+
+  @Autowired OrderService orderService;
+  @Autowired OrderRepository orders;
+  @Autowired JdbcTemplate jdbc;
+  @Autowired TransactionTemplate tx;
+  @Autowired EntityManagerFactory entityManagerFactory;
+
+  private Statistics statistics;
+  private String email;
+  private long userId;
+  private long orderId;
+
+  @BeforeEach
+  void order() {
+    email = "proyeccion-" + System.nanoTime() + "@test.com";
+    userId = TestData.user(jdbc, email);
+    jdbc.update("INSERT INTO orders (user_id, total, status, payment_status, payment_method, created_at, delivery_method) " +
+        "VALUES (?, ?, 'PENDING', 'PENDING', 'CASH', CURRENT_TIMESTAMP, 'PICKUP')", userId, 10 * LINES);
+    orderId = jdbc.queryForObject("SELECT id FROM orders WHERE user_id = ?", Long.class, userId);
+    for (int i = 0; i < LINES; i++) {
+      // TestData.product crea una categoría por producto
+      long productId = TestData.product(jdbc, "Proyección " + i + " " + System.nanoTime(), 10);
+      jdbc.update("INSERT INTO order_items (order_id, product_id, quantity, unit_price, line_total) VALUES (?, ?, 1, 10, 10)",
+          orderId, productId);
+    }
+
+    statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.setStatisticsEnabled(true);
+    statistics.clear();
+  }
+
+  @AfterEach
+  void disableStatistics() {
+    statistics.setStatisticsEnabled(false);
+  }
+
+  @Test
+  void projectionsLoadNoEntities() {
+    List<OrderDTO> mine = orderService.myOrdersDTO(email);
+    assertThat(mine).singleElement().satisfies(order -> {
+      assertThat(order.items()).hasSize(LINES);
+      assertThat(order.items()).extracting(OrderItemDTO::productName).allMatch(name -> name.startsWith("Proyección"));
+    });
+    assertThat(orderService.getUserOrderDTO(orderId, email).items()).hasSize(LINES);
+    assertThat(orderService.byUserIdDTO(userId)).hasSize(1);
+    assertThat(orderService.pageAllOrdersDTO(new OrderFilter(null, null, null, userId, null, null), null, 20, false)
+        .items()).hasSize(1);
+
+    // myOrders, una orden, por userId y la página de la consola (ids + filas)
+    assertThat(statistics.getPrepareStatementCount()).isEqualTo(5);
+    assertThat(statistics.getEntityLoadCount()).isZero();
+  }
+
+  // Lo que hacía la lectura por entidades: orden, usuario y rol, items, productos y categorías en el contexto
+  @Test
+  void entityReadHydratesTheWholeGraph() {
+    tx.executeWithoutResult(status -> orders.findById(orderId).orElseThrow().getItems()
+        .forEach(item -> item.getProduct().getNombre()));
+
+    assertThat(statistics.getEntityLoadCount()).isEqualTo(3 + 3L * LINES);
+  }
+
+  @Test
+  void latencyAgainstEntityRead() {
+    long begin = System.nanoTime();
+    for (int i = 0; i < READS; i++) {
+      orderService.myOrdersDTO(email);
+    }
+    long projectionMicros = (System.nanoTime() - begin) / 1000 / READS;
+
+    begin = System.nanoTime();
+    for (int i = 0; i < READS; i++) {
+      tx.executeWithoutResult(status -> {
+        Order order = orders.findById(orderId).orElseThrow();
+        order.getItems().forEach(item -> item.getProduct().getNombre());
+      });
+    }
+    long entityMicros = (System.nanoTime() - begin) / 1000 / READS;
+
+    log.info("📊 Orden de {} líneas: proyección {} µs, entidades {} µs (promedio de {} lecturas)",
+        LINES, projectionMicros, entityMicros, READS);
+    assertThat(statistics.getEntityLoadCount()).isEqualTo(READS * (3 + 3L * LINES));
+  }
+}
@@ -0,0 +1,50 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import com.example.uade.tpo.Farmacia.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Un thread y lugar para uno en la cola: el tercer hash simultáneo se rechaza y los aceptados terminan siempre
+class BoundedPasswordEncoderTest {
+
+   private static final int STRENGTH = 12;
+
+   private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+   private final BoundedPasswordEncoder encoder = new BoundedPasswordEncoder(STRENGTH, 1, 1, registry);
+   private final String hash = new BCryptPasswordEncoder(STRENGTH).encode("secreta");
+
+   @AfterEach
+   void shutdown() {
+      encoder.shutdown();
+   }
+
+   @Test
+   void rejectsWhatDoesNotFitAndFinishesWhatWasAccepted() throws Exception {
+      CompletableFuture<Boolean> running = CompletableFuture.supplyAsync(() -> encoder.matches("secreta", hash));
+      awaitGauge("farmacia.auth.hash.active", 1);
+      CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> encoder.matches("secreta", hash));
+      awaitGauge("farmacia.auth.hash.queue", 1);
+
+      assertThatThrownBy(() -> encoder.matches("secreta", hash)).isInstanceOf(TooManyRequestsException.class);
+      assertThat(registry.counter("farmacia.auth.hash.rejected").count()).isEqualTo(1);
+
+      // Sin timeout: el que esperó en la cola recibe su resultado aunque tarde más de un hash
+      assertThat(running.get(30, TimeUnit.SECONDS)).isTrue();
+      assertThat(queued.get(30, TimeUnit.SECONDS)).isTrue();
+   }
+
+   private void awaitGauge(String name, double value) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (registry.get(name).gauge().value() != value && System.currentTimeMillis() < deadline) {
+         Thread.sleep(5);
+      }
+      assertThat(registry.get(name).gauge().value()).isEqualTo(value);
+   }
+}
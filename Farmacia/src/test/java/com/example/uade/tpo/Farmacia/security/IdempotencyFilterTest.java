@@ -0,0 +1,129 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// El filtro se llama directo con una cadena falsa que responde como POST /api/v1/orders (201 + Location)
+@SpringBootTest
+@ActiveProfiles("test")
+class IdempotencyFilterTest {
+
+   private static final String BODY = "{\"items\":[{\"productId\":1,\"quantity\":2}]}";
+
+   @Autowired IdempotencyFilter filter;
+   @Autowired JdbcTemplate jdbc;
+   @Autowired ObjectMapper objectMapper;
+   @Autowired MeterRegistry registry;
+
+   private final AtomicInteger executions = new AtomicInteger();
+
+   @BeforeEach
+   void signIn() {
+      SecurityContextHolder.getContext().setAuthentication(
+         new UsernamePasswordAuthenticationToken("cliente@farmacia.com", null, List.of()));
+   }
+
+   @AfterEach
+   void signOut() {
+      SecurityContextHolder.clearContext();
+   }
+
+   @Test
+   void replayKeepsLocationHeader() throws Exception {
+      String key = UUID.randomUUID().toString();
+
+      MockHttpServletResponse first = post(filter, key);
+      assertThat(first.getStatus()).isEqualTo(201);
+      assertThat(first.getHeader("Location")).isEqualTo("/api/v1/orders/42");
+
+      MockHttpServletResponse replay = post(filter, key);
+      assertThat(replay.getStatus()).isEqualTo(201);
+      assertThat(replay.getHeader("Location")).isEqualTo("/api/v1/orders/42");
+      assertThat(replay.getHeader(IdempotencyFilter.REPLAYED_HEADER)).isEqualTo("true");
+      assertThat(replay.getContentAsString()).isEqualTo("{\"id\":42}");
+
+      // Otro nodo (sin copia local) lee la respuesta, headers incluidos, de idempotency_keys
+      IdempotencyFilter otherNode = new IdempotencyFilter(new IdempotencyStore(jdbc, registry, 24, 60, 100), objectMapper, registry,
+         List.of("/api/v1/orders"), List.of("Location"), 65536, 1000);
+      MockHttpServletResponse fromDb = post(otherNode, key);
+      assertThat(fromDb.getStatus()).isEqualTo(201);
+      assertThat(fromDb.getHeader("Location")).isEqualTo("/api/v1/orders/42");
+
+      assertThat(executions).hasValue(1);
+   }
+
+   private MockHttpServletResponse post(IdempotencyFilter target, String key) throws Exception {
+      MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/v1/orders");
+      request.addHeader(IdempotencyFilter.HEADER, key);
+      request.setContentType("application/json");
+      request.setContent(BODY.getBytes(StandardCharsets.UTF_8));
+      MockHttpServletResponse response = new MockHttpServletResponse();
+      target.doFilter(request, response, createOrder());
+      return response;
+   }
+
+   // El controller lee el body con la API asíncrona (setReadListener) y responde 201 con Location
+   private FilterChain createOrder() {
+      return (req, res) -> {
+         executions.incrementAndGet();
+         ServletInputStream in = req.getInputStream();
+         ByteArrayOutputStream body = new ByteArrayOutputStream();
+         AtomicInteger completed = new AtomicInteger();
+         in.setReadListener(new ReadListener() {
+            @Override
+            public void onDataAvailable() throws IOException {
+               byte[] buffer = new byte[8];
+               while (in.isReady() && !in.isFinished()) {
+                  int n = in.read(buffer);
+                  if (n < 0) {
+                     break;
+                  }
+                  body.write(buffer, 0, n);
+               }
+            }
+
+            @Override
+            public void onAllDataRead() {
+               completed.incrementAndGet();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+               throw new AssertionError(t);
+            }
+         });
+         assertThat(completed).hasValue(1);
+         assertThat(body.toString(StandardCharsets.UTF_8)).isEqualTo(BODY);
+
+         HttpServletResponse response = (HttpServletResponse) res;
+         response.setStatus(201);
+         response.setHeader("Location", "/api/v1/orders/42");
+         response.setContentType("application/json");
+         response.getOutputStream().write("{\"id\":42}".getBytes(StandardCharsets.UTF_8));
+      };
+   }
+}
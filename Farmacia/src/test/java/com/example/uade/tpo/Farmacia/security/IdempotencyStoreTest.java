@@ -0,0 +1,101 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import com.example.uade.tpo.Farmacia.JdbcRoundTripCounter;
+import com.example.uade.tpo.Farmacia.security.IdempotencyStore.Claim;
+import com.example.uade.tpo.Farmacia.security.IdempotencyStore.Outcome;
+import com.example.uade.tpo.Farmacia.security.IdempotencyStore.StoredResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Cada IdempotencyStore es un nodo distinto: solo comparten la tabla idempotency_keys
+@SpringBootTest
+@ActiveProfiles("test")
+class IdempotencyStoreTest {
+
+   private static final String REQUEST = "hash-del-body";
+
+   @Autowired JdbcTemplate jdbc;
+
+   private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+   // El primer nodo se pausa más que lock-seconds, otro toma la key y termina: el primero no pisa su respuesta
+   @Test
+   void lostClaimDoesNotOverwriteTheNewOwner() {
+      String key = UUID.randomUUID().toString();
+      IdempotencyStore paused = node(100);
+      IdempotencyStore other = node(100);
+      Claim first = paused.claim(key, REQUEST);
+      expireLock(key);
+
+      Claim second = other.claim(key, REQUEST);
+      assertThat(second.outcome()).isEqualTo(Outcome.CLAIMED);
+      assertThat(other.complete(key, second.token(), response(201, "segundo"))).isTrue();
+
+      assertThat(paused.complete(key, first.token(), response(201, "primero"))).isFalse();
+      paused.release(key, first.token());
+      assertThat(registry.counter("farmacia.idempotency.claims.lost").count()).isEqualTo(1);
+      assertThat(body(node(100).claim(key, REQUEST))).isEqualTo("segundo");
+   }
+
+   // Un request que dura más que lock-seconds conserva la key mientras su nodo la renueva
+   @Test
+   void heartbeatKeepsALongRequestClaimed() {
+      String key = UUID.randomUUID().toString();
+      IdempotencyStore running = node(100);
+      Claim claim = running.claim(key, REQUEST);
+      expireLock(key);
+
+      running.renewClaims();
+
+      assertThat(node(100).claim(key, REQUEST).outcome()).isEqualTo(Outcome.IN_PROGRESS);
+      assertThat(running.complete(key, claim.token(), response(201, "largo"))).isTrue();
+   }
+
+   // La copia local es un LRU: al llenarse sale la menos usada y esa se vuelve a leer de la DB
+   @Test
+   void localCopyKeepsTheMostRecentlyUsedResponses() {
+      IdempotencyStore store = node(2);
+      String oldest = completed(store, "a");
+      String used = completed(store, "b");
+      store.claim(used, REQUEST);
+      String newest = completed(store, "c");
+
+      assertThat(JdbcRoundTripCounter.count(() -> store.claim(used, REQUEST))).isZero();
+      assertThat(JdbcRoundTripCounter.count(() -> store.claim(newest, REQUEST))).isZero();
+      assertThat(JdbcRoundTripCounter.count(() -> store.claim(oldest, REQUEST))).isPositive();
+      assertThat(body(store.claim(oldest, REQUEST))).isEqualTo("a");
+   }
+
+   private IdempotencyStore node(int maxLocalEntries) {
+      return new IdempotencyStore(jdbc, registry, 24, 60, maxLocalEntries);
+   }
+
+   private String completed(IdempotencyStore store, String body) {
+      String key = UUID.randomUUID().toString();
+      Claim claim = store.claim(key, REQUEST);
+      store.complete(key, claim.token(), response(200, body));
+      return key;
+   }
+
+   private void expireLock(String key) {
+      jdbc.update("UPDATE idempotency_keys SET expires_at = DATEADD('SECOND', -1, CURRENT_TIMESTAMP) WHERE key_hash = ?", key);
+   }
+
+   private static StoredResponse response(int status, String body) {
+      return new StoredResponse(REQUEST, status, "application/json", Map.of(), body.getBytes(StandardCharsets.UTF_8));
+   }
+
+   private static String body(Claim claim) {
+      assertThat(claim.outcome()).isEqualTo(Outcome.COMPLETED);
+      return new String(claim.response().body(), StandardCharsets.UTF_8);
+   }
+}
@@ -0,0 +1,77 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.controllers.dto.UpdateUserRoleRequest;
+import com.example.uade.tpo.Farmacia.repository.UserRepository;
+import com.example.uade.tpo.Farmacia.service.AdminUserService;
+import java.util.Base64;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Dos nodos con el mismo key ring y la misma DB: el token firmado en uno vale en el otro, y un cambio de rol
+// o una baja hechos por el admin en cualquier nodo también
+@SpringBootTest
+@ActiveProfiles("test")
+class JwtClusterRevocationTest {
+
+   private static final String KEY = Base64.getEncoder().encodeToString("cluster-key-cluster-key-cluster!".getBytes());
+
+   @Autowired AdminUserService adminUserService;
+   @Autowired UserRepository userRepository;
+   @Autowired JdbcTemplate jdbc;
+
+   private record Node(JwtService jwt, JwtPrincipalResolver resolver) {
+      JwtPrincipal authenticate(String token) {
+         return resolver.resolve(jwt.verify(token));
+      }
+   }
+
+   @Test
+   void demotionAppliesOnEveryNode() {
+      String email = "admin-degradado-" + System.nanoTime() + "@test.com";
+      long userId = admin(email);
+      String token = node().jwt().generateToken(userRepository.findByEmail(email).orElseThrow());
+      assertThat(node().authenticate(token).roles()).containsExactly("ROLE_ADMIN");
+
+      adminUserService.updateUserRole(userId, new UpdateUserRoleRequest(roleId("USER")));
+
+      assertThat(node().authenticate(token).roles()).containsExactly("ROLE_USER");
+   }
+
+   @Test
+   void deletedUserIsRejectedOnEveryNode() {
+      String email = "admin-borrado-" + System.nanoTime() + "@test.com";
+      long userId = admin(email);
+      String token = node().jwt().generateToken(userRepository.findByEmail(email).orElseThrow());
+
+      adminUserService.deleteUser(userId);
+
+      assertThatThrownBy(() -> node().authenticate(token)).isInstanceOf(UsernameNotFoundException.class);
+   }
+
+   // Nodo nuevo (o reiniciado): sin nada en memoria de lo que pasó en los demás
+   private Node node() {
+      JwtService jwt = new JwtService(new JwtKeyRing(new JwtKeyProperties("cluster", Map.of("cluster", KEY))));
+      ReflectionTestUtils.setField(jwt, "jwtExpiration", 60_000L);
+      return new Node(jwt, new JwtPrincipalResolver(userRepository, 30));
+   }
+
+   private long admin(String email) {
+      long userId = TestData.user(jdbc, email);
+      jdbc.update("UPDATE users SET role_id = ? WHERE id = ?", roleId("ADMIN"), userId);
+      return userId;
+   }
+
+   private long roleId(String name) {
+      return jdbc.queryForObject("SELECT id FROM roles WHERE name = ?", Long.class, name);
+   }
+}
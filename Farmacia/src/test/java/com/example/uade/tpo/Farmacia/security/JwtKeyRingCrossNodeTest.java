@@ -0,0 +1,83 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import io.jsonwebtoken.security.SignatureException;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Dos contextos de Spring independientes (dos "nodos") armados con las mismas properties
+class JwtKeyRingCrossNodeTest {
+
+   private static final String OLD_KEY = key("old-key-old-key-old-key-old-key!");
+   private static final String NEW_KEY = key("new-key-new-key-new-key-new-key!");
+
+   private final UserDetails user = User.withUsername("cliente@farmacia.com").password("x").roles("USER").build();
+
+   @Configuration
+   @EnableConfigurationProperties(JwtKeyProperties.class)
+   @Import({ JwtKeyRing.class, JwtService.class })
+   static class JwtConfig {
+   }
+
+   private static ApplicationContextRunner node(String activeKeyId, String... keys) {
+      ApplicationContextRunner runner = new ApplicationContextRunner()
+         .withUserConfiguration(JwtConfig.class)
+         .withPropertyValues("application.security.jwt.signing.active-key-id=" + activeKeyId);
+      for (String key : keys) {
+         runner = runner.withPropertyValues("application.security.jwt.signing.keys." + key);
+      }
+      return runner;
+   }
+
+   @Test
+   void tokenSignedOnOneNodeVerifiesOnAnother() {
+      String token = sign(node("2026-01", "2026-01=" + OLD_KEY));
+
+      node("2026-01", "2026-01=" + OLD_KEY).run(ctx ->
+         assertThat(ctx.getBean(JwtService.class).verify(token).subject()).isEqualTo("cliente@farmacia.com"));
+   }
+
+   @Test
+   void rotationKeepsOldTokensValidUntilTheKeyIsRemoved() {
+      String oldToken = sign(node("2026-01", "2026-01=" + OLD_KEY));
+
+      // Nodo ya rotado: firma con la nueva pero sigue verificando con la anterior
+      node("2026-02", "2026-01=" + OLD_KEY, "2026-02=" + NEW_KEY).run(ctx -> {
+         JwtService jwt = ctx.getBean(JwtService.class);
+         assertThat(jwt.verify(oldToken).subject()).isEqualTo("cliente@farmacia.com");
+         assertThat(jwt.verify(jwt.generateToken(user)).subject()).isEqualTo("cliente@farmacia.com");
+      });
+
+      // Clave vieja retirada: sus tokens dejan de valer
+      node("2026-02", "2026-02=" + NEW_KEY).run(ctx ->
+         assertThatThrownBy(() -> ctx.getBean(JwtService.class).verify(oldToken)).isInstanceOf(SignatureException.class));
+   }
+
+   @Test
+   void nodesWithEphemeralKeysDoNotShareTokens() {
+      ApplicationContextRunner unconfigured = new ApplicationContextRunner().withUserConfiguration(JwtConfig.class);
+      String token = sign(unconfigured);
+
+      unconfigured.run(ctx ->
+         assertThatThrownBy(() -> ctx.getBean(JwtService.class).verify(token)).isInstanceOf(SignatureException.class));
+   }
+
+   private String sign(ApplicationContextRunner node) {
+      AtomicReference<String> token = new AtomicReference<>();
+      node.run(ctx -> token.set(ctx.getBean(JwtService.class).generateToken(user)));
+      return token.get();
+   }
+
+   private static String key(String raw) {
+      return Base64.getEncoder().encodeToString(raw.getBytes());
+   }
+}
@@ -0,0 +1,85 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.repository.UserRepository;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Cada JwtPrincipalResolver es un nodo distinto (o el mismo después de reiniciar): solo comparten la DB
+@SpringBootTest
+@ActiveProfiles("test")
+class JwtPrincipalResolverTest {
+
+   @Autowired UserRepository userRepository;
+   @Autowired JdbcTemplate jdbc;
+
+   @Test
+   void demotionOnOneNodeIsEnforcedByAFreshNode() {
+      String email = "degradado-" + System.nanoTime() + "@test.com";
+      long userId = TestData.user(jdbc, email);
+      // Emitido cuando todavía era ADMIN
+      VerifiedToken token = token(userId, email, Instant.now().minusSeconds(60));
+      assertThat(node(30).resolve(token).roles()).containsExactly("ROLE_ADMIN");
+
+      node(30).revoke(userId, email);
+
+      assertThat(node(30).resolve(token).roles()).containsExactly("ROLE_USER");
+   }
+
+   @Test
+   void deletedUserIsRejectedByAFreshNode() {
+      String email = "borrado-" + System.nanoTime() + "@test.com";
+      long userId = TestData.user(jdbc, email);
+      VerifiedToken token = token(userId, email, Instant.now().minusSeconds(60));
+
+      node(30).revoke(userId, email);
+      jdbc.update("DELETE FROM users WHERE id = ?", userId);
+
+      assertThatThrownBy(() -> node(30).resolve(token)).isInstanceOf(UsernameNotFoundException.class);
+   }
+
+   // Un nodo que ya tenía el dato en cache lo relee al vencer el TTL
+   @Test
+   void runningNodeSeesTheRevocationAfterItsCacheExpires() {
+      String email = "otro-nodo-" + System.nanoTime() + "@test.com";
+      long userId = TestData.user(jdbc, email);
+      VerifiedToken token = token(userId, email, Instant.now().minusSeconds(60));
+      JwtPrincipalResolver running = node(0);
+      assertThat(running.resolve(token).roles()).containsExactly("ROLE_ADMIN");
+
+      node(30).revoke(userId, email);
+
+      assertThat(running.resolve(token).roles()).containsExactly("ROLE_USER");
+   }
+
+   @Test
+   void tokensIssuedAfterTheRevocationUseTheirClaims() {
+      String email = "nuevo-token-" + System.nanoTime() + "@test.com";
+      long userId = TestData.user(jdbc, email);
+      node(30).revoke(userId, email);
+
+      // iat se trunca a segundos: el siguiente segundo completo ya es posterior a la revocación
+      VerifiedToken token = token(userId, email, Instant.now().plusSeconds(1).truncatedTo(ChronoUnit.SECONDS));
+      assertThat(node(30).resolve(token).roles()).containsExactly("ROLE_ADMIN");
+   }
+
+   private JwtPrincipalResolver node(long cacheTtlSeconds) {
+      return new JwtPrincipalResolver(userRepository, cacheTtlSeconds);
+   }
+
+   private static VerifiedToken token(long userId, String email, Instant issuedAt) {
+      Instant iat = issuedAt.truncatedTo(ChronoUnit.SECONDS);
+      return new VerifiedToken(email, userId, List.of("ROLE_ADMIN"), iat, iat.plus(Duration.ofDays(1)));
+   }
+}
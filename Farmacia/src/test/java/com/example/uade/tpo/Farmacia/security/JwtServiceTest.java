@@ -0,0 +1,70 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.security.SignatureException;
+import java.util.Base64;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtServiceTest {
+
+   static final String KEY = Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef".getBytes());
+
+   private final UserDetails user = User.withUsername("cliente@farmacia.com").password("x").roles("USER").build();
+   private JwtService jwt;
+
+   @BeforeEach
+   void setUp() {
+      jwt = service(60_000);
+   }
+
+   @Test
+   void verifyReturnsAllClaimsFromASingleParse() {
+      VerifiedToken token = jwt.verify(jwt.generateToken(user));
+
+      assertThat(token.subject()).isEqualTo("cliente@farmacia.com");
+      assertThat(token.roles()).containsExactly("ROLE_USER");
+      assertThat(token.issuedAt()).isNotNull();
+      assertThat(token.expiresAt()).isAfter(token.issuedAt());
+   }
+
+   @Test
+   void rejectsTamperedPayload() {
+      String[] parts = jwt.generateToken(user).split("\\.");
+      String forged = Base64.getUrlEncoder().withoutPadding().encodeToString(
+         new String(Base64.getUrlDecoder().decode(parts[1])).replace("cliente@", "admin@").getBytes());
+
+      assertThatThrownBy(() -> jwt.verify(parts[0] + "." + forged + "." + parts[2]))
+         .isInstanceOf(SignatureException.class);
+   }
+
+   @Test
+   void rejectsTamperedSignature() {
+      String token = jwt.generateToken(user);
+      char last = token.charAt(token.length() - 2);
+      String forged = token.substring(0, token.length() - 2) + (last == 'A' ? 'B' : 'A') + token.charAt(token.length() - 1);
+
+      assertThatThrownBy(() -> jwt.verify(forged)).isInstanceOf(JwtException.class);
+   }
+
+   @Test
+   void rejectsExpiredToken() {
+      String expired = service(-1_000).generateToken(user);
+
+      assertThatThrownBy(() -> jwt.verify(expired)).isInstanceOf(ExpiredJwtException.class);
+   }
+
+   private static JwtService service(long expirationMillis) {
+      JwtService service = new JwtService(new JwtKeyRing(new JwtKeyProperties("k1", Map.of("k1", KEY))));
+      ReflectionTestUtils.setField(service, "jwtExpiration", expirationMillis);
+      return service;
+   }
+}
@@ -0,0 +1,53 @@
+package com.example.uade.tpo.Farmacia.security;
+
+import com.example.uade.tpo.Farmacia.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LoginAttemptThrottleTest {
+
+   private static final String SHOP_NAT = "200.45.10.1";
+
+   private final LoginAttemptThrottle throttle =
+      new LoginAttemptThrottle(new SimpleMeterRegistry(), 5, 3, 300, List.of(SHOP_NAT));
+
+   @Test
+   void failuresFromOneAddressBlockOtherAccountsOnIt() {
+      for (int i = 0; i < 3; i++) {
+         throttle.recordFailure("user" + i + "@farmacia.com", "181.1.1.1");
+      }
+
+      assertThatThrownBy(() -> throttle.checkAllowed("otro@farmacia.com", "181.1.1.1"))
+         .isInstanceOf(TooManyRequestsException.class);
+   }
+
+   @Test
+   void exemptSharedAddressIsOnlyLimitedPerAccount() {
+      for (int i = 0; i < 10; i++) {
+         throttle.recordFailure("mostrador" + i + "@farmacia.com", SHOP_NAT);
+      }
+
+      assertThatCode(() -> throttle.checkAllowed("otro@farmacia.com", SHOP_NAT)).doesNotThrowAnyException();
+
+      for (int i = 0; i < 5; i++) {
+         throttle.recordFailure("otro@farmacia.com", SHOP_NAT);
+      }
+      assertThatThrownBy(() -> throttle.checkAllowed("otro@farmacia.com", SHOP_NAT))
+         .isInstanceOf(TooManyRequestsException.class);
+   }
+
+   @Test
+   void wrongPasswordsForSomeoneElseDoNotLockTheOwnerOut() {
+      for (int i = 0; i < 5; i++) {
+         throttle.recordFailure("victima@farmacia.com", "181.1.1.2");
+      }
+
+      assertThatThrownBy(() -> throttle.checkAllowed("victima@farmacia.com", "181.1.1.2"))
+         .isInstanceOf(TooManyRequestsException.class);
+      assertThatCode(() -> throttle.checkAllowed("victima@farmacia.com", "190.2.2.2")).doesNotThrowAnyException();
+   }
+}
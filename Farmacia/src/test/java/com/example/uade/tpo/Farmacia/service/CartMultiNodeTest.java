@@ -0,0 +1,117 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.controllers.dto.CartResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// El bean (WRITE_THROUGH por default) es un nodo y cada CartSessionStore armado acá es otro: solo comparten la DB
+@SpringBootTest
+@ActiveProfiles("test")
+class CartMultiNodeTest {
+
+    @Autowired CartService cartService;
+    @Autowired CartSessionStore sessions;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired PlatformTransactionManager transactionManager;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    // Sumar uno sobre una sesión vieja daría 2 y pisaría el 3 del otro nodo
+    @Test
+    void changeOnAnotherNodeIsSeenBeforeTheNextOperation() {
+        String email = "dos-nodos-cantidad-" + System.nanoTime() + "@test.com";
+        TestData.user(jdbc, email);
+        long productId = TestData.product(jdbc, "Multinodo " + System.nanoTime(), 50);
+        CartSessionStore other = node(CartSessionStore.Durability.WRITE_THROUGH);
+        long itemId = cartService.addItemByParams(email, productId, 1).getItems().get(0).getItemId();
+        assertThat(other.<Integer>withSession(email, s -> s.line(itemId).getQuantity()).intValue()).isEqualTo(1);
+
+        cartService.updateItemQuantity(email, itemId, 3);
+        other.withSession(email, s -> {
+            CartSessionStore.Line line = s.line(itemId);
+            s.update(line, line.getQuantity() + 1, line.getUnitPrice(), line.getUnitDiscount());
+            return null;
+        });
+
+        assertThat(quantity(itemId)).isEqualTo(4);
+        assertThat(cartService.getCart(email).getItems().get(0).getQuantity()).isEqualTo(4);
+    }
+
+    // Después del checkout en un nodo, el otro no sigue usando (ni escribiendo) el carrito cerrado
+    @Test
+    void checkoutOnAnotherNodeMovesToTheNewCart() {
+        String email = "dos-nodos-checkout-" + System.nanoTime() + "@test.com";
+        TestData.user(jdbc, email);
+        long productId = TestData.product(jdbc, "Checkout multinodo " + System.nanoTime(), 50);
+        CartSessionStore other = node(CartSessionStore.Durability.WRITE_THROUGH);
+        CartResponse cart = cartService.addItemByParams(email, productId, 2);
+        assertThat(other.withSession(email, CartSessionStore.CartSession::getCartId)).isEqualTo(cart.getId());
+
+        cartService.checkout(email);
+
+        long newCartId = other.withSession(email, s -> {
+            other.addLine(s, productId, "Checkout multinodo", 1, cart.getItems().get(0).getUnitPrice(), null);
+            return s.getCartId();
+        });
+        assertThat(newCartId).isNotEqualTo(cart.getId());
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM cart_items WHERE cart_id = ?", Integer.class, cart.getId()))
+            .isEqualTo(1);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM cart_items WHERE cart_id = ?", Integer.class, newCartId))
+            .isEqualTo(1);
+    }
+
+    // WRITE_BEHIND en dos nodos: el flush del nodo con la sesión vieja no pisa la DB y la sesión se recarga
+    @Test
+    void deferredFlushOfAStaleSessionIsDiscarded() {
+        String email = "dos-nodos-diferido-" + System.nanoTime() + "@test.com";
+        TestData.user(jdbc, email);
+        long productId = TestData.product(jdbc, "Diferido multinodo " + System.nanoTime(), 50);
+        CartSessionStore other = node(CartSessionStore.Durability.WRITE_BEHIND);
+        long itemId = cartService.addItemByParams(email, productId, 1).getItems().get(0).getItemId();
+        other.withSession(email, s -> {
+            CartSessionStore.Line line = s.line(itemId);
+            s.update(line, 7, line.getUnitPrice(), line.getUnitDiscount());
+            return null;
+        });
+
+        cartService.updateItemQuantity(email, itemId, 3);
+        other.flushAll();
+
+        assertThat(quantity(itemId)).isEqualTo(3);
+        assertThat(registry.counter("farmacia.cart.stale").count()).isEqualTo(1);
+        assertThat(other.<Integer>withSession(email, s -> s.line(itemId).getQuantity()).intValue()).isEqualTo(3);
+    }
+
+    // Pasarse de max-sessions no desaloja en el request: lo hace el flush periódico
+    @Test
+    void excessSessionsAreEvictedByTheSweep() {
+        CartSessionStore node = new CartSessionStore(jdbc, transactionManager, registry,
+            CartSessionStore.Durability.WRITE_THROUGH, 900, 1);
+        for (int i = 0; i < 3; i++) {
+            String email = "barrido-" + i + "-" + System.nanoTime() + "@test.com";
+            TestData.user(jdbc, email);
+            node.withSession(email, CartSessionStore.CartSession::getCartId);
+        }
+        assertThat(node.activeCartIds()).hasSize(3);
+
+        node.flushAll();
+
+        assertThat(node.activeCartIds()).hasSize(1);
+    }
+
+    private CartSessionStore node(CartSessionStore.Durability durability) {
+        return new CartSessionStore(jdbc, transactionManager, registry, durability, 900, 100);
+    }
+
+    private int quantity(long itemId) {
+        return jdbc.queryForObject("SELECT quantity FROM cart_items WHERE id = ?", Integer.class, itemId);
+    }
+}
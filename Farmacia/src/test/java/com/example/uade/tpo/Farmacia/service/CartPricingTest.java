@@ -0,0 +1,43 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.controllers.dto.CartResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Precio y descuento llegan al carrito y a la orden tal como están en products (DECIMAL(10,2)), sin pasar por double
+@SpringBootTest
+@ActiveProfiles("test")
+class CartPricingTest {
+
+    @Autowired CartService cartService;
+    @Autowired ProductCatalogIndex catalogIndex;
+    @Autowired JdbcTemplate jdbc;
+
+    @Test
+    void cartAndOrderKeepTheExactProductPrice() {
+        String email = "precio-" + System.nanoTime() + "@test.com";
+        TestData.user(jdbc, email);
+        long productId = TestData.product(jdbc, "Precio exacto " + System.nanoTime(), 10);
+        jdbc.update("UPDATE products SET precio = 12345678.91, descuento = 0.01 WHERE id = ?", productId);
+        catalogIndex.remove(productId);
+
+        CartResponse cart = cartService.addItemByParams(email, productId, 3);
+
+        CartResponse.CartLine line = cart.getItems().get(0);
+        assertThat(line.getUnitPrice()).isEqualByComparingTo("12345678.91");
+        assertThat(line.getUnitDiscount()).isEqualByComparingTo("0.01");
+        assertThat(line.getLineTotal()).isEqualByComparingTo("37037036.70");
+
+        Long orderId = cartService.checkout(email);
+        assertThat(jdbc.queryForObject("SELECT total FROM orders WHERE id = ?", BigDecimal.class, orderId))
+            .isEqualByComparingTo("37037036.70");
+    }
+}
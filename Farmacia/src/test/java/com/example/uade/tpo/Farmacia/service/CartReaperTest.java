@@ -0,0 +1,54 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.TestData;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class CartReaperTest {
+
+    @Autowired CartService cartService;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired NamedParameterJdbcTemplate namedJdbc;
+    @Autowired PlatformTransactionManager transactionManager;
+    @Autowired MeterRegistry registry;
+
+    // El reaper usa otro CartSessionStore (vacío): es como si la lista de sesiones activas se hubiera
+    // tomado antes de que el usuario volviera y cargara su carrito abandonado
+    @Test
+    void cartLoadedAfterTheSessionSnapshotIsKept() {
+        String email = "abandonado-" + System.nanoTime() + "@test.com";
+        long userId = TestData.user(jdbc, email);
+        long productId = TestData.product(jdbc, "Reaper " + System.nanoTime(), 10);
+        Timestamp old = Timestamp.from(Instant.now().minus(Duration.ofDays(60)));
+        jdbc.update("INSERT INTO carts (user_id, status, open_slot, created_at, update_at) VALUES (?, 'OPEN', 1, ?, ?)",
+            userId, old, old);
+        long cartId = jdbc.queryForObject("SELECT id FROM carts WHERE user_id = ?", Long.class, userId);
+        jdbc.update("INSERT INTO cart_items (cart_id, product_id, quantity, unit_price, unit_discount, line_total) " +
+            "VALUES (?, ?, 1, 10, 0, 10)", cartId, productId);
+
+        // El usuario vuelve: su carrito abandonado se carga en una sesión
+        assertThat(cartService.getCart(email).getId()).isEqualTo(cartId);
+
+        CartReaper reaper = new CartReaper(jdbc, namedJdbc,
+            new CartSessionStore(jdbc, transactionManager, registry, CartSessionStore.Durability.WRITE_BEHIND, 900, 100),
+            transactionManager, registry, true, 30, 7, 500, 0);
+        reaper.reap(List.of("OPEN"), Instant.now().minus(Duration.ofDays(30)));
+
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM cart_items WHERE cart_id = ?", Integer.class, cartId)).isEqualTo(1);
+    }
+}
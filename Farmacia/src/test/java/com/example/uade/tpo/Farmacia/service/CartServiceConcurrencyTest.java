@@ -0,0 +1,134 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.TestData;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Muchos hilos sobre el carrito de un mismo usuario: CartLockStripes en el nodo, uk_carts_user_open entre nodos
+@SpringBootTest
+@ActiveProfiles("test")
+class CartServiceConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int ADDS_PER_THREAD = 25;
+
+    @Autowired CartService cartService;
+    @Autowired CartSessionStore sessions;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired PlatformTransactionManager transactionManager;
+    @Autowired MeterRegistry registry;
+
+    @Test
+    void concurrentFirstRequestsCreateOneOpenCart() throws Exception {
+        String email = "primer-carrito-" + System.nanoTime() + "@test.com";
+        long userId = TestData.user(jdbc, email);
+
+        List<Long> cartIds = race(THREADS, () -> cartService.getCart(email).getId());
+
+        assertThat(new HashSet<>(cartIds)).hasSize(1);
+        assertThat(openCarts(userId)).isEqualTo(1);
+    }
+
+    // Otro nodo no comparte los locks ni las sesiones: la DB admite un solo carrito OPEN
+    @Test
+    void twoNodesCreateOneOpenCart() throws Exception {
+        String email = "dos-nodos-" + System.nanoTime() + "@test.com";
+        long userId = TestData.user(jdbc, email);
+        CartSessionStore otherNode = new CartSessionStore(jdbc, transactionManager, registry,
+            CartSessionStore.Durability.WRITE_BEHIND, 900, 100);
+
+        List<Long> cartIds = race(THREADS, () -> {
+            CartSessionStore node = Thread.currentThread().getId() % 2 == 0 ? sessions : otherNode;
+            return node.withSession(email, CartSessionStore.CartSession::getCartId);
+        });
+
+        assertThat(new HashSet<>(cartIds)).hasSize(1);
+        assertThat(openCarts(userId)).isEqualTo(1);
+        assertThatThrownBy(() -> jdbc.update(
+            "INSERT INTO carts (user_id, status, open_slot, created_at, update_at) " +
+            "VALUES (?, 'OPEN', 1, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", userId))
+            .isInstanceOf(DataIntegrityViolationException.class);
+    }
+
+    // Sumas concurrentes del mismo producto con el flush periódico corriendo: ninguna se pierde hasta la orden
+    @Test
+    void concurrentAddsAreNotLost() throws Exception {
+        String email = "sumas-" + System.nanoTime() + "@test.com";
+        TestData.user(jdbc, email);
+        long productId = TestData.product(jdbc, "Concurrencia " + System.nanoTime(), THREADS * ADDS_PER_THREAD);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread flusher = new Thread(() -> {
+            while (running.get()) {
+                sessions.flushAll();
+            }
+        });
+        flusher.start();
+        try {
+            race(THREADS, () -> {
+                for (int i = 0; i < ADDS_PER_THREAD; i++) {
+                    cartService.addItemByParams(email, productId, 1);
+                }
+                return null;
+            });
+        } finally {
+            running.set(false);
+            flusher.join();
+        }
+
+        int expected = THREADS * ADDS_PER_THREAD;
+        assertThat(cartService.getCart(email).getItems()).singleElement()
+            .satisfies(line -> assertThat(line.getQuantity()).isEqualTo(expected));
+
+        Long orderId = cartService.checkout(email);
+        assertThat(jdbc.queryForObject("SELECT SUM(quantity) FROM order_items WHERE order_id = ?", Integer.class, orderId))
+            .isEqualTo(expected);
+        assertThat(jdbc.queryForObject("SELECT stock FROM products WHERE id = ?", Integer.class, productId)).isZero();
+    }
+
+    private <T> List<T> race(int threads, Callable<T> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private int openCarts(long userId) {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM carts WHERE user_id = ? AND status = 'OPEN'", Integer.class, userId);
+    }
+}
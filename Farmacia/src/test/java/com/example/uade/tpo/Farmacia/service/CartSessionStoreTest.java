@@ -0,0 +1,110 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.controllers.dto.CartBatchRequest;
+import com.example.uade.tpo.Farmacia.controllers.dto.CartResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Estos casos son del flush diferido: el bean se arma con WRITE_BEHIND
+@SpringBootTest(properties = "farmacia.cart.durability=WRITE_BEHIND")
+@ActiveProfiles("test")
+class CartSessionStoreTest {
+
+    @Autowired CartService cartService;
+    @Autowired CartSessionStore sessions;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired TransactionTemplate tx;
+
+    // flushAll tomó los cambios pero su UPDATE no hizo commit: flush(email) tiene que esperarlo
+    @Test
+    void flushWaitsForThePeriodicBatchInFlight() throws Exception {
+        String email = "flush-" + System.nanoTime() + "@test.com";
+        TestData.user(jdbc, email);
+        long productId = TestData.product(jdbc, "Flush " + System.nanoTime(), 50);
+        CartResponse cart = cartService.addItemByParams(email, productId, 1);
+        long itemId = cart.getItems().get(0).getItemId();
+        cartService.updateItemQuantity(email, itemId, 3);
+
+        // Otra transacción retiene la fila: el UPDATE de flushAll queda esperando
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> tx.executeWithoutResult(status -> {
+            jdbc.queryForList("SELECT id FROM cart_items WHERE id = ? FOR UPDATE", itemId);
+            locked.countDown();
+            await(release);
+        }));
+        assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        CartSessionStore.CartSession session = sessions.withSession(email, s -> s);
+        CompletableFuture<Void> periodic = CompletableFuture.runAsync(sessions::flushAll);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!session.isWriting() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(session.isWriting()).isTrue();
+
+        CompletableFuture<Void> flush = CompletableFuture.runAsync(() -> sessions.flush(email));
+        Thread.sleep(300);
+        assertThat(flush).isNotDone();
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        periodic.get(5, TimeUnit.SECONDS);
+        flush.get(5, TimeUnit.SECONDS);
+        assertThat(jdbc.queryForObject("SELECT quantity FROM cart_items WHERE id = ?", Integer.class, itemId)).isEqualTo(3);
+    }
+
+    // Con WRITE_BEHIND, el lote igual queda escrito completo (altas, cambios y bajas) antes de responder
+    @Test
+    void batchIsWrittenBeforeResponding() {
+        String email = "batch-" + System.nanoTime() + "@test.com";
+        TestData.user(jdbc, email);
+        long kept = TestData.product(jdbc, "Batch A " + System.nanoTime(), 50);
+        long dropped = TestData.product(jdbc, "Batch B " + System.nanoTime(), 50);
+        long added = TestData.product(jdbc, "Batch C " + System.nanoTime(), 50);
+        cartService.addItemByParams(email, kept, 1);
+        CartResponse before = cartService.addItemByParams(email, dropped, 1);
+
+        CartBatchRequest req = new CartBatchRequest();
+        req.setOperations(List.of(
+            operation(CartBatchRequest.Type.UPDATE, kept, 4),
+            operation(CartBatchRequest.Type.REMOVE, dropped, null),
+            operation(CartBatchRequest.Type.ADD, added, 2)));
+        cartService.applyBatch(email, req);
+
+        Map<Long, Integer> rows = new HashMap<>();
+        jdbc.query("SELECT product_id, quantity FROM cart_items WHERE cart_id = ?",
+            rs -> { rows.put(rs.getLong("product_id"), rs.getInt("quantity")); }, before.getId());
+        assertThat(rows).containsOnly(Map.entry(kept, 4), Map.entry(added, 2));
+    }
+
+    private static CartBatchRequest.Operation operation(CartBatchRequest.Type type, long productId, Integer quantity) {
+        CartBatchRequest.Operation op = new CartBatchRequest.Operation();
+        op.setType(type);
+        op.setProductId(productId);
+        op.setQuantity(quantity);
+        return op;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
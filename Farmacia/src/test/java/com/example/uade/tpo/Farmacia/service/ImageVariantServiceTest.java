@@ -0,0 +1,56 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.service.impl.FileSystemImageBlobStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageVariantServiceTest {
+
+    private static final String SHA = "0123456789abcdef";
+
+    @TempDir
+    Path dir;
+
+    private ImageBlobStore blobStore;
+    private ImageVariantService variants;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        blobStore = new FileSystemImageBlobStore(dir.toString());
+        variants = new ImageVariantService(blobStore, new ImageVariantCache(new SimpleMeterRegistry(), 1 << 20), List.of(32));
+    }
+
+    @Test
+    void transparentPngKeepsAlpha() throws Exception {
+        BufferedImage original = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB); // todo transparente
+        variants.generate(SHA, "image/png", original);
+
+        BufferedImage thumb = ImageIO.read(blobStore.get(ImageVariantService.variantKey(SHA, 32)).getInputStream());
+        assertThat(thumb.getWidth()).isEqualTo(32);
+        assertThat(thumb.getColorModel().hasAlpha()).isTrue();
+        assertThat(thumb.getRGB(10, 10) >>> 24).isZero();
+    }
+
+    @Test
+    void formatWithoutWriterServesOriginalAndStoresNoVariant() throws Exception {
+        BufferedImage original = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(original, "png", bytes);
+        blobStore.put(SHA, bytes.toByteArray());
+
+        variants.generate(SHA, "image/webp", original);
+
+        assertThat(blobStore.exists(ImageVariantService.variantKey(SHA, 32))).isFalse();
+        assertThat(variants.get(SHA, "image/webp", 32).contentLength()).isEqualTo(bytes.size());
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.controllers.dto.BulkStatusUpdateResponse;
+import com.example.uade.tpo.Farmacia.entity.Order;
+import com.example.uade.tpo.Farmacia.exception.BadRequestException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// H2 corre en READ COMMITTED: las cancelaciones concurrentes de la misma orden devuelven el stock una sola vez
+@SpringBootTest
+@ActiveProfiles("test")
+class OrderCancellationConcurrencyTest {
+
+  private static final int THREADS = 8;
+  private static final int QUANTITY = 5;
+
+  @Autowired OrderService orderService;
+  @Autowired OrderExpiryWorker expiryWorker;
+  @Autowired JdbcTemplate jdbc;
+
+  @Test
+  void concurrentCancelsReleaseStockOnce() throws Exception {
+    long productId = TestData.product(jdbc, "Cancelación concurrente " + System.nanoTime(), 0);
+    long orderId = order(productId, 0);
+
+    List<BulkStatusUpdateResponse> responses = race(() ->
+        orderService.bulkUpdateStatus(List.of(orderId), Order.Status.CANCELLED));
+
+    long applied = responses.stream()
+        .filter(r -> r.results().get(0).outcome() == BulkStatusUpdateResponse.Outcome.APPLIED)
+        .count();
+    assertThat(applied).isEqualTo(1);
+    assertThat(stock(productId)).isEqualTo(QUANTITY);
+  }
+
+  @Test
+  void expiryAndCancelReleaseStockOnce() throws Exception {
+    long productId = TestData.product(jdbc, "Vencimiento concurrente " + System.nanoTime(), 0);
+    long orderId = order(productId, -3600 * 24);
+
+    race(() -> {
+      orderService.bulkUpdateStatus(List.of(orderId), Order.Status.CANCELLED);
+      return expiryWorker.expireAll();
+    });
+
+    assertThat(jdbc.queryForObject("SELECT status FROM orders WHERE id = ?", String.class, orderId))
+        .isEqualTo("CANCELLED");
+    assertThat(stock(productId)).isEqualTo(QUANTITY);
+  }
+
+  // Completar y cancelar a la vez: gana una sola transición y las demás ven el estado final (400), nunca un 500
+  @Test
+  void concurrentTransitionsApplyExactlyOne() throws Exception {
+    long productId = TestData.product(jdbc, "Transición concurrente " + System.nanoTime(), 0);
+    long orderId = order(productId, 0);
+    jdbc.update("UPDATE orders SET status = 'CONFIRMED' WHERE id = ?", orderId);
+    AtomicInteger turn = new AtomicInteger();
+
+    List<String> outcomes = race(() -> {
+      Order.Status target = turn.getAndIncrement() % 2 == 0 ? Order.Status.COMPLETED : Order.Status.CANCELLED;
+      try {
+        orderService.processOrder(orderId, target);
+        return "APPLIED";
+      } catch (BadRequestException e) {
+        return "INVALID_TRANSITION";
+      }
+    });
+
+    assertThat(outcomes).containsOnlyOnce("APPLIED").containsOnly("APPLIED", "INVALID_TRANSITION");
+    String status = jdbc.queryForObject("SELECT status FROM orders WHERE id = ?", String.class, orderId);
+    assertThat(stock(productId)).isEqualTo(status.equals("CANCELLED") ? QUANTITY : 0);
+  }
+
+  private <T> List<T> race(Callable<T> task) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<T>> futures = new ArrayList<>();
+      for (int i = 0; i < THREADS; i++) {
+        futures.add(pool.submit(() -> {
+          start.await();
+          return task.call();
+        }));
+      }
+      start.countDown();
+      List<T> results = new ArrayList<>();
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  // Orden con tarjeta impaga que ya reservó QUANTITY unidades del producto
+  private long order(long productId, int createdSecondsAgo) {
+    Long userId = jdbc.queryForObject("SELECT MIN(id) FROM users", Long.class);
+    jdbc.update("INSERT INTO orders (user_id, total, status, payment_status, payment_method, created_at, delivery_method) " +
+        "VALUES (?, 50, 'PENDING', 'PENDING', 'CARD', DATEADD('SECOND', ?, CURRENT_TIMESTAMP), 'PICKUP')", userId, createdSecondsAgo);
+    long orderId = jdbc.queryForObject("SELECT MAX(id) FROM orders WHERE user_id = ?", Long.class, userId);
+    jdbc.update("INSERT INTO order_items (order_id, product_id, quantity, unit_price, line_total) VALUES (?, ?, ?, 10, 50)",
+        orderId, productId, QUANTITY);
+    return orderId;
+  }
+
+  private int stock(long productId) {
+    return jdbc.queryForObject("SELECT stock FROM products WHERE id = ?", Integer.class, productId);
+  }
+}
@@ -0,0 +1,216 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.controllers.dto.OrderEventDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Cada test arma su propio bus con emitters que guardan lo enviado; la transacción es la real (H2)
+@SpringBootTest
+@ActiveProfiles("test")
+class OrderEventBusTest {
+
+  private static final long CUSTOMER = 1001L;
+  private static final long OTHER_CUSTOMER = 1002L;
+
+  @Autowired TransactionTemplate tx;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final List<OrderEventBus> buses = new ArrayList<>();
+
+  @AfterEach
+  void shutdown() {
+    buses.forEach(OrderEventBus::shutdown);
+  }
+
+  @Test
+  void publishesOnlyAfterCommit() throws Exception {
+    OrderEventBus bus = bus(10, 10);
+    RecordingEmitter staff = subscribe(bus, null, true, null);
+
+    tx.executeWithoutResult(status -> {
+      publish(bus, 1L, CUSTOMER);
+      // Todavía dentro de la transacción: nada publicado
+      assertThat(registry.counter("farmacia.orders.events.published").count()).isZero();
+    });
+    tx.executeWithoutResult(status -> {
+      publish(bus, 2L, CUSTOMER);
+      status.setRollbackOnly();
+    });
+
+    await(() -> staff.events().size() == 1);
+    assertThat(staff.events()).extracting(OrderEventDTO::orderId).containsExactly(1L);
+    assertThat(registry.counter("farmacia.orders.events.published").count()).isEqualTo(1);
+  }
+
+  @Test
+  void reconnectReplaysMissedEventsFromTheBuffer() throws Exception {
+    OrderEventBus bus = bus(3, 10);
+    RecordingEmitter staff = subscribe(bus, null, true, null);
+    for (long orderId = 1; orderId <= 5; orderId++) {
+      publish(bus, orderId, orderId % 2 == 0 ? OTHER_CUSTOMER : CUSTOMER);
+    }
+    await(() -> staff.events().size() == 5);
+    List<Long> ids = staff.events().stream().map(OrderEventDTO::id).toList();
+
+    // El buffer guarda 3, 4 y 5: reanudar desde el 2 o el 3 no pierde nada
+    assertThat(subscribe(bus, null, true, ids.get(2)).events()).extracting(OrderEventDTO::orderId).containsExactly(4L, 5L);
+    assertThat(subscribe(bus, null, true, ids.get(1)).events()).extracting(OrderEventDTO::orderId).containsExactly(3L, 4L, 5L);
+    // Un cliente solo recupera las suyas
+    assertThat(subscribe(bus, CUSTOMER, false, ids.get(1)).events()).extracting(OrderEventDTO::orderId).containsExactly(3L, 5L);
+  }
+
+  @Test
+  void reconnectAfterTheBufferMovedOnGetsAReset() throws Exception {
+    OrderEventBus bus = bus(3, 10);
+    RecordingEmitter staff = subscribe(bus, null, true, null);
+    for (long orderId = 1; orderId <= 5; orderId++) {
+      publish(bus, orderId, CUSTOMER);
+    }
+    await(() -> staff.events().size() == 5);
+    long first = staff.events().get(0).id();
+    long last = staff.events().get(4).id();
+
+    RecordingEmitter lagging = subscribe(bus, null, true, first);
+    // Id de otra instancia (o de antes de un reinicio)
+    RecordingEmitter foreign = subscribe(bus, null, true, last + 1000);
+
+    assertThat(lagging.names).containsExactly("reset");
+    assertThat(lagging.ids).containsExactly(String.valueOf(last));
+    assertThat(foreign.names).containsExactly("reset");
+  }
+
+  @Test
+  void slowClientIsDisconnectedWhenItsQueueOverflows() throws Exception {
+    OrderEventBus bus = bus(100, 2);
+    RecordingEmitter slow = subscribe(bus, null, true, null);
+    slow.block();
+
+    // El primero queda trabado en el envío, los dos siguientes llenan la cola y el cuarto no entra
+    publish(bus, 1L, CUSTOMER);
+    await(() -> slow.sending);
+    for (long orderId = 2; orderId <= 4; orderId++) {
+      publish(bus, orderId, CUSTOMER);
+    }
+
+    assertThat(slow.completed).isTrue();
+    assertThat(registry.counter("farmacia.orders.events.dropped").count()).isEqualTo(1);
+    assertThat(registry.get("farmacia.orders.events.subscribers").gauge().value()).isZero();
+    slow.unblock();
+  }
+
+  @Test
+  void customersOnlySeeTheirOwnOrders() throws Exception {
+    OrderEventBus bus = bus(10, 10);
+    RecordingEmitter staff = subscribe(bus, null, true, null);
+    RecordingEmitter customer = subscribe(bus, CUSTOMER, false, null);
+    RecordingEmitter other = subscribe(bus, OTHER_CUSTOMER, false, null);
+
+    publish(bus, 1L, CUSTOMER);
+    publish(bus, 2L, OTHER_CUSTOMER);
+    publish(bus, 3L, CUSTOMER);
+
+    await(() -> staff.events().size() == 3 && customer.events().size() == 2 && other.events().size() == 1);
+    assertThat(customer.events()).extracting(OrderEventDTO::orderId).containsExactly(1L, 3L);
+    assertThat(other.events()).extracting(OrderEventDTO::orderId).containsExactly(2L);
+  }
+
+  private OrderEventBus bus(int bufferSize, int clientQueueCapacity) {
+    OrderEventBus bus = new OrderEventBus(registry, bufferSize, clientQueueCapacity, 2, 30) {
+      @Override
+      SseEmitter newEmitter(long timeoutMillis) {
+        return new RecordingEmitter();
+      }
+    };
+    buses.add(bus);
+    return bus;
+  }
+
+  private static RecordingEmitter subscribe(OrderEventBus bus, Long userId, boolean staff, Long lastEventId) {
+    return (RecordingEmitter) bus.subscribe(userId, staff, lastEventId);
+  }
+
+  private static void publish(OrderEventBus bus, long orderId, long userId) {
+    bus.publish(OrderEventBus.ORDER_STATUS_CHANGED, orderId, userId, "CONFIRMED", "PAID", "PICKUP", BigDecimal.TEN);
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertThat(condition.getAsBoolean()).isTrue();
+  }
+
+  // Guarda id, nombre y datos de cada evento; block() traba los envíos como un cliente que no lee
+  private static class RecordingEmitter extends SseEmitter {
+    final List<String> ids = new CopyOnWriteArrayList<>();
+    final List<String> names = new CopyOnWriteArrayList<>();
+    final List<Object> data = new CopyOnWriteArrayList<>();
+    volatile boolean completed;
+    volatile boolean sending;
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    @Override
+    public void send(SseEventBuilder builder) throws IOException {
+      sending = true;
+      try {
+        gate.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+      StringBuilder text = new StringBuilder();
+      Set<ResponseBodyEmitter.DataWithMediaType> parts = builder.build();
+      for (ResponseBodyEmitter.DataWithMediaType part : parts) {
+        if (part.getData() instanceof String chunk) {
+          text.append(chunk);
+        } else {
+          data.add(part.getData());
+        }
+      }
+      for (String line : text.toString().split("\n")) {
+        if (line.startsWith("id:")) {
+          ids.add(line.substring(3));
+        } else if (line.startsWith("event:")) {
+          names.add(line.substring(6));
+        }
+      }
+    }
+
+    @Override
+    public void complete() {
+      completed = true;
+    }
+
+    List<OrderEventDTO> events() {
+      return data.stream().filter(OrderEventDTO.class::isInstance).map(OrderEventDTO.class::cast).toList();
+    }
+
+    void block() {
+      gate = new CountDownLatch(1);
+    }
+
+    void unblock() {
+      gate.countDown();
+    }
+  }
+}
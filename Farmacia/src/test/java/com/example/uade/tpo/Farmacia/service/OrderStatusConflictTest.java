@@ -0,0 +1,113 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.controllers.dto.BulkStatusUpdateResponse;
+import com.example.uade.tpo.Farmacia.entity.Order;
+import com.example.uade.tpo.Farmacia.exception.ConflictException;
+import com.example.uade.tpo.Farmacia.repository.OrderRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+// Otra transacción cambia el estado entre el SELECT ... FOR UPDATE y el UPDATE condicional (un bloqueo que
+// no se respetó): la transición responde 409 y no libera stock, en vez de un 500
+@SpringBootTest
+@ActiveProfiles("test")
+class OrderStatusConflictTest {
+
+  private static final int QUANTITY = 5;
+
+  @MockitoSpyBean OrderRepository orders;
+  @Autowired OrderService orderService;
+  @Autowired JdbcTemplate jdbc;
+
+  @Test
+  void singleOrderChangedConcurrentlyIsAConflict() {
+    long productId = TestData.product(jdbc, "Conflicto simple " + System.nanoTime(), 0);
+    long orderId = order(productId);
+    completeBeforeUpdate(orderId);
+
+    assertThatThrownBy(() -> orderService.processOrder(orderId, Order.Status.CANCELLED))
+        .isInstanceOf(ConflictException.class);
+    assertThat(stock(productId)).isZero();
+  }
+
+  @Test
+  void bulkWhereEveryOrderChangedReportsConflicts() {
+    long productId = TestData.product(jdbc, "Conflicto masivo " + System.nanoTime(), 0);
+    long first = order(productId);
+    long second = order(productId);
+    completeBeforeUpdate(first, second);
+
+    BulkStatusUpdateResponse response = orderService.bulkUpdateStatus(List.of(first, second), Order.Status.CANCELLED);
+
+    assertThat(response.applied()).isZero();
+    assertThat(response.results()).extracting(BulkStatusUpdateResponse.Result::outcome)
+        .containsExactly(BulkStatusUpdateResponse.Outcome.CONFLICT, BulkStatusUpdateResponse.Outcome.CONFLICT);
+    assertThat(stock(productId)).isZero();
+  }
+
+  // Si solo algunas se aplicaron no se sabe cuáles: se revierte todo
+  @Test
+  void bulkWhereSomeOrdersChangedRollsBack() {
+    long productId = TestData.product(jdbc, "Conflicto parcial " + System.nanoTime(), 0);
+    long untouched = order(productId);
+    long changed = order(productId);
+    completeBeforeUpdate(changed);
+
+    assertThatThrownBy(() -> orderService.bulkUpdateStatus(List.of(untouched, changed), Order.Status.CANCELLED))
+        .isInstanceOf(ConflictException.class);
+    assertThat(status(untouched)).isEqualTo("PENDING");
+    assertThat(stock(productId)).isZero();
+  }
+
+  // Antes del UPDATE, y dentro de la misma transacción, las órdenes pasan a COMPLETED como si otra request
+  // las hubiera cambiado sin respetar el bloqueo. El UPDATE condicional se repite con JDBC: el spy de un
+  // repositorio de Spring Data no puede llamar al método real
+  private void completeBeforeUpdate(Long... changed) {
+    doAnswer(invocation -> {
+      for (Long id : changed) {
+        jdbc.update("UPDATE orders SET status = 'COMPLETED' WHERE id = ?", id);
+      }
+      Collection<Long> ids = invocation.getArgument(0);
+      Collection<Order.Status> from = invocation.getArgument(1);
+      Order.Status to = invocation.getArgument(2);
+      String sources = from.stream().map(s -> "'" + s.name() + "'").collect(Collectors.joining(","));
+      int updated = 0;
+      for (Long id : ids) {
+        updated += jdbc.update("UPDATE orders SET status = ? WHERE id = ? AND status IN (" + sources + ")", to.name(), id);
+      }
+      return updated;
+    }).when(orders).transitionStatus(any(), any(), any());
+  }
+
+  private long order(long productId) {
+    Long userId = jdbc.queryForObject("SELECT MIN(id) FROM users", Long.class);
+    jdbc.update("INSERT INTO orders (user_id, total, status, payment_status, payment_method, created_at, delivery_method) " +
+        "VALUES (?, 50, 'PENDING', 'PENDING', 'CASH', CURRENT_TIMESTAMP, 'PICKUP')", userId);
+    long orderId = jdbc.queryForObject("SELECT MAX(id) FROM orders WHERE user_id = ?", Long.class, userId);
+    jdbc.update("INSERT INTO order_items (order_id, product_id, quantity, unit_price, line_total) VALUES (?, ?, ?, 10, 50)",
+        orderId, productId, QUANTITY);
+    return orderId;
+  }
+
+  private String status(long orderId) {
+    return jdbc.queryForObject("SELECT status FROM orders WHERE id = ?", String.class, orderId);
+  }
+
+  private int stock(long productId) {
+    return jdbc.queryForObject("SELECT stock FROM products WHERE id = ?", Integer.class, productId);
+  }
+}
@@ -0,0 +1,50 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.TestData;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// El stock del índice sale siempre de la DB: una reconstrucción en medio de reservas no cuenta nada dos veces
+@SpringBootTest
+@ActiveProfiles("test")
+class ProductCatalogIndexTest {
+
+  @Autowired ProductCatalogIndex index;
+  @Autowired StockReservationService reservations;
+  @Autowired TransactionTemplate tx;
+  @Autowired JdbcTemplate jdbc;
+
+  @Test
+  void stockMatchesDatabaseAfterReservationsDuringRebuild() throws Exception {
+    long productId = TestData.product(jdbc, "Índice concurrente", 100);
+    index.rebuild();
+
+    CompletableFuture<Void> buyers = CompletableFuture.runAsync(() -> {
+      for (int i = 0; i < 30; i++) {
+        tx.executeWithoutResult(status -> reservations.reserve(Map.of(productId, 1), Map.of()));
+      }
+    });
+    for (int i = 0; i < 5; i++) {
+      index.rebuild();
+    }
+    buyers.get(30, TimeUnit.SECONDS);
+
+    // Los refrescos son asíncronos: esperar a que el índice llegue al valor de la DB y que no se pase
+    long deadline = System.currentTimeMillis() + 5000;
+    while (index.get(productId).stock() != 70 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    Thread.sleep(200);
+    assertThat(index.get(productId).stock()).isEqualTo(70);
+  }
+}
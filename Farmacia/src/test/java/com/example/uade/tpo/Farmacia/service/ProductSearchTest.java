@@ -0,0 +1,114 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.JdbcRoundTripCounter;
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.controllers.dto.ProductDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Búsqueda sobre el índice invertido: acentos, prefijos, descripción, ranking y filtros sin ir a la base
+@Slf4j
+@SpringBootTest
+@ActiveProfiles("test")
+class ProductSearchTest {
+
+  private static final int CATALOG = 1000;
+  private static final int QUERIES = 500;
+
+  @Autowired ProductService productService;
+  @Autowired ProductCatalogIndex catalogIndex;
+  @Autowired JdbcTemplate jdbc;
+
+  // Palabra única por corrida: los productos de otros tests no entran en los resultados
+  private final String tag = "lote" + System.nanoTime();
+  private long folico;
+  private long ibuprofeno;
+  private long paracetamol;
+  private long crema;
+
+  @BeforeEach
+  void catalog() {
+    folico = product("Ácido fólico " + tag, "Vitamina prenatal", 10, false);
+    ibuprofeno = product("Ibuprofeno " + tag, "Antiinflamatorio para el dolor", 10, false);
+    paracetamol = product("Paracetamol " + tag, "Alivia el dolor y la fiebre", 10, true);
+    crema = product("Crema hidratante " + tag, "Con ácido hialurónico", 0, false);
+    catalogIndex.rebuild();
+  }
+
+  @Test
+  void matchesFoldedPrefixesOverNameAndDescription() {
+    // Sin acentos, y el nombre pesa más que la descripción
+    assertThat(ids(productService.search("ACIDO " + tag, null, null, null, 10))).containsExactly(folico, crema);
+    assertThat(ids(productService.search("ibu " + tag, null, null, null, 10))).containsExactly(ibuprofeno);
+    assertThat(ids(productService.search("dolor " + tag, null, null, null, 10))).containsExactlyInAnyOrder(ibuprofeno, paracetamol);
+    // Todas las palabras tienen que aparecer
+    assertThat(productService.search("fiebre vitamina " + tag, null, null, null, 10)).isEmpty();
+  }
+
+  @Test
+  void combinesWithFilters() {
+    assertThat(ids(productService.search("dolor " + tag, null, null, false, 10))).containsExactly(ibuprofeno);
+    assertThat(ids(productService.search("acido " + tag, null, true, null, 10))).containsExactly(folico);
+    Long category = jdbc.queryForObject("SELECT category_id FROM products WHERE id = ?", Long.class, crema);
+    assertThat(ids(productService.search("acido " + tag, category, null, null, 10))).containsExactly(crema);
+    assertThat(productService.search(tag, null, null, null, 2)).hasSize(2);
+  }
+
+  @Test
+  void searchDoesNotTouchTheDatabase() {
+    assertThat(JdbcRoundTripCounter.count(() -> productService.search("acido " + tag, null, true, null, 10))).isZero();
+  }
+
+  // Índice contra el LIKE '%q%' que hacía findByNombreContainingIgnoreCase (solo nombre, sin índice en la base)
+  @Test
+  void latencyAgainstLikeScan() {
+    long categoryId = TestData.category(jdbc, "Catálogo " + tag);
+    List<Object[]> rows = new ArrayList<>();
+    for (int i = 0; i < CATALOG; i++) {
+      rows.add(new Object[] {"Producto " + i + " " + tag, "Descripción número " + i, categoryId});
+    }
+    jdbc.batchUpdate("INSERT INTO products (nombre, descripcion, precio, stock, descuento, requires_prescription, category_id) " +
+        "VALUES (?, ?, 10, 5, 0, false, ?)", rows);
+    catalogIndex.rebuild();
+
+    // Una consulta selectiva (11 coincidencias) y una que coincide con todo el lote
+    for (String q : List.of("producto 99", "producto")) {
+      long begin = System.nanoTime();
+      for (int i = 0; i < QUERIES; i++) {
+        productService.search(q + " " + tag, null, null, null, 20);
+      }
+      long indexMicros = (System.nanoTime() - begin) / 1000 / QUERIES;
+
+      begin = System.nanoTime();
+      for (int i = 0; i < QUERIES; i++) {
+        jdbc.queryForList("SELECT id FROM products WHERE LOWER(nombre) LIKE ? LIMIT 20", Long.class, "%" + q + "%" + tag + "%");
+      }
+      long likeMicros = (System.nanoTime() - begin) / 1000 / QUERIES;
+
+      log.info("📊 Búsqueda '{}' sobre {} productos: índice {} µs, LIKE {} µs (promedio de {} consultas)",
+          q, CATALOG, indexMicros, likeMicros, QUERIES);
+    }
+    assertThat(productService.search("producto 99 " + tag, null, null, null, 100)).hasSize(11);
+    assertThat(productService.search("producto " + tag, null, null, null, 100)).hasSize(100);
+  }
+
+  private long product(String name, String description, int stock, boolean rx) {
+    long id = TestData.product(jdbc, name, stock);
+    jdbc.update("UPDATE products SET descripcion = ?, requires_prescription = ? WHERE id = ?", description, rx, id);
+    return id;
+  }
+
+  private static List<Long> ids(List<ProductDTO> products) {
+    return products.stream().map(ProductDTO::id).toList();
+  }
+}
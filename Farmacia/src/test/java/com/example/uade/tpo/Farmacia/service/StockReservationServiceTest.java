@@ -0,0 +1,118 @@
+package com.example.uade.tpo.Farmacia.service;
+
+import com.example.uade.tpo.Farmacia.JdbcRoundTripCounter;
+import com.example.uade.tpo.Farmacia.TestData;
+import com.example.uade.tpo.Farmacia.exception.InsufficientStockException;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Miles de órdenes concurrentes sobre los mismos productos: nunca se vende más que el stock
+@Slf4j
+@SpringBootTest
+@ActiveProfiles("test")
+class StockReservationServiceTest {
+
+  private static final int SKUS = 3;
+  private static final int STOCK = 500;
+  private static final int ORDERS = 2000;
+  private static final int THREADS = 32;
+
+  @Autowired StockReservationService reservations;
+  @Autowired TransactionTemplate tx;
+  @Autowired JdbcTemplate jdbc;
+
+  // Cada orden lleva una unidad de cada producto: exactamente STOCK órdenes se aceptan y todo queda en 0
+  @Test
+  void concurrentOrdersNeverOversell() throws Exception {
+    Map<Long, Integer> order = new HashMap<>();
+    for (int i = 0; i < SKUS; i++) {
+      order.put(TestData.product(jdbc, "Stock concurrente " + i + " " + System.nanoTime(), STOCK), 1);
+    }
+
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    List<Future<Boolean>> results = new ArrayList<>();
+    try {
+      for (int i = 0; i < ORDERS; i++) {
+        Callable<Boolean> buyer = () -> {
+          start.await();
+          try {
+            tx.executeWithoutResult(status -> reservations.reserve(order, Map.of()));
+            return true;
+          } catch (InsufficientStockException e) {
+            return false;
+          }
+        };
+        results.add(pool.submit(buyer));
+      }
+      long begin = System.nanoTime();
+      start.countDown();
+
+      int accepted = 0;
+      for (Future<Boolean> result : results) {
+        if (result.get(60, TimeUnit.SECONDS)) {
+          accepted++;
+        }
+      }
+      double seconds = (System.nanoTime() - begin) / 1e9;
+      log.info("📊 {} órdenes de {} líneas con {} hilos en {} ms ({} órdenes/s), {} aceptadas",
+          ORDERS, SKUS, THREADS, Math.round(seconds * 1000), Math.round(ORDERS / seconds), accepted);
+
+      assertThat(accepted).isEqualTo(STOCK);
+      for (Long productId : order.keySet()) {
+        assertThat(jdbc.queryForObject("SELECT stock FROM products WHERE id = ?", Integer.class, productId)).isZero();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  // Un viaje a la base por orden sin importar la cantidad de líneas; el rechazo suma la lectura del stock disponible
+  @Test
+  void reservationIsOneRoundTripPerOrder() {
+    Map<Long, Integer> order = new HashMap<>();
+    for (int i = 0; i < 10; i++) {
+      order.put(TestData.product(jdbc, "Stock batch " + i + " " + System.nanoTime(), 5), 2);
+    }
+    long scarce = TestData.product(jdbc, "Stock batch escaso " + System.nanoTime(), 1);
+
+    assertThat(JdbcRoundTripCounter.count(() -> tx.executeWithoutResult(status -> reservations.reserve(order, Map.of()))))
+        .isEqualTo(1);
+    assertThat(JdbcRoundTripCounter.count(() -> assertThatThrownBy(
+        () -> tx.executeWithoutResult(status -> reservations.reserve(Map.of(scarce, 2), Map.of())))
+        .isInstanceOf(InsufficientStockException.class)))
+        .isEqualTo(2);
+  }
+
+  @Test
+  void shortLineRollsBackTheWholeOrder() {
+    long plenty = TestData.product(jdbc, "Stock suficiente", 10);
+    long scarce = TestData.product(jdbc, "Stock escaso", 1);
+
+    assertThatThrownBy(() -> tx.executeWithoutResult(status -> reservations.reserve(Map.of(plenty, 3, scarce, 2), Map.of())))
+        .isInstanceOfSatisfying(InsufficientStockException.class, e -> assertThat(e.getShortfalls())
+            .extracting(InsufficientStockException.Shortfall::productId).containsExactly(scarce));
+
+    assertThat(jdbc.queryForObject("SELECT stock FROM products WHERE id = ?", Integer.class, plenty)).isEqualTo(10);
+    assertThat(jdbc.queryForObject("SELECT stock FROM products WHERE id = ?", Integer.class, scarce)).isEqualTo(1);
+  }
+}
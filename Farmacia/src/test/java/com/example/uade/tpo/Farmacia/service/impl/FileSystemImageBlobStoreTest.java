@@ -0,0 +1,61 @@
+package com.example.uade.tpo.Farmacia.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileSystemImageBlobStoreTest {
+
+    private static final String KEY = "ab12cd34ef56";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void deduplicatedPutKeepsBlobAliveForTheCollector() throws Exception {
+        FileSystemImageBlobStore store = new FileSystemImageBlobStore(dir.toString());
+        store.put(KEY, new byte[] {1, 2, 3});
+        Thread.sleep(20);
+
+        // Una subida que deduplica contra el blob lo marca como usado: ya no está "sin uso" desde antes
+        Instant collectorCutoff = Instant.now();
+        Thread.sleep(20);
+        store.put(KEY, new byte[] {1, 2, 3});
+
+        assertThat(store.deleteIfIdle(KEY, collectorCutoff)).isFalse();
+        assertThat(store.exists(KEY)).isTrue();
+
+        assertThat(store.deleteIfIdle(KEY, Instant.now().plusSeconds(1))).isTrue();
+        assertThat(store.exists(KEY)).isFalse();
+    }
+
+    @Test
+    void undoingAWriteSparesABlobReusedAfterIt() throws Exception {
+        FileSystemImageBlobStore store = new FileSystemImageBlobStore(dir.toString());
+        Instant written = store.put(KEY, new byte[] {1, 2, 3});
+        assertThat(written).isNotNull();
+        assertThat(store.put(KEY, new byte[] {1, 2, 3})).isNull(); // deduplicada: no es escritura propia
+
+        Thread.sleep(5);
+        assertThat(store.deleteIfIdle(KEY, written.plusNanos(1))).isFalse();
+
+        Instant mine = store.put("ff00ff00ff", new byte[] {4});
+        assertThat(store.deleteIfIdle("ff00ff00ff", mine.plusNanos(1))).isTrue();
+    }
+
+    @Test
+    void keysListsStoredBlobsWithoutTemporaryFiles() throws Exception {
+        FileSystemImageBlobStore store = new FileSystemImageBlobStore(dir.toString());
+        store.put(KEY, new byte[] {1});
+        store.put(KEY + "-w320", new byte[] {2});
+
+        try (Stream<String> keys = store.keys()) {
+            assertThat(keys).containsExactlyInAnyOrder(KEY, KEY + "-w320");
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.uade.tpo.Farmacia.service.impl;
+
+import com.example.uade.tpo.Farmacia.entity.Order;
+import com.example.uade.tpo.Farmacia.exception.ConflictException;
+import com.example.uade.tpo.Farmacia.repository.OrderRepository;
+import com.example.uade.tpo.Farmacia.service.OrderEventBus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Stripe se reemplaza por una subclase: el intent siempre figura cobrado y los reintegros se anotan
+@SpringBootTest
+@ActiveProfiles("test")
+class PaymentServiceImplTest {
+
+  @Autowired OrderRepository orders;
+  @Autowired OrderEventBus events;
+  @Autowired PlatformTransactionManager transactionManager;
+  @Autowired JdbcTemplate jdbc;
+
+  private final List<String> refunds = new ArrayList<>();
+  private PaymentServiceImpl payments;
+
+  @BeforeEach
+  void setUp() {
+    payments = new PaymentServiceImpl(orders, events, transactionManager) {
+      @Override
+      public boolean verifyPayment(String paymentId) {
+        return true;
+      }
+
+      @Override
+      public void refundPayment(String paymentId) {
+        refunds.add(paymentId);
+      }
+    };
+  }
+
+  @Test
+  void confirmsAnOpenOrder() {
+    long orderId = order("PENDING");
+
+    Order order = payments.confirmPayment(orderId, "pi_open", "STRIPE");
+
+    assertThat(order.getStatus()).isEqualTo(Order.Status.CONFIRMED);
+    assertThat(order.getPaymentStatus()).isEqualTo(Order.PaymentStatus.PAID);
+    assertThat(refunds).isEmpty();
+  }
+
+  @Test
+  void recordsAndRefundsAPaymentForAnExpiredOrder() {
+    long orderId = order("CANCELLED");
+
+    assertThatThrownBy(() -> payments.confirmPayment(orderId, "pi_expired", "STRIPE"))
+        .isInstanceOf(ConflictException.class);
+
+    Map<String, Object> row = jdbc.queryForMap("SELECT status, payment_status, total_paid FROM orders WHERE id = ?", orderId);
+    assertThat(row.get("status")).isEqualTo("CANCELLED");
+    assertThat(row.get("payment_status")).isEqualTo("REFUNDED");
+    assertThat(row.get("total_paid")).isNotNull();
+    assertThat(refunds).containsExactly("pi_expired");
+
+    // Un segundo intento no vuelve a reintegrar
+    assertThatThrownBy(() -> payments.confirmPayment(orderId, "pi_expired", "STRIPE"));
+    assertThat(refunds).hasSize(1);
+  }
+
+  private long order(String status) {
+    Long userId = jdbc.queryForObject("SELECT MIN(id) FROM users", Long.class);
+    jdbc.update("INSERT INTO orders (user_id, total, status, payment_status, payment_method, created_at, delivery_method) " +
+        "VALUES (?, 50, ?, 'PENDING', 'CARD', CURRENT_TIMESTAMP, 'PICKUP')", userId, status);
+    return jdbc.queryForObject("SELECT MAX(id) FROM orders WHERE user_id = ?", Long.class, userId);
+  }
+}